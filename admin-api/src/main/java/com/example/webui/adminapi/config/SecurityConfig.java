@@ -1,8 +1,6 @@
 package com.example.webui.adminapi.config;
 
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
+import com.example.webui.common.security.JwtVerifier;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
@@ -26,8 +24,7 @@ import org.springframework.web.filter.CorsFilter;
 import org.springframework.lang.NonNull;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.Key;
+import java.time.Duration;
 import java.util.Arrays;
 
 @Configuration
@@ -36,11 +33,22 @@ public class SecurityConfig {
     @Value("${jwt.secret}")
     private String jwtSecret;
 
+    @Value("${jwt.cache.max-size:10000}")
+    private long jwtCacheMaxSize;
+
+    @Value("${jwt.cache.max-ttl-seconds:600}")
+    private long jwtCacheMaxTtlSeconds;
+
     @Value("${cors.allowed-origins}")
     private String allowedOrigins;
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public JwtVerifier jwtVerifier() {
+        return new JwtVerifier(jwtSecret, jwtCacheMaxSize, Duration.ofSeconds(jwtCacheMaxTtlSeconds));
+    }
+
+    @Bean
+    public SecurityFilterChain filterChain(HttpSecurity http, JwtVerifier jwtVerifier) throws Exception {
         http.csrf(csrf -> csrf.disable())
             .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
@@ -50,7 +58,7 @@ public class SecurityConfig {
                 .requestMatchers("/admin/auth/bootstrap-admin", "/api/admin/auth/bootstrap-admin").permitAll()
                 .requestMatchers("/admin/**", "/api/admin/**").authenticated()
                 .anyRequest().permitAll())
-            .addFilterBefore(new JwtFilter(jwtSecret), UsernamePasswordAuthenticationFilter.class)
+            .addFilterBefore(new JwtFilter(jwtVerifier), UsernamePasswordAuthenticationFilter.class)
             .addFilterBefore(corsFilter(), UsernamePasswordAuthenticationFilter.class);
         
         return http.build();
@@ -69,10 +77,10 @@ public class SecurityConfig {
     }
 
     static class JwtFilter extends OncePerRequestFilter {
-        private final Key key;
+        private final JwtVerifier verifier;
 
-        JwtFilter(String secret) {
-            this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        JwtFilter(JwtVerifier verifier) {
+            this.verifier = verifier;
         }
 
         @Override
@@ -89,20 +97,15 @@ public class SecurityConfig {
                     }
                 }
             }
-            if (token != null && !token.isBlank()) {
-                try {
-                    Claims claims = Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
-                    String userId = claims.get("userId", String.class);
-                    String username = claims.get("username", String.class);
-                    if (userId != null && username != null) {
-                        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(new User(username, "", java.util.List.of()), null, java.util.List.of());
-                        // 将userId放入Map中，以便getActorId方法可以正确提取
-                        java.util.Map<String, Object> details = new java.util.HashMap<>();
-                        details.put("userId", userId);
-                        auth.setDetails(details);
-                        SecurityContextHolder.getContext().setAuthentication(auth);
-                    }
-                } catch (Exception ignored) {}
+            // 校验结果按token缓存，同一token的后续请求不再做签名校验
+            JwtVerifier.Principal principal = verifier.verify(token);
+            if (principal != null) {
+                UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(new User(principal.username(), "", java.util.List.of()), null, java.util.List.of());
+                // 将userId放入Map中，以便getActorId方法可以正确提取
+                java.util.Map<String, Object> details = new java.util.HashMap<>();
+                details.put("userId", principal.userId());
+                auth.setDetails(details);
+                SecurityContextHolder.getContext().setAuthentication(auth);
             }
             filterChain.doFilter(request, response);
         }
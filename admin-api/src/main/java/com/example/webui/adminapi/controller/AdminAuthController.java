@@ -3,7 +3,8 @@ package com.example.webui.adminapi.controller;
 import com.example.webui.common.entity.User;
 import com.example.webui.common.entity.AuditLog;
 import com.example.webui.common.repo.UserRepository;
-import com.example.webui.common.repo.AuditLogRepository;
+import com.example.webui.common.log.AsyncLogWriter;
+import com.example.webui.common.stats.StatsCounters;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.Cookie;
@@ -29,7 +30,10 @@ public class AdminAuthController {
     private UserRepository userRepo;
     
     @Autowired
-    private AuditLogRepository auditRepo;
+    private AsyncLogWriter logWriter;
+
+    @Autowired
+    private StatsCounters stats;
 
     @Value("${jwt.secret}")
     private String jwtSecret;
@@ -86,7 +90,8 @@ public class AdminAuthController {
             log.setIp(request.getHeader("X-Forwarded-For") != null ? request.getHeader("X-Forwarded-For") : request.getRemoteAddr());
             log.setAction("admin_login");
             log.setDetails("管理员登录");
-            auditRepo.save(log);
+            // 异步批量写入，不阻塞登录
+            logWriter.submit(log);
         } catch (Exception ignored) {}
         
         // 返回响应
@@ -169,6 +174,7 @@ public class AdminAuthController {
         admin.setCreatedAt(Instant.now());
         
         userRepo.save(admin);
+        stats.inserted(StatsCounters.USERS, admin.getStatus());
         
         Map<String, Object> res = new HashMap<>();
         res.put("code", 200);
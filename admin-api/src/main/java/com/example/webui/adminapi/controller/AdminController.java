@@ -1,7 +1,9 @@
 package com.example.webui.adminapi.controller;
 
+import com.example.webui.common.cache.ConfigCache;
 import com.example.webui.common.entity.*;
 import com.example.webui.common.repo.*;
+import com.example.webui.common.stats.StatsCounters;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -10,9 +12,10 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.web.bind.annotation.*;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
+import com.example.webui.adminapi.service.ExportService;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Instant;
 import java.util.*;
 
 @RestController
@@ -26,32 +29,47 @@ public class AdminController {
     @Autowired private FeedbackRepository feedbackRepo;
     @Autowired private AuditLogRepository auditRepo;
     @Autowired private WorkflowConfigRepository workflowRepo;
-    @PersistenceContext private EntityManager entityManager;
+    @Autowired private ExportService exportService;
+    @Autowired private ConfigCache configCache;
+    @Autowired private StatsCounters stats;
 
     @GetMapping("/stats")
     public ResponseEntity<?> stats() {
         Map<String,Object> res = new HashMap<>();
         res.put("code", 200);
+        // 预计算的计数器，不对大表执行COUNT(*)，最多滞后stats.max-staleness-ms
+        Map<String,Long> counters = stats.snapshot();
         Map<String,Object> data = new HashMap<>();
-        data.put("users", userRepo.count());
-        data.put("conversations", conversationRepo.count());
-        data.put("messages", messageRepo.count());
+        data.put("users", counters.getOrDefault(StatsCounters.USERS, 0L));
+        data.put("conversations", counters.getOrDefault(StatsCounters.CONVERSATIONS, 0L));
+        data.put("messages", counters.getOrDefault(StatsCounters.MESSAGES, 0L));
         res.put("data", data);
         return ResponseEntity.ok(res);
     }
 
+    // 立即用分组统计校准计数器（平时由user-api定时校准）
+    @PostMapping("/stats/reconcile")
+    public ResponseEntity<?> reconcileStats() {
+        stats.reconcile();
+        Map<String,Object> res = new HashMap<>();
+        res.put("code", 200);
+        res.put("data", stats.snapshot());
+        return ResponseEntity.ok(res);
+    }
+
     @GetMapping("/users/stats")
     public ResponseEntity<?> userStats() {
         try {
             Map<String,Object> res = new HashMap<>();
             res.put("code", 200);
             
-            // 统计各种状态的用户数量
-            long total = userRepo.count();
-            long active = userRepo.countByStatus("ACTIVE");
-            long pending = userRepo.countByStatus("PENDING");
-            long banned = userRepo.countByStatus("BANNED");
-            long rejected = userRepo.countByStatus("REJECTED");
+            // 统计各种状态的用户数量（预计算的计数器）
+            Map<String,Long> counters = stats.snapshot();
+            long total = counters.getOrDefault(StatsCounters.USERS, 0L);
+            long active = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.USERS, "ACTIVE"), 0L);
+            long pending = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.USERS, "PENDING"), 0L);
+            long banned = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.USERS, "BANNED"), 0L);
+            long rejected = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.USERS, "REJECTED"), 0L);
             
             Map<String,Object> data = new HashMap<>();
             data.put("total", total);
@@ -72,29 +90,89 @@ public class AdminController {
         }
     }
 
+    private static final int MAX_USER_PAGE_SIZE = 100;
+
+    /**
+     * 后台用户列表：服务端分页，按注册时间倒序。
+     * 翻页方式：cursor为上一页返回的nextCursor时按(createdAt, id)键集翻页，与页码深度无关；没有cursor时按page/pageSize分页。
+     * 过滤：status、role、startDate/endDate（注册时间，ISO时间、yyyy-MM-dd或毫秒时间戳，结束日期包含当天），
+     * username/phone/email/realName按各自字段前缀匹配，q同时匹配这四个字段的前缀。
+     */
     @GetMapping("/users")
-    public ResponseEntity<?> users() {
+    public ResponseEntity<?> users(@RequestParam(name = "cursor", required = false) String cursor,
+                                   @RequestParam(name = "page", defaultValue = "1") int page,
+                                   @RequestParam(name = "pageSize", required = false) Integer pageSize,
+                                   @RequestParam(name = "limit", required = false) Integer limit,
+                                   @RequestParam(name = "q", required = false) String q,
+                                   @RequestParam(name = "username", required = false) String username,
+                                   @RequestParam(name = "phone", required = false) String phone,
+                                   @RequestParam(name = "email", required = false) String email,
+                                   @RequestParam(name = "realName", required = false) String realName,
+                                   @RequestParam(name = "status", required = false) String status,
+                                   @RequestParam(name = "role", required = false) String role,
+                                   @RequestParam(name = "startDate", required = false) String startDate,
+                                   @RequestParam(name = "endDate", required = false) String endDate) {
         try {
-            // 使用自定义查询，获取需要的字段，包括角色信息
-            List<Map<String, Object>> users = entityManager.createQuery("SELECT u.id, u.username, u.phone, u.email, u.realName, u.role, u.createdAt FROM User u", Object[].class)
-                .getResultList()
-                .stream()
-                .map(result -> {
-                    // 转换查询结果为Map，包含用户角色信息
-                    Map<String, Object> userMap = new HashMap<>();
-                    userMap.put("id", result[0]);
-                    userMap.put("username", result[1]);
-                    userMap.put("phone", result[2]);
-                    userMap.put("email", result[3]);
-                    userMap.put("realName", result[4]);
-                    userMap.put("role", result[5]);
-                    userMap.put("createdAt", result[6] != null ? result[6].toString() : null);
-                    return userMap;
-                })
-                .collect(java.util.stream.Collectors.toList());
+            int size = Math.max(1, Math.min(pageSize != null ? pageSize : limit != null ? limit : 20, MAX_USER_PAGE_SIZE));
+            Instant from, to;
+            try {
+                from = parseDate(startDate, false);
+                to = parseDate(endDate, true);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(err(e.getMessage()));
+            }
+            String st = blankToNull(status), rl = blankToNull(role);
+            String qp = prefix(q), up = prefix(username), pp = prefix(phone), ep = prefix(email), rp = prefix(realName);
+
+            // 总数：只按状态过滤（或不过滤）时取预计算的计数器，其他过滤条件走带索引的COUNT
+            long total;
+            if (rl == null && from == null && to == null && qp == null && up == null && pp == null && ep == null && rp == null) {
+                total = stats.get(st == null ? StatsCounters.USERS : StatsCounters.byStatus(StatsCounters.USERS, st));
+            } else {
+                total = userRepo.countList(st, rl, from, to, up, pp, ep, rp, qp);
+            }
+
+            List<UserRow> rows;
+            boolean hasMore;
+            if (cursor != null && !cursor.isBlank()) {
+                UserCursor after = decodeUserCursor(cursor);
+                if (after == null) return ResponseEntity.badRequest().body(err("无效的分页游标"));
+                rows = userRepo.findListPage(st, rl, from, to, up, pp, ep, rp, qp, after.createdAt(), after.id(), PageRequest.of(0, size + 1));
+                hasMore = rows.size() > size;
+                if (hasMore) rows = rows.subList(0, size);
+            } else {
+                page = Math.max(1, page);
+                rows = userRepo.findListPage(st, rl, from, to, up, pp, ep, rp, qp, null, null, PageRequest.of(page - 1, size));
+                hasMore = (long) page * size < total;
+            }
+
+            List<Map<String, Object>> users = new ArrayList<>(rows.size());
+            for (UserRow u : rows) {
+                Map<String, Object> userMap = new LinkedHashMap<>();
+                userMap.put("id", u.getId());
+                userMap.put("username", u.getUsername());
+                userMap.put("phone", u.getPhone());
+                userMap.put("email", u.getEmail());
+                userMap.put("realName", u.getRealName());
+                userMap.put("role", u.getRole());
+                userMap.put("status", u.getStatus());
+                userMap.put("createdAt", u.getCreatedAt() != null ? u.getCreatedAt().toString() : null);
+                users.add(userMap);
+            }
+
+            Map<String, Object> pagination = new HashMap<>();
+            pagination.put("page", page);
+            pagination.put("pageSize", size);
+            pagination.put("total", total);
+            pagination.put("hasMore", hasMore);
+            pagination.put("nextCursor", hasMore && !rows.isEmpty() ? encodeUserCursor(rows.get(rows.size() - 1)) : null);
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("users", users);
+            data.put("pagination", pagination);
             Map<String,Object> res = new HashMap<>();
             res.put("code", 200);
-            res.put("data", Map.of("users", users));
+            res.put("data", data);
             return ResponseEntity.ok(res);
         } catch (Exception e) {
             // 记录详细错误信息
@@ -108,14 +186,54 @@ public class AdminController {
         }
     }
 
+    private record UserCursor(Instant createdAt, String id) {}
+
+    // 游标格式：base64url("createdAt|id")，对客户端不透明
+    private static String encodeUserCursor(UserRow u) {
+        String raw = u.getCreatedAt().toString() + "|" + u.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
+
+    private static UserCursor decodeUserCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), java.nio.charset.StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            if (sep <= 0 || sep == raw.length() - 1) return null;
+            return new UserCursor(Instant.parse(raw.substring(0, sep)), raw.substring(sep + 1));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // 前缀匹配模式：转义LIKE通配符（转义符为!）后加%，为空返回null
+    private static String prefix(String value) {
+        if (value == null || value.isBlank()) return null;
+        return value.trim().replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    // 日期选择器传来的毫秒时间戳为所选日期的零点，作为结束日期时包含当天
+    private static Instant parseDate(String value, boolean end) {
+        if (value != null && value.matches("\\d{10,}")) {
+            Instant t = Instant.ofEpochMilli(Long.parseLong(value));
+            return end ? t.plus(java.time.Duration.ofDays(1)) : t;
+        }
+        return ExportService.parseTime(value, end);
+    }
+
     @PutMapping("/users/{id}/approve")
     @Transactional
     public ResponseEntity<?> approve(@PathVariable("id") String id, Authentication auth, HttpServletRequest request) {
         User u = userRepo.findById(id).orElse(null);
         if (u == null) return ResponseEntity.status(404).body(err("用户不存在"));
         // 审批通过，设置用户状态为ACTIVE
+        String oldStatus = u.getStatus();
         u.setStatus("ACTIVE");
         userRepo.save(u);
+        stats.statusChanged(StatsCounters.USERS, oldStatus, u.getStatus());
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -137,8 +255,10 @@ public class AdminController {
         User u = userRepo.findById(id).orElse(null);
         if (u == null) return ResponseEntity.status(404).body(err("用户不存在"));
         // 拒绝审批，设置用户状态为REJECTED
+        String oldStatus = u.getStatus();
         u.setStatus("REJECTED");
         userRepo.save(u);
+        stats.statusChanged(StatsCounters.USERS, oldStatus, u.getStatus());
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -157,8 +277,12 @@ public class AdminController {
     @DeleteMapping("/users/{id}")
     @Transactional
     public ResponseEntity<?> delete(@PathVariable("id") String id, Authentication auth, HttpServletRequest request) {
-        if (!userRepo.existsById(id)) return ResponseEntity.status(404).body(err("用户不存在"));
+        User deleted = userRepo.findById(id).orElse(null);
+        if (deleted == null) return ResponseEntity.status(404).body(err("用户不存在"));
         userRepo.deleteById(id);
+        stats.deleted(StatsCounters.USERS, deleted.getStatus());
+        // 级联删除的对话、消息、反馈数量不确定，由校准修正
+        stats.requestReconcile();
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -179,6 +303,7 @@ public class AdminController {
     public ResponseEntity<?> updateUser(@PathVariable("id") String id, @RequestBody Map<String,Object> patch, Authentication auth, HttpServletRequest request) {
         User user = userRepo.findById(id).orElse(null);
         if (user == null) return ResponseEntity.status(404).body(err("用户不存在"));
+        String oldStatus = user.getStatus();
         
         // 支持修改用户的基本信息和角色
         if (patch.containsKey("username")) user.setUsername(patch.get("username").toString());
@@ -202,6 +327,15 @@ public class AdminController {
                 return ResponseEntity.badRequest().body(err("密码长度必须至少为8个字符"));
             }
         }
+        // token额度：为空时使用全局配置，0表示不限制
+        if (patch.containsKey("dailyTokenQuota")) {
+            String v = Objects.toString(patch.get("dailyTokenQuota"), "");
+            user.setDailyTokenQuota(v.isBlank() ? null : Long.parseLong(v));
+        }
+        if (patch.containsKey("monthlyTokenQuota")) {
+            String v = Objects.toString(patch.get("monthlyTokenQuota"), "");
+            user.setMonthlyTokenQuota(v.isBlank() ? null : Long.parseLong(v));
+        }
         if (patch.containsKey("status")) {
             String newStatus = patch.get("status").toString();
             // 验证状态是否合法
@@ -213,6 +347,7 @@ public class AdminController {
         }
         
         userRepo.save(user);
+        stats.statusChanged(StatsCounters.USERS, oldStatus, user.getStatus());
         
         try {
             AuditLog log = new AuditLog();
@@ -236,8 +371,10 @@ public class AdminController {
         User u = userRepo.findById(id).orElse(null);
         if (u == null) return ResponseEntity.status(404).body(err("用户不存在"));
         // 封禁用户，设置状态为BANNED
+        String oldStatus = u.getStatus();
         u.setStatus("BANNED");
         userRepo.save(u);
+        stats.statusChanged(StatsCounters.USERS, oldStatus, u.getStatus());
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -259,8 +396,10 @@ public class AdminController {
         User u = userRepo.findById(id).orElse(null);
         if (u == null) return ResponseEntity.status(404).body(err("用户不存在"));
         // 解封用户，设置状态为ACTIVE
+        String oldStatus = u.getStatus();
         u.setStatus("ACTIVE");
         userRepo.save(u);
+        stats.statusChanged(StatsCounters.USERS, oldStatus, u.getStatus());
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -280,14 +419,13 @@ public class AdminController {
     public ResponseEntity<?> userConversations(@PathVariable("id") String id) {
         User u = userRepo.findById(id).orElse(null);
         if (u == null) return ResponseEntity.status(404).body(err("用户不存在"));
-        List<Conversation> convs = conversationRepo.findByUserOrderByUpdatedAtDesc(u);
+        List<ConversationSummary> convs = conversationRepo.findAllSummariesByUser(u.getId());
         List<Map<String,Object>> res = new ArrayList<>();
-        for (Conversation c : convs) {
-            Message last = c.getMessages().stream().max(Comparator.comparing(Message::getCreatedAt)).orElse(null);
+        for (ConversationSummary c : convs) {
             Map<String,Object> m = new HashMap<>();
             m.put("id", c.getId());
             m.put("title", c.getTitle());
-            if (last != null) m.put("lastMessage", Map.of("id", last.getId(), "content", last.getContent()));
+            if (c.getLastMessageId() != null) m.put("lastMessage", Map.of("id", c.getLastMessageId(), "content", c.getLastMessagePreview()));
             res.add(m);
         }
         Map<String,Object> response = new HashMap<>();
@@ -310,15 +448,8 @@ public class AdminController {
         
         // 使用PageRequest进行分页查询，Spring Data的页码从0开始
         PageRequest pageable = PageRequest.of(page - 1, limit);
-        Page<Conversation> conversationPage;
-        
-        // 如果有查询参数，则进行模糊查询
-        if (query != null && !query.isBlank()) {
-            // 按标题模糊查询
-            conversationPage = conversationRepo.findByTitleContainingIgnoreCase(query, pageable);
-        } else {
-            conversationPage = conversationRepo.findAll(pageable);
-        }
+        // 一条投影查询取出对话、用户名和最后消息摘要；有查询参数时按标题模糊查询
+        Page<ConversationSummary> conversationPage = conversationRepo.findSummaries(query != null && !query.isBlank() ? query : null, pageable);
         
         Map<String, Object> data = new HashMap<>();
         
@@ -331,28 +462,23 @@ public class AdminController {
             convMap.put("updatedAt", conv.getUpdatedAt().toString());
             
             // 获取用户信息
-            if (conv.getUser() != null) {
-                convMap.put("userId", conv.getUser().getId());
-                convMap.put("username", conv.getUser().getUsername());
+            if (conv.getUserId() != null) {
+                convMap.put("userId", conv.getUserId());
+                convMap.put("username", conv.getUsername());
             } else {
                 convMap.put("userId", null);
                 convMap.put("username", "未知用户");
             }
             
-            // 获取最后一条消息
-            Message lastMessage = conv.getMessages().stream()
-                    .max(Comparator.comparing(Message::getCreatedAt))
-                    .orElse(null);
-            
-            if (lastMessage != null) {
+            // 最后一条消息摘要
+            if (conv.getLastMessageId() != null) {
+                String preview = conv.getLastMessagePreview();
                 convMap.put("lastMessage", Map.of(
-                    "id", lastMessage.getId(),
-                    "content", lastMessage.getContent().length() > 50 ? 
-                            lastMessage.getContent().substring(0, 50) + "..." : 
-                            lastMessage.getContent(),
-                    "createdAt", lastMessage.getCreatedAt().toString()
+                    "id", conv.getLastMessageId(),
+                    "content", preview.length() > 50 ? preview.substring(0, 50) + "..." : preview,
+                    "createdAt", conv.getLastMessageAt().toString()
                 ));
-                convMap.put("messageCount", conv.getMessages().size());
+                convMap.put("messageCount", conv.getMessageCount() != null ? conv.getMessageCount() : 0);
             } else {
                 convMap.put("lastMessage", null);
                 convMap.put("messageCount", 0);
@@ -382,7 +508,10 @@ public class AdminController {
         if (conv == null) return ResponseEntity.status(404).body(err("对话不存在"));
         
         // 删除对话及其所有消息（由于设置了级联删除，消息会自动删除）
+        long messageCount = messageRepo.countByConversation_Id(id);
         conversationRepo.deleteById(id);
+        stats.deleted(StatsCounters.CONVERSATIONS, null);
+        stats.add(StatsCounters.MESSAGES, -messageCount);
         
         try {
             AuditLog log = new AuditLog();
@@ -404,122 +533,26 @@ public class AdminController {
     public ResponseEntity<?> exportConversations(@RequestParam(name = "format", defaultValue = "csv") String format,
                                                 @RequestParam(name = "startTime", required = false) String startTime,
                                                 @RequestParam(name = "endTime", required = false) String endTime,
-                                                @RequestParam(name = "query", required = false) String query) {
+                                                @RequestParam(name = "startDate", required = false) String startDate,
+                                                @RequestParam(name = "endDate", required = false) String endDate,
+                                                @RequestParam(name = "query", required = false) String query,
+                                                @RequestParam(name = "title", required = false) String title,
+                                                @RequestParam(name = "userId", required = false) String userId,
+                                                @RequestParam(name = "username", required = false) String username,
+                                                @RequestParam(name = "gzip", defaultValue = "false") boolean gzip) {
         try {
-            // 获取所有对话（暂时不考虑分页，导出所有数据）
-            List<Conversation> allConversations;
-            
-            if (query != null && !query.isBlank()) {
-                // 按标题模糊查询
-                allConversations = conversationRepo.findByTitleContainingIgnoreCase(query);
-            } else {
-                allConversations = conversationRepo.findAll();
+            // 按用户名过滤时先解析出用户ID，用户不存在则导出空文件
+            if ((userId == null || userId.isBlank()) && username != null && !username.isBlank()) {
+                userId = userRepo.findByUsername(username).map(User::getId).orElse("-");
             }
-            
-            // 根据格式生成导出内容
-            String content;
-            String contentType;
-            String filename;
-            
-            if (format.equalsIgnoreCase("json")) {
-                // 生成JSON格式
-                StringBuilder json = new StringBuilder();
-                json.append("[");
-                
-                for (int i = 0; i < allConversations.size(); i++) {
-                    Conversation conv = allConversations.get(i);
-                    json.append("{");
-                    json.append("\"id\":\"").append(conv.getId()).append("\",");
-                    json.append("\"title\":\"").append(conv.getTitle() != null ? conv.getTitle().replace("\"", "\\\"") : "").append("\",");
-                    json.append("\"createdAt\":\"").append(conv.getCreatedAt()).append("\",");
-                    json.append("\"updatedAt\":\"").append(conv.getUpdatedAt()).append("\",");
-                    
-                    if (conv.getUser() != null) {
-                        json.append("\"userId\":\"").append(conv.getUser().getId()).append("\",");
-                        json.append("\"username\":\"").append(conv.getUser().getUsername()).append("\",");
-                    } else {
-                        json.append("\"userId\":null,");
-                        json.append("\"username\":\"未知用户\",");
-                    }
-                    
-                    json.append("\"messageCount\":").append(conv.getMessages().size()).append(",");
-                    
-                    // 获取最后一条消息
-                    Message lastMessage = conv.getMessages().stream()
-                            .max(Comparator.comparing(Message::getCreatedAt))
-                            .orElse(null);
-                    
-                    if (lastMessage != null) {
-                        json.append("\"lastMessage\":{");
-                        json.append("\"id\":\"").append(lastMessage.getId()).append("\",");
-                        json.append("\"content\":\"").append(lastMessage.getContent() != null ? lastMessage.getContent().replace("\"", "\\\"") : "").append("\",");
-                        json.append("\"role\":\"").append(lastMessage.getRole()).append("\",");
-                        json.append("\"createdAt\":\"").append(lastMessage.getCreatedAt()).append("\"");
-                        json.append("}");
-                    } else {
-                        json.append("\"lastMessage\":null");
-                    }
-                    
-                    json.append("}");
-                    
-                    if (i < allConversations.size() - 1) {
-                        json.append(",");
-                    }
-                }
-                
-                json.append("]");
-                content = json.toString();
-                contentType = "application/json";
-                filename = "conversations_export.json";
-            } else {
-                // 默认生成CSV格式
-                StringBuilder csv = new StringBuilder();
-                // 写入CSV表头
-                csv.append("ID,Title,User ID,Username,Message Count,Last Message,Created At,Updated At\n");
-                // 写入数据行
-                for (Conversation conv : allConversations) {
-                    csv.append(conv.getId()).append(",");
-                    csv.append("\"").append(conv.getTitle() != null ? conv.getTitle().replace("\"", "\"\"") : "").append("\",");
-                    
-                    if (conv.getUser() != null) {
-                        csv.append(conv.getUser().getId()).append(",");
-                        csv.append(conv.getUser().getUsername()).append(",");
-                    } else {
-                        csv.append(",");
-                        csv.append("未知用户,");
-                    }
-                    
-                    csv.append(conv.getMessages().size()).append(",");
-                    
-                    // 获取最后一条消息
-                    Message lastMessage = conv.getMessages().stream()
-                            .max(Comparator.comparing(Message::getCreatedAt))
-                            .orElse(null);
-                    
-                    if (lastMessage != null) {
-                        String lastMsgContent = lastMessage.getContent() != null ? 
-                                lastMessage.getContent().replace("\"", "\"\"") : "";
-                        if (lastMsgContent.length() > 100) {
-                            lastMsgContent = lastMsgContent.substring(0, 100) + "...";
-                        }
-                        csv.append("\"").append(lastMsgContent).append("\",");
-                    } else {
-                        csv.append(",");
-                    }
-                    
-                    csv.append(conv.getCreatedAt()).append(",");
-                    csv.append(conv.getUpdatedAt()).append("\n");
-                }
-                content = csv.toString();
-                contentType = "text/csv";
-                filename = "conversations_export.csv";
-            }
-            
-            // 返回文件下载响应
-            return ResponseEntity.ok()
-                    .contentType(org.springframework.http.MediaType.parseMediaType(contentType))
-                    .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename)
-                    .body(content);
+            String keyword = query != null && !query.isBlank() ? query : (title != null && !title.isBlank() ? title : null);
+            ExportService.Filter filter = new ExportService.Filter(
+                    ExportService.parseTime(startTime != null ? startTime : startDate, false),
+                    ExportService.parseTime(endTime != null ? endTime : endDate, true),
+                    userId != null && !userId.isBlank() ? userId : null, keyword, null);
+            return exportResponse(exportService.conversations(format, gzip, filter), format, gzip, "conversations_export");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(err(e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(err("对话导出失败: " + e.getMessage()));
         }
@@ -568,6 +601,7 @@ public class AdminController {
             
             m.setId(null); 
             modelRepo.save(m);
+            configCache.invalidate();
             try {
                 AuditLog log = new AuditLog();
                 String actorId = getActorId(auth);
@@ -614,8 +648,17 @@ public class AdminController {
         if (patch.containsKey("temperature")) mc.setTemperature(Double.parseDouble(Objects.toString(patch.get("temperature"), "0.0")));
         if (patch.containsKey("maxTokens")) mc.setMaxTokens(Integer.parseInt(Objects.toString(patch.get("maxTokens"), "0")));
         if (patch.containsKey("topP")) mc.setTopP(Double.parseDouble(Objects.toString(patch.get("topP"), "0.0")));
+        if (patch.containsKey("maxConcurrency")) {
+            String v = Objects.toString(patch.get("maxConcurrency"), "");
+            mc.setMaxConcurrency(v.isBlank() ? null : Integer.parseInt(v));
+        }
+        if (patch.containsKey("contextWindow")) {
+            String v = Objects.toString(patch.get("contextWindow"), "");
+            mc.setContextWindow(v.isBlank() ? null : Integer.parseInt(v));
+        }
         
         modelRepo.save(mc);
+        configCache.invalidate();
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -640,6 +683,7 @@ public class AdminController {
     public ResponseEntity<?> deleteModel(@PathVariable("id") String id, Authentication auth, HttpServletRequest request) {
         if (!modelRepo.existsById(id)) return ResponseEntity.status(404).body(err("模型不存在"));
         modelRepo.deleteById(id);
+        configCache.invalidate();
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -665,11 +709,12 @@ public class AdminController {
             Map<String, Object> res = new HashMap<>();
             res.put("code", 200);
             
-            // 统计各种状态的反馈数量
-            long total = feedbackRepo.count();
-            long pending = feedbackRepo.countByStatus("pending");
-            long processed = feedbackRepo.countByStatus("processed");
-            long closed = feedbackRepo.countByStatus("closed");
+            // 统计各种状态的反馈数量（预计算的计数器）
+            Map<String, Long> counters = stats.snapshot();
+            long total = counters.getOrDefault(StatsCounters.FEEDBACKS, 0L);
+            long pending = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.FEEDBACKS, "pending"), 0L);
+            long processed = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.FEEDBACKS, "processed"), 0L);
+            long closed = counters.getOrDefault(StatsCounters.byStatus(StatsCounters.FEEDBACKS, "closed"), 0L);
             
             Map<String, Object> data = new HashMap<>();
             data.put("total", total);
@@ -797,91 +842,48 @@ public class AdminController {
     public ResponseEntity<?> exportLogs(@RequestParam(name = "format", defaultValue = "csv") String format,
                                        @RequestParam(name = "startTime", required = false) String startTime,
                                        @RequestParam(name = "endTime", required = false) String endTime,
-                                       @RequestParam(name = "action", required = false) String action) {
+                                       @RequestParam(name = "startDate", required = false) String startDate,
+                                       @RequestParam(name = "endDate", required = false) String endDate,
+                                       @RequestParam(name = "action", required = false) String action,
+                                       @RequestParam(name = "userId", required = false) String userId,
+                                       @RequestParam(name = "ip", required = false) String ip,
+                                       @RequestParam(name = "gzip", defaultValue = "false") boolean gzip) {
         try {
-            // 获取所有日志（暂时不考虑分页，导出所有数据）
-            List<AuditLog> allLogs = auditRepo.findAll();
-            
-            // 根据格式生成导出内容
-            String content;
-            String contentType;
-            String filename;
-            
-            if (format.equalsIgnoreCase("json")) {
-                // 生成JSON格式 - 使用简单的方式
-                StringBuilder json = new StringBuilder();
-                json.append("[");
-                
-                for (int i = 0; i < allLogs.size(); i++) {
-                    AuditLog log = allLogs.get(i);
-                    json.append("{");
-                    json.append("\"id\":\"").append(log.getId()).append("\",");
-                    if (log.getUser() != null) {
-                        json.append("\"userId\":\"").append(log.getUser().getId()).append("\",");
-                        json.append("\"username\":\"").append(log.getUser().getUsername()).append("\",");
-                    } else {
-                        json.append("\"userId\":null,");
-                        json.append("\"username\":\"未知用户\",");
-                    }
-                    json.append("\"ip\":\"").append(log.getIp()).append("\",");
-                    json.append("\"action\":\"").append(log.getAction()).append("\",");
-                    json.append("\"details\":\"").append(log.getDetails() != null ? log.getDetails().replace("\"", "\\\"") : "").append("\",");
-                    json.append("\"createdAt\":\"").append(log.getCreatedAt()).append("\"");
-                    json.append("}");
-                    
-                    if (i < allLogs.size() - 1) {
-                        json.append(",");
-                    }
-                }
-                
-                json.append("]");
-                content = json.toString();
-                contentType = "application/json";
-                filename = "logs_export.json";
-            } else {
-                // 默认生成CSV格式
-                StringBuilder csv = new StringBuilder();
-                // 写入CSV表头
-                csv.append("ID,User ID,Username,IP,Action,Details,Created At\n");
-                // 写入数据行
-                for (AuditLog log : allLogs) {
-                    csv.append(log.getId()).append(",");
-                    // 安全地获取用户信息，避免NPE
-                    if (log.getUser() != null) {
-                        csv.append(log.getUser().getId()).append(",");
-                        csv.append(log.getUser().getUsername()).append(",");
-                    } else {
-                        csv.append(",");
-                        csv.append("未知用户,");
-                    }
-                    csv.append(log.getIp()).append(",");
-                    csv.append(log.getAction()).append(",");
-                    csv.append("\"").append(log.getDetails() != null ? log.getDetails().replace("\"", "\"\"") : "").append("\"").append(",");
-                    csv.append(log.getCreatedAt()).append("\n");
-                }
-                content = csv.toString();
-                contentType = "text/csv";
-                filename = "logs_export.csv";
-            }
-            
-            // 返回文件下载响应
-            return ResponseEntity.ok()
-                    .contentType(org.springframework.http.MediaType.parseMediaType(contentType))
-                    .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename)
-                    .body(content);
+            ExportService.Filter filter = new ExportService.Filter(
+                    ExportService.parseTime(startTime != null ? startTime : startDate, false),
+                    ExportService.parseTime(endTime != null ? endTime : endDate, true),
+                    userId != null && !userId.isBlank() ? userId : null,
+                    action != null && !action.isBlank() ? action : null,
+                    ip != null && !ip.isBlank() ? ip : null);
+            return exportResponse(exportService.auditLogs(format, gzip, filter), format, gzip, "logs_export");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(err(e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(err("日志导出失败: " + e.getMessage()));
         }
     }
 
+    // 流式导出的文件下载响应，gzip时以.gz附件下载
+    private static ResponseEntity<StreamingResponseBody> exportResponse(StreamingResponseBody body, String format, boolean gzip, String name) {
+        boolean json = ExportService.isJson(format);
+        String filename = name + (json ? ".json" : ".csv") + (gzip ? ".gz" : "");
+        String contentType = gzip ? "application/gzip" : (json ? "application/json" : "text/csv;charset=UTF-8");
+        return ResponseEntity.ok()
+                .contentType(org.springframework.http.MediaType.parseMediaType(contentType))
+                .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename)
+                .body(body);
+    }
+
     @PutMapping("/feedbacks/{id}")
     @Transactional
     public ResponseEntity<?> updateFeedback(@PathVariable("id") String id, @RequestBody Map<String,Object> patch, Authentication auth, HttpServletRequest request) {
         Feedback f = feedbackRepo.findById(id).orElse(null);
         if (f == null) return ResponseEntity.status(404).body(err("反馈不存在"));
+        String oldStatus = f.getStatus();
         if (patch.containsKey("status")) f.setStatus(patch.get("status").toString());
         if (patch.containsKey("resolution")) f.setResolution(Objects.toString(patch.get("resolution"), null));
         feedbackRepo.save(f);
+        stats.statusChanged(StatsCounters.FEEDBACKS, oldStatus, f.getStatus());
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -910,6 +912,7 @@ public class AdminController {
     @Transactional
     public ResponseEntity<?> createWorkflow(@RequestBody WorkflowConfig w, Authentication auth, HttpServletRequest request) {
         w.setId(null); workflowRepo.save(w);
+        configCache.invalidate();
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -944,7 +947,9 @@ public class AdminController {
         wc.setApiKey(w.getApiKey());
         wc.setEnabled(w.isEnabled());
         wc.setConfigJson(w.getConfigJson());
+        wc.setMaxConcurrency(w.getMaxConcurrency());
         workflowRepo.save(wc);
+        configCache.invalidate();
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
@@ -965,6 +970,7 @@ public class AdminController {
     public ResponseEntity<?> deleteWorkflow(@PathVariable("id") String id, Authentication auth, HttpServletRequest request) {
         if (!workflowRepo.existsById(id)) return ResponseEntity.status(404).body(err("工作流不存在"));
         workflowRepo.deleteById(id);
+        configCache.invalidate();
         try {
             AuditLog log = new AuditLog();
             String actorId = getActorId(auth);
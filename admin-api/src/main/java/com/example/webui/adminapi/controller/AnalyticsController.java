@@ -0,0 +1,178 @@
+package com.example.webui.adminapi.controller;
+
+import com.example.webui.adminapi.service.ExportService;
+import com.example.webui.common.cache.ConfigCache;
+import com.example.webui.common.entity.AnalyticsRollup;
+import com.example.webui.common.entity.ModelConfig;
+import com.example.webui.common.entity.WorkflowConfig;
+import com.example.webui.common.repo.AnalyticsRollupRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * 后台趋势分析：只读analytics_rollups中的按小时/按天汇总数据（由user-api定时汇总，最多滞后一个汇总周期），不扫描原始表。
+ * 参数：granularity=hour|day（默认day），from/to为ISO时间或yyyy-MM-dd（默认最近30天/48小时）。
+ */
+@RestController
+@RequestMapping("/admin/analytics")
+@SuppressWarnings("null")
+public class AnalyticsController {
+
+    // 单次查询的最大时间桶数（按小时约31天，按天约2年）
+    private static final int MAX_BUCKETS = 744;
+
+    @Autowired private AnalyticsRollupRepository rollupRepo;
+    @Autowired private ConfigCache configCache;
+
+    // 按角色/状态的消息数，维度为 role/status
+    @GetMapping("/messages")
+    public ResponseEntity<?> messages(@RequestParam(name = "granularity", defaultValue = "day") String granularity,
+                                      @RequestParam(name = "from", required = false) String from,
+                                      @RequestParam(name = "to", required = false) String to) {
+        return series(granularity, from, to, "messages");
+    }
+
+    // 按模型/工作流的token用量和请求数
+    @GetMapping("/tokens")
+    public ResponseEntity<?> tokens(@RequestParam(name = "granularity", defaultValue = "day") String granularity,
+                                    @RequestParam(name = "from", required = false) String from,
+                                    @RequestParam(name = "to", required = false) String to) {
+        Range range;
+        try {
+            range = range(granularity, from, to);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(err(e.getMessage()));
+        }
+        List<AnalyticsRollup> rows = rollupRepo.findSeries(range.granularity(),
+                List.of("prompt_tokens", "completion_tokens", "model_requests"), range.from(), range.to());
+        Map<Instant, Map<String, Map<String, Long>>> buckets = new LinkedHashMap<>();
+        Set<String> keys = new TreeSet<>();
+        for (AnalyticsRollup r : rows) {
+            String field = switch (r.getMetric()) {
+                case "prompt_tokens" -> "promptTokens";
+                case "completion_tokens" -> "completionTokens";
+                default -> "requests";
+            };
+            buckets.computeIfAbsent(r.getBucketStart(), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(r.getDimension(), k -> new LinkedHashMap<>())
+                    .put(field, r.getValue());
+            keys.add(r.getDimension());
+        }
+        List<Map<String, Object>> series = new ArrayList<>();
+        buckets.forEach((bucket, values) -> series.add(point(bucket, values)));
+        // 模型/工作流ID对应的名称（已删除的配置没有名称）
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String key : keys) {
+            ModelConfig m = configCache.model(key);
+            WorkflowConfig w = m == null ? configCache.workflow(key) : null;
+            if (m != null) names.put(key, m.getModelName());
+            else if (w != null) names.put(key, w.getName());
+        }
+        Map<String, Object> data = data(range, series);
+        data.put("names", names);
+        return ok(data);
+    }
+
+    // 发送过消息的用户数（按天的值为当天去重，不是各小时之和）
+    @GetMapping("/active-users")
+    public ResponseEntity<?> activeUsers(@RequestParam(name = "granularity", defaultValue = "day") String granularity,
+                                         @RequestParam(name = "from", required = false) String from,
+                                         @RequestParam(name = "to", required = false) String to) {
+        return series(granularity, from, to, "active_users");
+    }
+
+    // 用户操作数（like、dislike、copy等），维度为操作类型
+    @GetMapping("/actions")
+    public ResponseEntity<?> actions(@RequestParam(name = "granularity", defaultValue = "day") String granularity,
+                                     @RequestParam(name = "from", required = false) String from,
+                                     @RequestParam(name = "to", required = false) String to) {
+        return series(granularity, from, to, "actions");
+    }
+
+    // 按类型的反馈数
+    @GetMapping("/feedbacks")
+    public ResponseEntity<?> feedbacks(@RequestParam(name = "granularity", defaultValue = "day") String granularity,
+                                       @RequestParam(name = "from", required = false) String from,
+                                       @RequestParam(name = "to", required = false) String to) {
+        return series(granularity, from, to, "feedbacks");
+    }
+
+    private record Range(String granularity, Instant from, Instant to) {}
+
+    private static Range range(String granularity, String from, String to) {
+        String g = "hour".equalsIgnoreCase(granularity) ? AnalyticsRollup.HOUR
+                : "day".equalsIgnoreCase(granularity) ? AnalyticsRollup.DAY : null;
+        if (g == null) throw new IllegalArgumentException("granularity只能是hour或day");
+        Instant end = ExportService.parseTime(to, true);
+        Instant start = ExportService.parseTime(from, false);
+        Duration step = AnalyticsRollup.HOUR.equals(g) ? Duration.ofHours(1) : Duration.ofDays(1);
+        if (end == null) {
+            end = AnalyticsRollup.HOUR.equals(g)
+                    ? Instant.now().truncatedTo(ChronoUnit.HOURS).plus(step)
+                    : LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        }
+        if (start == null) start = end.minus(step.multipliedBy(AnalyticsRollup.HOUR.equals(g) ? 48 : 30));
+        if (!start.isBefore(end)) throw new IllegalArgumentException("开始时间必须早于结束时间");
+        if (Duration.between(start, end).compareTo(step.multipliedBy(MAX_BUCKETS)) > 0) {
+            throw new IllegalArgumentException("时间范围过大，最多" + MAX_BUCKETS + "个时间段");
+        }
+        return new Range(g, start, end);
+    }
+
+    private ResponseEntity<?> series(String granularity, String from, String to, String metric) {
+        Range range;
+        try {
+            range = range(granularity, from, to);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(err(e.getMessage()));
+        }
+        Map<Instant, Map<String, Long>> buckets = new LinkedHashMap<>();
+        for (AnalyticsRollup r : rollupRepo.findSeries(range.granularity(), List.of(metric), range.from(), range.to())) {
+            buckets.computeIfAbsent(r.getBucketStart(), k -> new LinkedHashMap<>()).put(r.getDimension(), r.getValue());
+        }
+        List<Map<String, Object>> series = new ArrayList<>();
+        buckets.forEach((bucket, values) -> series.add(point(bucket, values)));
+        return ok(data(range, series));
+    }
+
+    private static Map<String, Object> point(Instant bucket, Object values) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("bucket", bucket.toString());
+        p.put("values", values);
+        return p;
+    }
+
+    private static Map<String, Object> data(Range range, List<Map<String, Object>> series) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("granularity", range.granularity().toLowerCase());
+        data.put("from", range.from().toString());
+        data.put("to", range.to().toString());
+        data.put("series", series);
+        return data;
+    }
+
+    private static ResponseEntity<?> ok(Map<String, Object> data) {
+        Map<String, Object> res = new HashMap<>();
+        res.put("code", 200);
+        res.put("data", data);
+        return ResponseEntity.ok(res);
+    }
+
+    private static Map<String, Object> err(String msg) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("code", 400);
+        m.put("error", msg);
+        return m;
+    }
+}
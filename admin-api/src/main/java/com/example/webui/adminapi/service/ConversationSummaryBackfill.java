@@ -0,0 +1,65 @@
+package com.example.webui.adminapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.MessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 为历史对话回填最后消息摘要和消息数（message_count为null的行）。
+ * 启动后在后台线程分批执行，已回填的行不会重复处理，多实例同时运行也是安全的。
+ */
+@Service
+public class ConversationSummaryBackfill implements ApplicationRunner {
+
+    @Autowired private ConversationRepository conversationRepo;
+    @Autowired private MessageRepository messageRepo;
+
+    @Value("${conversation.summary.backfill-batch-size:500}")
+    private int batchSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread worker = new Thread(this::backfill, "conversation-summary-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public int backfill() {
+        int total = 0;
+        try {
+            while (true) {
+                List<String> ids = conversationRepo.findIdsWithoutSummary(PageRequest.of(0, batchSize));
+                if (ids.isEmpty()) break;
+                int updated = 0;
+                for (String id : ids) {
+                    int count = (int) messageRepo.countByConversation_Id(id);
+                    Message last = messageRepo.findFirstByConversation_IdOrderByCreatedAtDesc(id).orElse(null);
+                    updated += conversationRepo.backfillSummary(id, count,
+                            last != null ? last.getId() : null,
+                            last != null ? last.getRole() : null,
+                            last != null ? Conversation.preview(last.getContent()) : null,
+                            last != null ? last.getStatus() : null,
+                            last != null ? last.getCreatedAt() : null);
+                }
+                total += updated;
+                // 本批次全部被其他实例抢先处理时同样会进入下一批，直到没有待回填的行
+                if (updated == 0 && ids.size() < batchSize) break;
+            }
+            if (total > 0) {
+                System.out.println("对话摘要回填完成: " + total + " 条");
+            }
+        } catch (Exception e) {
+            System.err.println("对话摘要回填失败: " + e.getMessage());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.webui.adminapi.service;
+
+import com.example.webui.common.repo.AuditLogRepository;
+import com.example.webui.common.repo.AuditLogRow;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.ConversationSummary;
+import com.example.webui.common.repo.MessageContent;
+import com.example.webui.common.repo.MessageRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 管理端流式导出：按(createdAt, id)键集分批读取，逐行写入响应输出流，
+ * 内存占用只与批大小有关，与导出总行数无关。支持CSV/JSON以及可选gzip压缩。
+ */
+@Service
+public class ExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportService.class);
+
+    @Autowired private ConversationRepository conversationRepo;
+    @Autowired private AuditLogRepository auditRepo;
+    @Autowired private MessageRepository messageRepo;
+    @Autowired private ObjectMapper objectMapper;
+
+    @Value("${export.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 导出过滤条件，字段为null表示不过滤；时间范围为[from, to)
+     */
+    public record Filter(Instant from, Instant to, String userId, String keyword, String ip) {}
+
+    // JSON导出的会话行：会话上只冗余了200字的预览，lastMessage.content取消息的完整内容
+    private record ConversationRow(ConversationSummary summary, String lastMessageContent) {}
+
+    public StreamingResponseBody conversations(String format, boolean gzip, Filter f) {
+        Function<ConversationSummary, List<ConversationSummary>> next = last -> conversationRepo.findExportBatch(
+                f.keyword(), f.userId(), f.from(), f.to(),
+                last != null ? last.getCreatedAt() : null, last != null ? last.getId() : null,
+                PageRequest.of(0, batchSize));
+        if (isJson(format)) {
+            Function<ConversationRow, List<ConversationRow>> rows = last -> withLastMessageContent(next.apply(last != null ? last.summary() : null));
+            return stream(gzip, rows, out -> new JsonRows<>(out, ExportService::writeConversation));
+        }
+        return stream(gzip, next, out -> new CsvRows<>(out,
+                "ID,Title,User ID,Username,Message Count,Last Message,Created At,Updated At",
+                ExportService::conversationCells));
+    }
+
+    public StreamingResponseBody auditLogs(String format, boolean gzip, Filter f) {
+        Function<AuditLogRow, List<AuditLogRow>> next = last -> auditRepo.findExportBatch(
+                f.userId(), f.keyword(), f.ip(), f.from(), f.to(),
+                last != null ? last.getCreatedAt() : null, last != null ? last.getId() : null,
+                PageRequest.of(0, batchSize));
+        if (isJson(format)) {
+            return stream(gzip, next, out -> new JsonRows<>(out, ExportService::writeAuditLog));
+        }
+        return stream(gzip, next, out -> new CsvRows<>(out,
+                "ID,User ID,Username,IP,Action,Details,Created At",
+                ExportService::auditLogCells));
+    }
+
+    public static boolean isJson(String format) {
+        return "json".equalsIgnoreCase(format);
+    }
+
+    /**
+     * 解析导出时间参数：ISO时间戳原样使用，yyyy-MM-dd按服务器时区取当天零点；
+     * 作为结束时间的日期包含当天，即取次日零点。为空返回null，格式错误抛IllegalArgumentException
+     */
+    public static Instant parseTime(String value, boolean end) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Instant.parse(value);
+        } catch (Exception ignored) {
+        }
+        try {
+            LocalDate date = LocalDate.parse(value.length() > 10 ? value.substring(0, 10) : value);
+            return (end ? date.plusDays(1) : date).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效的时间参数: " + value);
+        }
+    }
+
+    private <T> StreamingResponseBody stream(boolean gzip, Function<T, List<T>> next, Function<OutputStream, RowWriter<T>> writerFactory) {
+        return out -> {
+            // 不关闭容器的输出流，由Spring在写完后处理
+            OutputStream target = StreamUtils.nonClosing(out);
+            GZIPOutputStream zip = gzip ? new GZIPOutputStream(target, 8192) : null;
+            int rows = 0;
+            try (RowWriter<T> writer = writerFactory.apply(zip != null ? zip : target)) {
+                T last = null;
+                while (true) {
+                    List<T> batch = next.apply(last);
+                    for (T row : batch) {
+                        writer.write(row);
+                    }
+                    rows += batch.size();
+                    // 每批写完刷出一次，客户端持续收到数据，批对象随即可回收
+                    writer.flush();
+                    if (batch.size() < batchSize) break;
+                    last = batch.get(batch.size() - 1);
+                }
+            } catch (IOException | RuntimeException e) {
+                // 响应头已发出，只能中断输出，客户端会收到不完整的文件
+                log.warn("流式导出中断（已写出{}行）: {}", rows, e.getMessage());
+                throw e;
+            }
+        };
+    }
+
+    private interface RowWriter<T> extends AutoCloseable {
+        void write(T row) throws IOException;
+        void flush() throws IOException;
+        @Override
+        void close() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface JsonRowWriter<T> {
+        void write(JsonGenerator gen, T row) throws IOException;
+    }
+
+    private final class JsonRows<T> implements RowWriter<T> {
+        private final JsonGenerator gen;
+        private final JsonRowWriter<T> rowWriter;
+
+        JsonRows(OutputStream out, JsonRowWriter<T> rowWriter) {
+            try {
+                this.gen = objectMapper.getFactory().createGenerator(out);
+                this.gen.writeStartArray();
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            this.rowWriter = rowWriter;
+        }
+
+        @Override
+        public void write(T row) throws IOException {
+            rowWriter.write(gen, row);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            gen.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            gen.writeEndArray();
+            gen.close();
+        }
+    }
+
+    private static final class CsvRows<T> implements RowWriter<T> {
+        private final Writer writer;
+        private final Function<T, Object[]> cells;
+
+        CsvRows(OutputStream out, String header, Function<T, Object[]> cells) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16 * 1024);
+            this.cells = cells;
+            try {
+                writer.write(header);
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void write(T row) throws IOException {
+            Object[] values = cells.apply(row);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) writer.write(',');
+                writeCell(values[i]);
+            }
+            writer.write('\n');
+        }
+
+        // 含逗号、引号或换行的字段加引号并转义引号
+        private void writeCell(Object value) throws IOException {
+            if (value == null) return;
+            String s = value.toString();
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+                writer.write(s);
+                return;
+            }
+            writer.write('"');
+            writer.write(s.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // 关闭链路上的gzip流写出尾部，容器输出流本身不会被关闭
+            writer.close();
+        }
+    }
+
+    // 每批一次查询取出最后一条消息的完整内容
+    private List<ConversationRow> withLastMessageContent(List<ConversationSummary> batch) {
+        List<String> ids = batch.stream().map(ConversationSummary::getLastMessageId).filter(Objects::nonNull).toList();
+        Map<String, String> contents = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (MessageContent m : messageRepo.findContents(ids)) contents.put(m.getId(), m.getContent());
+        }
+        return batch.stream()
+                .map(c -> new ConversationRow(c, c.getLastMessageId() != null
+                        ? contents.getOrDefault(c.getLastMessageId(), c.getLastMessagePreview()) : null))
+                .toList();
+    }
+
+    private static void writeConversation(JsonGenerator gen, ConversationRow row) throws IOException {
+        ConversationSummary c = row.summary();
+        gen.writeStartObject();
+        gen.writeStringField("id", c.getId());
+        gen.writeStringField("title", c.getTitle());
+        gen.writeStringField("createdAt", toStr(c.getCreatedAt()));
+        gen.writeStringField("updatedAt", toStr(c.getUpdatedAt()));
+        gen.writeStringField("userId", c.getUserId());
+        gen.writeStringField("username", c.getUserId() != null ? c.getUsername() : "未知用户");
+        gen.writeNumberField("messageCount", c.getMessageCount() != null ? c.getMessageCount() : 0);
+        if (c.getLastMessageId() != null) {
+            gen.writeObjectFieldStart("lastMessage");
+            gen.writeStringField("id", c.getLastMessageId());
+            gen.writeStringField("content", row.lastMessageContent());
+            gen.writeStringField("role", c.getLastMessageRole());
+            gen.writeStringField("createdAt", toStr(c.getLastMessageAt()));
+            gen.writeEndObject();
+        } else {
+            gen.writeNullField("lastMessage");
+        }
+        gen.writeEndObject();
+    }
+
+    private static Object[] conversationCells(ConversationSummary c) {
+        String preview = c.getLastMessagePreview();
+        if (preview != null && preview.length() > 100) {
+            preview = preview.substring(0, 100) + "...";
+        }
+        return new Object[] {
+                c.getId(), c.getTitle(), c.getUserId(), c.getUserId() != null ? c.getUsername() : "未知用户",
+                c.getMessageCount() != null ? c.getMessageCount() : 0, preview, c.getCreatedAt(), c.getUpdatedAt()
+        };
+    }
+
+    private static void writeAuditLog(JsonGenerator gen, AuditLogRow l) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", l.getId());
+        gen.writeStringField("userId", l.getUserId());
+        gen.writeStringField("username", l.getUserId() != null ? l.getUsername() : "未知用户");
+        gen.writeStringField("ip", l.getIp());
+        gen.writeStringField("action", l.getAction());
+        gen.writeStringField("details", l.getDetails());
+        gen.writeStringField("createdAt", toStr(l.getCreatedAt()));
+        gen.writeEndObject();
+    }
+
+    private static Object[] auditLogCells(AuditLogRow l) {
+        return new Object[] {
+                l.getId(), l.getUserId(), l.getUserId() != null ? l.getUsername() : "未知用户",
+                l.getIp(), l.getAction(), l.getDetails(), l.getCreatedAt()
+        };
+    }
+
+    private static String toStr(Instant t) {
+        return t == null ? null : t.toString();
+    }
+}
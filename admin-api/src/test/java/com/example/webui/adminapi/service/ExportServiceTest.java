@@ -0,0 +1,207 @@
+package com.example.webui.adminapi.service;
+
+import com.example.webui.common.repo.AuditLogRepository;
+import com.example.webui.common.repo.AuditLogRow;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.ConversationSummary;
+import com.example.webui.common.repo.MessageContent;
+import com.example.webui.common.repo.MessageRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class ExportServiceTest {
+
+    private static final Instant T0 = Instant.parse("2026-03-15T10:00:00Z");
+    private static final ExportService.Filter ALL = new ExportService.Filter(null, null, null, null, null);
+
+    @Mock private ConversationRepository conversationRepo;
+    @Mock private AuditLogRepository auditRepo;
+    @Mock private MessageRepository messageRepo;
+    @Spy private ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    private ExportService exportService;
+
+    private final List<AuditLogRow> auditRows = new ArrayList<>();
+    private final List<ConversationSummary> conversations = new ArrayList<>();
+    private final List<String> cursors = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(exportService, "batchSize", 2);
+        // 按(createdAt, id)键集分页
+        when(auditRepo.findExportBatch(any(), any(), any(), any(), any(), any(), any(), any())).thenAnswer(inv -> {
+            cursors.add(inv.getArgument(6));
+            return page(auditRows, inv.getArgument(5), inv.getArgument(6), inv.getArgument(7));
+        });
+        when(conversationRepo.findExportBatch(any(), any(), any(), any(), any(), any(), any())).thenAnswer(inv ->
+                page(conversations, inv.getArgument(4), inv.getArgument(5), inv.getArgument(6)));
+    }
+
+    @Test
+    public void testCsvQuotesAndEscapesCells() throws Exception {
+        auditRows.add(new AuditRow("a1", "u1", "alice", "1.1.1.1", "login", "plain", T0));
+        auditRows.add(new AuditRow("a2", null, null, null, "update", "a,b \"quoted\"\nnext line", T0.plusSeconds(1)));
+
+        String csv = new String(export(exportService.auditLogs("csv", false, ALL)), StandardCharsets.UTF_8);
+
+        assertEquals("ID,User ID,Username,IP,Action,Details,Created At\n"
+                + "a1,u1,alice,1.1.1.1,login,plain," + T0 + "\n"
+                + "a2,,未知用户,,update,\"a,b \"\"quoted\"\"\nnext line\"," + T0.plusSeconds(1) + "\n", csv);
+    }
+
+    @Test
+    public void testKeysetContinuesAcrossBatchesWithSameCreatedAt() throws Exception {
+        // 5行，其中4行createdAt相同，靠id区分；每批2行
+        for (int i = 1; i <= 4; i++) auditRows.add(new AuditRow("a" + i, null, null, null, "login", null, T0));
+        auditRows.add(new AuditRow("a5", null, null, null, "login", null, T0.plusSeconds(1)));
+
+        List<String> ids = csvIds(export(exportService.auditLogs("csv", false, ALL)));
+
+        assertEquals(List.of("a1", "a2", "a3", "a4", "a5"), ids);
+        assertEquals(java.util.Arrays.asList(null, "a2", "a4"), cursors);
+    }
+
+    @Test
+    public void testFullLastBatchIssuesOneMoreQuery() throws Exception {
+        // 行数正好是批大小的整数倍：最后一批满，需要再查一次空批才结束
+        for (int i = 1; i <= 4; i++) auditRows.add(new AuditRow("a" + i, null, null, null, "login", null, T0.plusSeconds(i)));
+
+        List<String> ids = csvIds(export(exportService.auditLogs("csv", false, ALL)));
+
+        assertEquals(List.of("a1", "a2", "a3", "a4"), ids);
+        assertEquals(java.util.Arrays.asList(null, "a2", "a4"), cursors);
+    }
+
+    @Test
+    public void testGzipIsCompleteStream() throws Exception {
+        for (int i = 1; i <= 5; i++) auditRows.add(new AuditRow("a" + i, null, null, null, "login", "详情" + i, T0.plusSeconds(i)));
+        byte[] plain = export(exportService.auditLogs("csv", false, ALL));
+        cursors.clear();
+
+        byte[] zipped = export(exportService.auditLogs("csv", true, ALL));
+
+        assertEquals(0x1f, zipped[0] & 0xff);
+        assertEquals(0x8b, zipped[1] & 0xff);
+        // 读到结尾会校验尾部的CRC和长度，尾部缺失时抛EOFException
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped))) {
+            assertArrayEquals(plain, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testJsonConversationsUseFullLastMessageContent() throws Exception {
+        String full = "完整内容".repeat(100);
+        conversations.add(new ConversationRow("c1", "m1", full.substring(0, 200), T0));
+        conversations.add(new ConversationRow("c2", null, null, T0.plusSeconds(1)));
+        conversations.add(new ConversationRow("c3", "m3", "仅预览", T0.plusSeconds(2)));
+        when(messageRepo.findContents(any())).thenAnswer(inv -> {
+            Collection<String> ids = inv.getArgument(0);
+            return ids.contains("m1") ? List.of(content("m1", full)) : List.of();
+        });
+
+        JsonNode json = objectMapper.readTree(export(exportService.conversations("json", false, ALL)));
+
+        assertEquals(3, json.size());
+        assertEquals(full, json.get(0).path("lastMessage").path("content").asText());
+        assertTrue(json.get(1).path("lastMessage").isNull());
+        // 消息已不存在时退回预览
+        assertEquals("仅预览", json.get(2).path("lastMessage").path("content").asText());
+    }
+
+    private static byte[] export(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static List<String> csvIds(byte[] csv) {
+        String[] lines = new String(csv, StandardCharsets.UTF_8).split("\n");
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) ids.add(lines[i].substring(0, lines[i].indexOf(',')));
+        return ids;
+    }
+
+    private static <T> List<T> page(List<T> rows, Instant afterAt, String afterId, Pageable pageable) {
+        return rows.stream()
+                .filter(r -> afterAt == null || createdAt(r).isAfter(afterAt)
+                        || (createdAt(r).equals(afterAt) && id(r).compareTo(afterId) > 0))
+                .limit(pageable.getPageSize())
+                .toList();
+    }
+
+    private static Instant createdAt(Object row) {
+        return row instanceof AuditLogRow a ? a.getCreatedAt() : ((ConversationSummary) row).getCreatedAt();
+    }
+
+    private static String id(Object row) {
+        return row instanceof AuditLogRow a ? a.getId() : ((ConversationSummary) row).getId();
+    }
+
+    private static MessageContent content(String id, String text) {
+        return new MessageContent() {
+            @Override
+            public String getId() {
+                return id;
+            }
+
+            @Override
+            public String getContent() {
+                return text;
+            }
+        };
+    }
+
+    private record AuditRow(String id, String userId, String username, String ip, String action, String details,
+                            Instant createdAt) implements AuditLogRow {
+        public String getId() { return id; }
+        public String getUserId() { return userId; }
+        public String getUsername() { return username; }
+        public String getIp() { return ip; }
+        public String getAction() { return action; }
+        public String getDetails() { return details; }
+        public Instant getCreatedAt() { return createdAt; }
+    }
+
+    private record ConversationRow(String id, String lastMessageId, String preview, Instant createdAt) implements ConversationSummary {
+        public String getId() { return id; }
+        public String getTitle() { return "对话" + id; }
+        public Instant getCreatedAt() { return createdAt; }
+        public Instant getUpdatedAt() { return createdAt; }
+        public String getUserId() { return "u1"; }
+        public String getUsername() { return "alice"; }
+        public String getLastMessageId() { return lastMessageId; }
+        public String getLastMessageRole() { return lastMessageId != null ? "assistant" : null; }
+        public String getLastMessagePreview() { return preview; }
+        public String getLastMessageStatus() { return lastMessageId != null ? "sent" : null; }
+        public Instant getLastMessageAt() { return lastMessageId != null ? createdAt : null; }
+        public Integer getMessageCount() { return lastMessageId != null ? 2 : 0; }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.webui.common.cache;
+
+import com.example.webui.common.entity.ModelConfig;
+import com.example.webui.common.entity.WorkflowConfig;
+import com.example.webui.common.repo.ConfigVersion;
+import com.example.webui.common.repo.ModelConfigRepository;
+import com.example.webui.common.repo.WorkflowConfigRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 模型配置和工作流配置的进程内缓存（读穿透）。两张表都很小且很少变化，整表加载为不可变快照。
+ * 失效方式：admin-api增删改后调用invalidate()（事务提交后生效）；
+ * 其他进程（user-api）定时查询两张表的版本戳（行数+最大updated_at），变化时重新加载。
+ * 同时预先序列化 /models 的响应体，页面加载时不再查库和序列化。
+ */
+@Component
+public class ConfigCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfigCache.class);
+
+    @Autowired private ModelConfigRepository modelConfigRepo;
+    @Autowired private WorkflowConfigRepository workflowConfigRepo;
+    @Autowired private ObjectMapper objectMapper;
+
+    /**
+     * 已序列化的 /models 响应体（启用的模型和工作流，按更新时间倒序）及其ETag，调用方不能修改json
+     */
+    public record ModelList(byte[] json, String etag) {}
+
+    private record Snapshot(Map<String, ModelConfig> models, Map<String, WorkflowConfig> workflows,
+                            ModelList modelList, String version) {}
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 按ID取模型配置（包括未启用的），不存在时返回null。返回的实体为共享对象，调用方不能修改
+     */
+    public ModelConfig model(String id) {
+        return id == null ? null : current().models().get(id);
+    }
+
+    /**
+     * 按ID取工作流配置（包括未启用的），不存在时返回null。返回的实体为共享对象，调用方不能修改
+     */
+    public WorkflowConfig workflow(String id) {
+        return id == null ? null : current().workflows().get(id);
+    }
+
+    public ModelList modelList() {
+        return current().modelList();
+    }
+
+    /**
+     * 丢弃缓存，下次读取时重新加载；在事务中调用时等事务提交后再丢弃，避免重新加载到未提交前的数据
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    snapshot = null;
+                }
+            });
+        } else {
+            snapshot = null;
+        }
+    }
+
+    // 跨进程失效：版本戳变化时重新加载（没有启用定时任务的进程只依赖invalidate）
+    @Scheduled(fixedDelayString = "${config-cache.poll-interval-ms:5000}", initialDelayString = "${config-cache.poll-interval-ms:5000}")
+    public void poll() {
+        Snapshot current = snapshot;
+        if (current == null) return;
+        try {
+            if (!version().equals(current.version())) {
+                synchronized (this) {
+                    if (snapshot == current) snapshot = load();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("检查配置版本失败: {}", e.getMessage());
+        }
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s != null) return s;
+        synchronized (this) {
+            if (snapshot == null) snapshot = load();
+            return snapshot;
+        }
+    }
+
+    private String version() {
+        return stamp(modelConfigRepo.version()) + "/" + stamp(workflowConfigRepo.version());
+    }
+
+    private static String stamp(ConfigVersion v) {
+        return v == null ? "0" : v.getCount() + "@" + v.getUpdatedAt();
+    }
+
+    private Snapshot load() {
+        // 先取版本戳再加载：加载期间的修改会在下次轮询时被发现
+        String version = version();
+        List<ModelConfig> models = modelConfigRepo.findAll();
+        List<WorkflowConfig> workflows = workflowConfigRepo.findAll();
+
+        Map<String, ModelConfig> modelsById = new LinkedHashMap<>();
+        models.forEach(m -> modelsById.put(m.getId(), m));
+        Map<String, WorkflowConfig> workflowsById = new LinkedHashMap<>();
+        workflows.forEach(w -> workflowsById.put(w.getId(), w));
+
+        // 转换模型数据，避免返回敏感信息
+        List<Map<String, Object>> items = new ArrayList<>();
+        models.stream().filter(ModelConfig::isEnabled)
+                .sorted(Comparator.comparing(ModelConfig::getUpdatedAt, Comparator.nullsLast(Comparator.reverseOrder())))
+                .forEach(m -> {
+                    Map<String, Object> modelMap = new LinkedHashMap<>();
+                    modelMap.put("id", m.getId());
+                    modelMap.put("name", m.getModelName());
+                    modelMap.put("tag", m.getTag());
+                    modelMap.put("provider", m.getProvider());
+                    modelMap.put("type", "model");
+                    items.add(modelMap);
+                });
+        List<Map<String, Object>> workflowItems = new ArrayList<>();
+        workflows.stream().filter(WorkflowConfig::isEnabled)
+                .sorted(Comparator.comparing(WorkflowConfig::getUpdatedAt, Comparator.nullsLast(Comparator.reverseOrder())))
+                .forEach(w -> {
+                    Map<String, Object> workflowMap = new LinkedHashMap<>();
+                    workflowMap.put("id", w.getId());
+                    workflowMap.put("name", w.getName());
+                    workflowMap.put("description", w.getDescription());
+                    workflowMap.put("type", "workflow");
+                    workflowItems.add(workflowMap);
+                });
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("items", items);
+        data.put("workflows", workflowItems);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("code", 200);
+        response.put("data", data);
+
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(response);
+        } catch (Exception e) {
+            throw new IllegalStateException("序列化模型列表失败", e);
+        }
+        String etag = "\"" + Integer.toHexString(Objects.hash(version, Arrays.hashCode(json))) + "\"";
+        return new Snapshot(Map.copyOf(modelsById), Map.copyOf(workflowsById), new ModelList(json, etag), version);
+    }
+}
@@ -2,11 +2,13 @@ package com.example.webui.common.client;
 
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
 
 import java.util.Map;
 
@@ -14,10 +16,16 @@ import java.util.Map;
 public class BishengClient {
     private final WebClient webClient;
     
-    public BishengClient(String baseUrl, String apiKey) {
+    /**
+     * @param httpClient 该Bisheng地址的连接池、超时等设置（由BishengClientFactory按地址创建）
+     */
+    public BishengClient(String baseUrl, String apiKey, HttpClient httpClient) {
         this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .baseUrl(baseUrl)
                 .defaultHeader("Authorization", "Bearer " + apiKey)
+                // 工作流结束事件会携带完整内容，放宽单个SSE事件的缓冲上限
+                .codecs(c -> c.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
                 .build();
     }
     
@@ -33,9 +41,20 @@ public class BishengClient {
                 "inputs", inputs
         );
         
+        return streamWorkflow("/v2/workflow/invoke", requestBody);
+    }
+    
+    /**
+     * 以完整请求体调用Bisheng工作流（session_id/message_id/input等由调用方组装）
+     * @param uri 工作流接口地址，绝对地址时忽略baseUrl
+     * @param requestBody 请求体
+     * @return SSE事件流，按下游请求量从连接读取，不占用线程等待
+     */
+    public Flux<ServerSentEvent<String>> streamWorkflow(String uri, Map<String, Object> requestBody) {
         return webClient.post()
-                .uri("/v2/workflow/invoke")
+                .uri(uri)
                 .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
                 .body(BodyInserters.fromValue(requestBody))
                 .retrieve()
                 .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {});
@@ -58,4 +77,19 @@ public class BishengClient {
                 .retrieve()
                 .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {});
     }
+    
+    /**
+     * 停止正在运行的Bisheng工作流（v2接口按session_id停止）
+     * @param uri 停止接口地址，绝对地址时忽略baseUrl
+     * @param sessionId 工作流事件中返回的session_id
+     * @return 停止结果
+     */
+    public Mono<Map<String, Object>> stopWorkflow(String uri, String sessionId) {
+        return webClient.post()
+                .uri(uri)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(Map.of("session_id", sessionId)))
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {});
+    }
 }
\ No newline at end of file
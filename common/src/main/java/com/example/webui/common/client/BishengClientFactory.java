@@ -0,0 +1,85 @@
+package com.example.webui.common.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按endpoint+apiKey缓存BishengClient，同一工作流配置的请求复用同一个WebClient。
+ * 每个Bisheng地址（scheme://host:port）一个独立的keep-alive连接池，工作流SSE流是长连接，
+ * 池大小应不小于该地址的生成并发上限（chat.scheduler.default-max-concurrent或WorkflowConfig.maxConcurrency）。
+ * 连接池指标为reactor.netty.connection.provider.*（name=bisheng-{地址}），超时未配置bisheng.http.*时与模型接口相同。
+ */
+@Component
+public class BishengClientFactory {
+
+    @Value("${bisheng.http.max-connections:200}")
+    private int maxConnections = 200;
+
+    @Value("${bisheng.http.pending-acquire-timeout-ms:10000}")
+    private long pendingAcquireTimeoutMs = 10_000;
+
+    @Value("${bisheng.http.connect-timeout-ms:${model.http.connect-timeout-ms:5000}}")
+    private int connectTimeoutMs = 5_000;
+
+    @Value("${bisheng.http.response-timeout-ms:${model.http.response-timeout-ms:120000}}")
+    private long responseTimeoutMs = 120_000;
+
+    @Value("${bisheng.http.max-idle-time-ms:${model.http.max-idle-time-ms:60000}}")
+    private long maxIdleTimeMs = 60_000;
+
+    @Value("${bisheng.http.max-life-time-ms:${model.http.max-life-time-ms:600000}}")
+    private long maxLifeTimeMs = 600_000;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final Map<String, BishengClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, ConnectionProvider> providers = new ConcurrentHashMap<>();
+    private final Map<String, HttpClient> httpClients = new ConcurrentHashMap<>();
+
+    public BishengClient get(String baseUrl, String apiKey) {
+        String key = Objects.toString(baseUrl, "") + "\n" + Objects.toString(apiKey, "");
+        return clients.computeIfAbsent(key, k -> new BishengClient(baseUrl, apiKey,
+                httpClients.computeIfAbsent(ModelHttpClients.originOf(baseUrl), this::createHttpClient)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        providers.values().forEach(ConnectionProvider::dispose);
+        providers.clear();
+        httpClients.clear();
+        clients.clear();
+    }
+
+    private HttpClient createHttpClient(String origin) {
+        ConnectionProvider provider = ConnectionProvider.builder("bisheng-" + origin)
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofSeconds(30))
+                .metrics(true)
+                .build();
+        providers.put(origin, provider);
+        HttpClient httpClient = HttpClient.create(provider)
+                .compress(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .keepAlive(true)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs));
+        // 额外记录新建连接的耗时
+        return ModelHttpClients.withConnectTimer(httpClient, origin, meterRegistry);
+    }
+}
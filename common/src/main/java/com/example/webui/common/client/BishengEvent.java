@@ -0,0 +1,26 @@
+package com.example.webui.common.client;
+
+/**
+ * Bisheng工作流SSE事件（只保留聊天链路用到的字段）
+ * 原始格式: {"session_id":"...","data":{"event":"...","status":"...","message_id":"...","node_id":"...","output_schema":{"message":"..."}}}
+ */
+public class BishengEvent {
+    String sessionId = "";
+    String event = "";
+    String status = "";
+    String messageId = "";
+    String nodeId = "";
+    // output_schema.message：字符串原样保存，数组取第一个元素
+    String message = "";
+    boolean messageTextual;
+    boolean hasOutputSchema;
+
+    public String getSessionId() { return sessionId; }
+    public String getEvent() { return event; }
+    public String getStatus() { return status; }
+    public String getMessageId() { return messageId; }
+    public String getNodeId() { return nodeId; }
+    public String getMessage() { return message; }
+    public boolean isMessageTextual() { return messageTextual; }
+    public boolean hasOutputSchema() { return hasOutputSchema; }
+}
@@ -0,0 +1,117 @@
+package com.example.webui.common.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 用流式JsonParser解析Bisheng SSE事件，直接读出需要的字段到BishengEvent，
+ * 不构建JsonNode树，其余字段（如大段的output_schema其他内容）直接跳过。
+ */
+@Component
+public class BishengEventParser {
+
+    private final JsonFactory jsonFactory;
+
+    public BishengEventParser(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public BishengEvent parse(String json) throws IOException {
+        BishengEvent root = new BishengEvent();
+        BishengEvent data = null;
+        try (JsonParser p = jsonFactory.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Bisheng事件不是JSON对象");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken token = p.nextToken();
+                if ("session_id".equals(name)) {
+                    root.sessionId = text(p, token);
+                } else if ("data".equals(name) && token == JsonToken.START_OBJECT) {
+                    data = new BishengEvent();
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = p.currentName();
+                        readField(p, field, p.nextToken(), data);
+                    }
+                } else {
+                    readField(p, name, token, root);
+                }
+            }
+        }
+        // 有data节点时事件字段以data为准，没有时从根节点获取
+        if (data == null) {
+            return root;
+        }
+        data.sessionId = root.sessionId;
+        return data;
+    }
+
+    private static void readField(JsonParser p, String name, JsonToken token, BishengEvent target) throws IOException {
+        switch (name) {
+            case "event":
+                target.event = text(p, token);
+                break;
+            case "status":
+                target.status = text(p, token);
+                break;
+            case "message_id":
+                target.messageId = text(p, token);
+                break;
+            case "node_id":
+                target.nodeId = text(p, token);
+                break;
+            case "output_schema":
+                if (token == JsonToken.START_OBJECT) {
+                    target.hasOutputSchema = true;
+                    readOutputSchema(p, target);
+                } else {
+                    p.skipChildren();
+                }
+                break;
+            default:
+                p.skipChildren();
+        }
+    }
+
+    private static void readOutputSchema(JsonParser p, BishengEvent target) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken token = p.nextToken();
+            if (!"message".equals(name)) {
+                p.skipChildren();
+            } else if (token == JsonToken.VALUE_STRING) {
+                target.message = p.getText();
+                target.messageTextual = true;
+            } else if (token == JsonToken.START_ARRAY) {
+                JsonToken first = p.nextToken();
+                if (first != JsonToken.END_ARRAY) {
+                    target.message = text(p, first);
+                    // 跳过数组剩余元素
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                target.message = text(p, token);
+            }
+        }
+    }
+
+    // 标量取文本，null和对象/数组按空串处理
+    private static String text(JsonParser p, JsonToken token) throws IOException {
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return "";
+        }
+        if (token.isStructStart()) {
+            p.skipChildren();
+            return "";
+        }
+        return p.getText();
+    }
+}
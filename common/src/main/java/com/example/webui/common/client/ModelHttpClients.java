@@ -0,0 +1,184 @@
+package com.example.webui.common.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.util.AttributeKey;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenAI兼容模型接口的HTTP客户端，按ModelConfig id各自维护一个keep-alive连接池。
+ * 连接池指标（reactor.netty.connection.provider.*，name=model-{id}）注册到Micrometer全局registry，
+ * 通过actuator的prometheus端点暴露；新建连接的耗时（含TLS握手）记录为chat.upstream.connect（按upstream地址），
+ * 注册到应用的MeterRegistry。
+ */
+@Component
+@SuppressWarnings("null")
+public class ModelHttpClients {
+
+    // 未配置ModelConfig时使用的默认模型
+    public static final String DEFAULT_KEY = "default";
+
+    @Value("${model.http.max-connections:50}")
+    private int maxConnections = 50;
+
+    @Value("${model.http.pending-acquire-timeout-ms:10000}")
+    private long pendingAcquireTimeoutMs = 10_000;
+
+    @Value("${model.http.connect-timeout-ms:5000}")
+    private int connectTimeoutMs = 5_000;
+
+    @Value("${model.http.response-timeout-ms:120000}")
+    private long responseTimeoutMs = 120_000;
+
+    @Value("${model.http.max-idle-time-ms:60000}")
+    private long maxIdleTimeMs = 60_000;
+
+    @Value("${model.http.max-life-time-ms:600000}")
+    private long maxLifeTimeMs = 600_000;
+
+    @Value("${model.http.http2:false}")
+    private boolean http2;
+
+    // 没有actuator时（如单独使用common）只在本地记录
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private static final AttributeKey<Long> CONNECT_STARTED_AT = AttributeKey.valueOf("webui.connectStartedAt");
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * 获取某个模型的WebClient；模型的endpoint被修改时重建连接池
+     */
+    public WebClient client(String modelKey, String endpoint) {
+        String key = modelKey != null ? modelKey : DEFAULT_KEY;
+        String origin = originOf(endpoint);
+        Pool pool = pools.compute(key, (k, existing) -> {
+            if (existing != null && existing.origin.equals(origin)) {
+                return existing;
+            }
+            if (existing != null) {
+                existing.provider.disposeLater().subscribe();
+            }
+            return new Pool(origin, createProvider(k));
+        });
+        return pool.webClient;
+    }
+
+    /**
+     * 同步POST JSON并返回响应体
+     */
+    public String postJson(String modelKey, String endpoint, String apiKey, Object body) {
+        return client(modelKey, endpoint).post()
+                .uri(endpoint)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + apiKey)
+                .body(BodyInserters.fromValue(body))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+    }
+
+    /**
+     * 以stream=true调用OpenAI兼容接口，返回每个SSE事件的data（JSON chunk，最后一条为[DONE]）
+     */
+    public Flux<String> streamJson(String modelKey, String endpoint, String apiKey, Object body) {
+        return client(modelKey, endpoint).post()
+                .uri(endpoint)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .header("Authorization", "Bearer " + apiKey)
+                .body(BodyInserters.fromValue(body))
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                .filter(e -> e.data() != null)
+                .map(ServerSentEvent::data);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(p -> p.provider.dispose());
+        pools.clear();
+    }
+
+    private ConnectionProvider createProvider(String key) {
+        return ConnectionProvider.builder("model-" + key)
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofSeconds(30))
+                .metrics(true)
+                .build();
+    }
+
+    private class Pool {
+        final String origin;
+        final ConnectionProvider provider;
+        final WebClient webClient;
+
+        Pool(String origin, ConnectionProvider provider) {
+            this.origin = origin;
+            this.provider = provider;
+            HttpClient httpClient = HttpClient.create(provider)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                    .option(ChannelOption.SO_KEEPALIVE, true)
+                    .keepAlive(true)
+                    .responseTimeout(Duration.ofMillis(responseTimeoutMs));
+            httpClient = withConnectTimer(httpClient, origin, meterRegistry);
+            if (http2) {
+                // https走ALPN协商h2，http走h2c升级，对端不支持时回退HTTP/1.1
+                httpClient = httpClient.protocol(origin.startsWith("https") ? HttpProtocol.H2 : HttpProtocol.H2C, HttpProtocol.HTTP11);
+            }
+            this.webClient = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(httpClient))
+                    .codecs(c -> c.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                    .build();
+        }
+    }
+
+    /**
+     * 记录新建连接的耗时：从channel初始化到连接可用（复用连接池中的连接不计）
+     */
+    static HttpClient withConnectTimer(HttpClient httpClient, String origin, MeterRegistry meterRegistry) {
+        Timer timer = Timer.builder("chat.upstream.connect").tag("upstream", origin)
+                .description("新建上游连接的耗时").register(meterRegistry);
+        return httpClient
+                .doOnChannelInit((observer, channel, remoteAddress) -> channel.attr(CONNECT_STARTED_AT).set(System.nanoTime()))
+                .doOnConnected(connection -> {
+                    Long startedAt = connection.channel().attr(CONNECT_STARTED_AT).getAndSet(null);
+                    if (startedAt != null) timer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                });
+    }
+
+    static String originOf(String endpoint) {
+        try {
+            URI uri = URI.create(endpoint);
+            return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+        } catch (Exception e) {
+            return Objects.toString(endpoint, "");
+        }
+    }
+}
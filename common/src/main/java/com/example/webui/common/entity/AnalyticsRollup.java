@@ -0,0 +1,69 @@
+package com.example.webui.common.entity;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * 后台分析用的按小时/按天汇总数据，每行是一个时间桶内某个指标在某个维度上的值，
+ * 如 (DAY, 2026-03-15, messages, user/sent, 1234)。由user-api的AnalyticsRollupJob写入，后台接口只读该表。
+ */
+@Entity
+@Table(name = "analytics_rollups", indexes = @Index(name = "idx_analytics_rollups_metric", columnList = "granularity, metric, bucket_start"))
+@IdClass(AnalyticsRollup.Key.class)
+public class AnalyticsRollup {
+    public static final String HOUR = "HOUR";
+    public static final String DAY = "DAY";
+
+    @Id
+    @Column(length = 8)
+    private String granularity;
+
+    @Id
+    @Column(name = "bucket_start")
+    private Instant bucketStart;
+
+    @Id
+    @Column(length = 32)
+    private String metric;
+
+    // 维度值，如消息的 角色/状态、模型ID、操作类型；没有维度时为空字符串
+    @Id
+    @Column(length = 128)
+    private String dimension;
+
+    @Column(name = "metric_value", nullable = false)
+    private long value;
+
+    public static class Key implements Serializable {
+        private String granularity;
+        private Instant bucketStart;
+        private String metric;
+        private String dimension;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key k)) return false;
+            return Objects.equals(granularity, k.granularity) && Objects.equals(bucketStart, k.bucketStart)
+                    && Objects.equals(metric, k.metric) && Objects.equals(dimension, k.dimension);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(granularity, bucketStart, metric, dimension);
+        }
+    }
+
+    public String getGranularity() { return granularity; }
+    public void setGranularity(String granularity) { this.granularity = granularity; }
+    public Instant getBucketStart() { return bucketStart; }
+    public void setBucketStart(Instant bucketStart) { this.bucketStart = bucketStart; }
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+    public String getDimension() { return dimension; }
+    public void setDimension(String dimension) { this.dimension = dimension; }
+    public long getValue() { return value; }
+    public void setValue(long value) { this.value = value; }
+}
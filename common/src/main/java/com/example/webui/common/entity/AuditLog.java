@@ -2,10 +2,11 @@ package com.example.webui.common.entity;
 
 import jakarta.persistence.*;
 import java.time.Instant;
-import java.util.UUID;
+import com.example.webui.common.id.Uuid7;
 
 @Entity
-@Table(name = "audit_logs")
+// 导出按(created_at, id)做键集扫描
+@Table(name = "audit_logs", indexes = @Index(name = "idx_audit_logs_created_id", columnList = "created_at, id"))
 public class AuditLog {
     @Id
     @Column(length = 36)
@@ -29,7 +30,7 @@ public class AuditLog {
 
     @PrePersist
     public void prePersist() {
-        if (id == null) id = UUID.randomUUID().toString();
+        if (id == null) id = Uuid7.next();
         createdAt = Instant.now();
     }
 
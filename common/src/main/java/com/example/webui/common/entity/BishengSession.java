@@ -0,0 +1,39 @@
+package com.example.webui.common.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * 对话对应的Bisheng工作流会话（session_id/message_id/node_id），多个user-api实例共享。
+ * 读写由user-api的JdbcBishengSessionStore直接执行SQL，实体只用于建表。
+ */
+@Entity
+@Table(name = "bisheng_sessions", indexes = @Index(name = "idx_bisheng_sessions_updated", columnList = "updated_at"))
+public class BishengSession {
+    @Id
+    @Column(name = "conversation_id", length = 36)
+    private String conversationId;
+
+    @Column(name = "session_id", nullable = false)
+    private String sessionId;
+
+    @Column(name = "message_id")
+    private String messageId;
+
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+    public String getNodeId() { return nodeId; }
+    public void setNodeId(String nodeId) { this.nodeId = nodeId; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
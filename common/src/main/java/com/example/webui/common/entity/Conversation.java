@@ -1,14 +1,20 @@
 package com.example.webui.common.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.DynamicUpdate;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import com.example.webui.common.id.Uuid7;
 
 @Entity
-@Table(name = "conversations")
+@Table(name = "conversations", indexes = @Index(name = "idx_conversations_created_id", columnList = "created_at, id"))
+// 最后一条消息摘要由ConversationRepository的UPDATE语句维护，实体保存时只写变更过的列，避免用旧值覆盖
+@DynamicUpdate
 public class Conversation {
+    // 最后一条消息预览的最大长度
+    public static final int PREVIEW_LENGTH = 200;
+
     @Id
     @Column(length = 36)
     private String id;
@@ -29,12 +35,32 @@ public class Conversation {
     @Column(name = "updated_at")
     private Instant updatedAt;
 
+    // 最后一条消息摘要，写消息时同步更新，列表页不再加载messages
+    @Column(name = "last_message_id", length = 36)
+    private String lastMessageId;
+
+    @Column(name = "last_message_role")
+    private String lastMessageRole;
+
+    @Column(name = "last_message_preview", length = PREVIEW_LENGTH)
+    private String lastMessagePreview;
+
+    @Column(name = "last_message_status")
+    private String lastMessageStatus;
+
+    @Column(name = "last_message_at")
+    private Instant lastMessageAt;
+
+    // 为null表示历史数据尚未回填（见ConversationSummaryBackfill）
+    @Column(name = "message_count")
+    private Integer messageCount = 0;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Message> messages = new ArrayList<>();
 
     @PrePersist
     public void prePersist() {
-        if (id == null) id = UUID.randomUUID().toString();
+        if (id == null) id = Uuid7.next();
         createdAt = Instant.now();
         updatedAt = createdAt;
     }
@@ -56,6 +82,23 @@ public class Conversation {
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+    public String getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(String lastMessageId) { this.lastMessageId = lastMessageId; }
+    public String getLastMessageRole() { return lastMessageRole; }
+    public void setLastMessageRole(String lastMessageRole) { this.lastMessageRole = lastMessageRole; }
+    public String getLastMessagePreview() { return lastMessagePreview; }
+    public void setLastMessagePreview(String lastMessagePreview) { this.lastMessagePreview = lastMessagePreview; }
+    public String getLastMessageStatus() { return lastMessageStatus; }
+    public void setLastMessageStatus(String lastMessageStatus) { this.lastMessageStatus = lastMessageStatus; }
+    public Instant getLastMessageAt() { return lastMessageAt; }
+    public void setLastMessageAt(Instant lastMessageAt) { this.lastMessageAt = lastMessageAt; }
+    public Integer getMessageCount() { return messageCount; }
+    public void setMessageCount(Integer messageCount) { this.messageCount = messageCount; }
     public List<Message> getMessages() { return messages; }
     public void setMessages(List<Message> messages) { this.messages = messages; }
+
+    public static String preview(String content) {
+        if (content == null) return "";
+        return content.length() > PREVIEW_LENGTH ? content.substring(0, PREVIEW_LENGTH) : content;
+    }
 }
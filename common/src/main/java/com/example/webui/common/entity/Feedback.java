@@ -2,7 +2,7 @@ package com.example.webui.common.entity;
 
 import jakarta.persistence.*;
 import java.time.Instant;
-import java.util.UUID;
+import com.example.webui.common.id.Uuid7;
 
 @Entity
 @Table(name = "feedbacks")
@@ -41,7 +41,7 @@ public class Feedback {
 
     @PrePersist
     public void prePersist() {
-        if (id == null) id = UUID.randomUUID().toString();
+        if (id == null) id = Uuid7.next();
         createdAt = Instant.now();
     }
 
@@ -2,10 +2,14 @@ package com.example.webui.common.entity;
 
 import jakarta.persistence.*;
 import java.time.Instant;
-import java.util.UUID;
+import com.example.webui.common.id.Uuid7;
 
 @Entity
-@Table(name = "messages")
+// 消息列表按(created_at, id)做游标分页，复合索引使每页查询成本与对话长度无关；
+// created_at单列索引用于按时间段汇总（AnalyticsRollupJob）
+@Table(name = "messages", indexes = {
+        @Index(name = "idx_messages_conv_created_id", columnList = "conversation_id, created_at, id"),
+        @Index(name = "idx_messages_created_at", columnList = "created_at")})
 public class Message {
     @Id
     @Column(length = 36)
@@ -30,6 +34,10 @@ public class Message {
     @Column(name = "created_at", nullable = false)
     private Instant createdAt;
 
+    // 流式生成时每次落盘检查点的时间，用于识别进程崩溃后遗留的generating消息
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
     @Column(name = "prompt_tokens")
     private int promptTokens = 0;
 
@@ -39,9 +47,13 @@ public class Message {
     @Column(name = "total_tokens")
     private int totalTokens = 0;
 
+    // 生成该消息的模型（ModelConfig的ID）或工作流，用于按模型统计token用量
+    @Column(name = "model_key", length = 64)
+    private String modelKey;
+
     @PrePersist
     public void prePersist() {
-        if (id == null) id = UUID.randomUUID().toString();
+        if (id == null) id = Uuid7.next();
         createdAt = Instant.now();
     }
 
@@ -59,10 +71,14 @@ public class Message {
     public void setFeedbackStatus(String feedbackStatus) { this.feedbackStatus = feedbackStatus; }
     public Instant getCreatedAt() { return createdAt; }
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
     public int getPromptTokens() { return promptTokens; }
     public void setPromptTokens(int promptTokens) { this.promptTokens = promptTokens; }
     public int getCompletionTokens() { return completionTokens; }
     public void setCompletionTokens(int completionTokens) { this.completionTokens = completionTokens; }
     public int getTotalTokens() { return totalTokens; }
     public void setTotalTokens(int totalTokens) { this.totalTokens = totalTokens; }
+    public String getModelKey() { return modelKey; }
+    public void setModelKey(String modelKey) { this.modelKey = modelKey; }
 }
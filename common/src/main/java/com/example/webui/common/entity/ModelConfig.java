@@ -41,6 +41,14 @@ public class ModelConfig {
     @Column(nullable = false)
     private boolean enabled = true;
 
+    // 该上游地址同时进行的生成数上限，为空时使用chat.scheduler.default-max-concurrent
+    @Column(name = "max_concurrency")
+    private Integer maxConcurrency;
+
+    // 模型的上下文窗口（token数），为空时使用chat.context.default-window
+    @Column(name = "context_window")
+    private Integer contextWindow;
+
     @Column(name = "created_at", nullable = false)
     private Instant createdAt;
 
@@ -84,6 +92,10 @@ public class ModelConfig {
     public double getTopP() { return topP; }
     public void setTopP(double topP) { this.topP = topP; }
     public boolean isEnabled() { return enabled; }
+    public Integer getMaxConcurrency() { return maxConcurrency; }
+    public void setMaxConcurrency(Integer maxConcurrency) { this.maxConcurrency = maxConcurrency; }
+    public Integer getContextWindow() { return contextWindow; }
+    public void setContextWindow(Integer contextWindow) { this.contextWindow = contextWindow; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
     public Instant getCreatedAt() { return createdAt; }
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
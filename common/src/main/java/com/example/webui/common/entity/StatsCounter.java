@@ -0,0 +1,29 @@
+package com.example.webui.common.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * 后台统计用的预计算计数器，如 users、users.ACTIVE、messages。
+ * 读写由StatsCounters直接执行SQL，实体只用于建表。
+ */
+@Entity
+@Table(name = "stats_counters")
+public class StatsCounter {
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(name = "counter_value", nullable = false)
+    private long value;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public long getValue() { return value; }
+    public void setValue(long value) { this.value = value; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
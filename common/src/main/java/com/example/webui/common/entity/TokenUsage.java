@@ -0,0 +1,67 @@
+package com.example.webui.common.entity;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * 按用户、模型、日期汇总的token用量。user-api在内存中累计后定时批量累加到该表，
+ * 额度检查按该表加载当日/当月已用量。读写由user-api的UsageMeter直接执行SQL，实体只用于建表。
+ */
+@Entity
+@Table(name = "token_usage", indexes = @Index(name = "idx_token_usage_date", columnList = "usage_date"))
+@IdClass(TokenUsage.Key.class)
+public class TokenUsage {
+    @Id
+    @Column(name = "user_id", length = 36)
+    private String userId;
+
+    @Id
+    @Column(name = "model_key", length = 64)
+    private String modelKey;
+
+    @Id
+    @Column(name = "usage_date")
+    private LocalDate usageDate;
+
+    @Column(name = "prompt_tokens", nullable = false)
+    private long promptTokens;
+
+    @Column(name = "completion_tokens", nullable = false)
+    private long completionTokens;
+
+    @Column(name = "requests", nullable = false)
+    private long requests;
+
+    public static class Key implements Serializable {
+        private String userId;
+        private String modelKey;
+        private LocalDate usageDate;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key k)) return false;
+            return Objects.equals(userId, k.userId) && Objects.equals(modelKey, k.modelKey) && Objects.equals(usageDate, k.usageDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, modelKey, usageDate);
+        }
+    }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    public String getModelKey() { return modelKey; }
+    public void setModelKey(String modelKey) { this.modelKey = modelKey; }
+    public LocalDate getUsageDate() { return usageDate; }
+    public void setUsageDate(LocalDate usageDate) { this.usageDate = usageDate; }
+    public long getPromptTokens() { return promptTokens; }
+    public void setPromptTokens(long promptTokens) { this.promptTokens = promptTokens; }
+    public long getCompletionTokens() { return completionTokens; }
+    public void setCompletionTokens(long completionTokens) { this.completionTokens = completionTokens; }
+    public long getRequests() { return requests; }
+    public void setRequests(long requests) { this.requests = requests; }
+}
@@ -7,11 +7,16 @@ import java.util.List;
 import java.util.UUID;
 
 @Entity
+// 后台用户列表按(created_at, id)倒序游标分页，可按状态过滤；用户名/手机/邮箱的唯一索引和real_name索引用于前缀搜索
 @Table(name = "users", uniqueConstraints = {
         @UniqueConstraint(columnNames = {"username"}),
         @UniqueConstraint(columnNames = {"phone"}),
         @UniqueConstraint(columnNames = {"email"}),
         @UniqueConstraint(columnNames = {"id_card"})
+}, indexes = {
+        @Index(name = "idx_users_created_id", columnList = "created_at, id"),
+        @Index(name = "idx_users_status_created_id", columnList = "status, created_at, id"),
+        @Index(name = "idx_users_real_name", columnList = "real_name")
 })
 public class User {
     @Id
@@ -45,9 +50,17 @@ public class User {
     @Column(name = "last_login_at")
     private Instant lastLoginAt;
 
-    @Column(name = "tokens_used")
+    // 累计用量由user-api批量累加（UPDATE ... + ?），实体保存时不写回，避免用加载时的旧值覆盖
+    @Column(name = "tokens_used", updatable = false)
     private Integer tokensUsed = 0;
 
+    // 每日/每月token额度，为空时使用usage.quota的全局配置，0表示不限制
+    @Column(name = "daily_token_quota")
+    private Long dailyTokenQuota;
+
+    @Column(name = "monthly_token_quota")
+    private Long monthlyTokenQuota;
+
     @Column(nullable = false)
     private String status = "ACTIVE";
 
@@ -111,6 +124,10 @@ public class User {
     public void setTokensUsed(Integer tokensUsed) {
         this.tokensUsed = tokensUsed;
     }
+    public Long getDailyTokenQuota() { return dailyTokenQuota; }
+    public void setDailyTokenQuota(Long dailyTokenQuota) { this.dailyTokenQuota = dailyTokenQuota; }
+    public Long getMonthlyTokenQuota() { return monthlyTokenQuota; }
+    public void setMonthlyTokenQuota(Long monthlyTokenQuota) { this.monthlyTokenQuota = monthlyTokenQuota; }
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
     public Instant getCreatedAt() { return createdAt; }
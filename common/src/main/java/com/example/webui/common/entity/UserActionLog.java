@@ -2,10 +2,10 @@ package com.example.webui.common.entity;
 
 import jakarta.persistence.*;
 import java.time.Instant;
-import java.util.UUID;
+import com.example.webui.common.id.Uuid7;
 
 @Entity
-@Table(name = "user_action_logs")
+@Table(name = "user_action_logs", indexes = @Index(name = "idx_user_action_logs_created_at", columnList = "created_at"))
 public class UserActionLog {
     @Id
     @Column(length = 36)
@@ -38,7 +38,7 @@ public class UserActionLog {
 
     @PrePersist
     public void prePersist() {
-        if (id == null) id = UUID.randomUUID().toString();
+        if (id == null) id = Uuid7.next();
         createdAt = Instant.now();
     }
 
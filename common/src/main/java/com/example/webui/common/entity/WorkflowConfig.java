@@ -29,6 +29,10 @@ public class WorkflowConfig {
     @Column(nullable = false)
     private boolean enabled = true;
 
+    // 该上游地址同时进行的生成数上限，为空时使用chat.scheduler.default-max-concurrent
+    @Column(name = "max_concurrency")
+    private Integer maxConcurrency;
+
     @Column(name = "config_json")
     private String configJson;
 
@@ -64,6 +68,8 @@ public class WorkflowConfig {
     public void setApiKey(String apiKey) { this.apiKey = apiKey; }
     public boolean isEnabled() { return enabled; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Integer getMaxConcurrency() { return maxConcurrency; }
+    public void setMaxConcurrency(Integer maxConcurrency) { this.maxConcurrency = maxConcurrency; }
     public String getConfigJson() { return configJson; }
     public void setConfigJson(String configJson) { this.configJson = configJson; }
     public Instant getCreatedAt() { return createdAt; }
@@ -0,0 +1,56 @@
+package com.example.webui.common.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按时间递增的UUID（RFC 9562 UUIDv7）：高48位为毫秒时间戳，随后12位是同一毫秒内的递增序号，其余62位随机。
+ * 字符串形式仍是36位小写UUID，可以直接存入原来的VARCHAR(36)主键，字典序即生成顺序，
+ * 新行总是追加在聚簇索引末尾，不会像随机UUID那样插入到索引中间造成页分裂。
+ *
+ * 已有的随机UUID行不需要迁移：新旧ID可以共存，旧行留在索引中原来的位置，只有新插入的行按时间追加。
+ * 没有改用BINARY(16)：ID在接口、URL和游标分页（按id比较字符串）中都以字符串形式使用。
+ * 随机部分用ThreadLocalRandom而不是SecureRandom，ID不作为访问凭证（访问都要校验所属用户）。
+ */
+public final class Uuid7 {
+
+    // 上一次生成的 (毫秒时间戳 << 12 | 序号)，保证同一进程内严格递增
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private Uuid7() {
+    }
+
+    public static String next() {
+        return nextUuid().toString();
+    }
+
+    public static UUID nextUuid() {
+        return nextUuid(System.currentTimeMillis());
+    }
+
+    // 指定当前时间，测试中模拟时钟回拨
+    static UUID nextUuid(long currentMillis) {
+        long now = currentMillis << 12;
+        long state;
+        while (true) {
+            long prev = LAST.get();
+            // 同一毫秒内序号加1；序号用完或时钟回拨时借用下一个毫秒，保持递增
+            state = Math.max(now, prev + 1);
+            if (LAST.compareAndSet(prev, state)) break;
+        }
+        long millis = state >>> 12;
+        long seq = state & 0xFFF;
+        long msb = (millis << 16) | 0x7000L | seq;
+        long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * UUIDv7中的毫秒时间戳（其他版本的UUID返回-1）
+     */
+    public static long timestamp(String id) {
+        UUID uuid = UUID.fromString(id);
+        return uuid.version() == 7 ? uuid.getMostSignificantBits() >>> 16 : -1;
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.webui.common.log;
+
+import com.example.webui.common.entity.AuditLog;
+import com.example.webui.common.entity.UserActionLog;
+import com.example.webui.common.id.Uuid7;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 审计日志和用户操作日志的异步批量写入：调用方只把日志放入有界队列（不访问数据库），
+ * 后台线程攒够batch-size条或等待flush-interval-ms后用JDBC批量插入。
+ * 队列满时丢弃新日志并计数，不阻塞请求；应用关闭时在Web服务器停止接收请求并处理完进行中的请求之后才停止，
+ * 先写完队列中剩余的日志，停止后再提交的日志在调用线程直接写入。
+ *
+ * 指标：log_writer_queue_depth，log_writer_written_total（按type），
+ * log_writer_dropped_total（按type、reason=queue_full/write_failed），log_writer_batch_seconds
+ */
+@Component
+public class AsyncLogWriter implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncLogWriter.class);
+
+    private static final String INSERT_AUDIT =
+            "INSERT INTO audit_logs (id, user_id, ip, action, details, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ACTION =
+            "INSERT INTO user_action_logs (id, user_id, action, message_id, conversation_id, details, ip_address, user_agent, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final BlockingQueue<Object> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final MeterRegistry meterRegistry;
+    private final Timer batchTimer;
+    private volatile boolean running;
+    private volatile boolean stopped;
+    private Thread worker;
+
+    @Autowired
+    public AsyncLogWriter(JdbcTemplate jdbc, ObjectProvider<MeterRegistry> meterRegistry,
+                          @Value("${log-writer.queue-capacity:10000}") int queueCapacity,
+                          @Value("${log-writer.batch-size:200}") int batchSize,
+                          @Value("${log-writer.flush-interval-ms:1000}") long flushIntervalMs) {
+        this(jdbc, meterRegistry.getIfAvailable(SimpleMeterRegistry::new), queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    AsyncLogWriter(JdbcTemplate jdbc, MeterRegistry meterRegistry, int queueCapacity, int batchSize, long flushIntervalMs) {
+        this.jdbc = jdbc;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("log.writer.queue.depth", queue, BlockingQueue::size)
+                .description("等待写入的日志数").register(meterRegistry);
+        this.batchTimer = Timer.builder("log.writer.batch").description("一批日志的写入时间").register(meterRegistry);
+    }
+
+    /**
+     * 提交一条审计日志，立即返回；id和创建时间在提交时生成
+     * @return 是否已放入队列（队列满时丢弃）
+     */
+    public boolean submit(AuditLog log) {
+        if (log.getId() == null) log.setId(Uuid7.next());
+        if (log.getCreatedAt() == null) log.setCreatedAt(Instant.now());
+        return offer(log, "audit");
+    }
+
+    /**
+     * 提交一条用户操作日志，立即返回；id和创建时间在提交时生成
+     * @return 是否已放入队列（队列满时丢弃）
+     */
+    public boolean submit(UserActionLog log) {
+        if (log.getId() == null) log.setId(Uuid7.next());
+        if (log.getCreatedAt() == null) log.setCreatedAt(Instant.now());
+        return offer(log, "action");
+    }
+
+    private boolean offer(Object entry, String type) {
+        if (!queue.offer(entry)) {
+            dropped(type, "queue_full").increment();
+            return false;
+        }
+        // 已停止时后台线程不会再取队列，在当前线程写入
+        if (stopped) flushAll();
+        return true;
+    }
+
+    private Counter dropped(String type, String reason) {
+        return Counter.builder("log.writer.dropped").tag("type", type).tag("reason", reason)
+                .description("被丢弃的日志数").register(meterRegistry);
+    }
+
+    private Counter written(String type) {
+        return Counter.builder("log.writer.written").tag("type", type)
+                .description("已写入的日志数").register(meterRegistry);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        stopped = false;
+        worker = new Thread(this::run, "log-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            stopped = true;
+            t = worker;
+        }
+        t.interrupt();
+        try {
+            t.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 后台线程退出后队列中仍有日志（如线程未能及时结束）时在当前线程写完
+        flushAll();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // 阶段低于Web服务器的优雅关闭（SmartLifecycle.DEFAULT_PHASE - 1024）和停止（- 2048），
+    // 在服务器处理完进行中的请求之后、数据源等单例销毁之前停止
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Object first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                // 攒批：最多等待一个刷新间隔或攒满batchSize条
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || wait <= 0) break;
+                    Object next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 关闭：当前批次写完后退出，剩余的由stop()写完
+                write(batch);
+                batch.clear();
+                break;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 写完队列中当前所有的日志（关闭时和测试中使用）
+     */
+    synchronized void flushAll() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Object> batch) {
+        if (batch.isEmpty()) return;
+        List<Object[]> audits = new ArrayList<>();
+        List<Object[]> actions = new ArrayList<>();
+        for (Object o : batch) {
+            if (o instanceof AuditLog a) {
+                audits.add(new Object[]{a.getId(), userId(a.getUser()), a.getIp(), a.getAction(), a.getDetails(), Timestamp.from(a.getCreatedAt())});
+            } else if (o instanceof UserActionLog u) {
+                actions.add(new Object[]{u.getId(), userId(u.getUser()), u.getAction(), u.getMessageId(), u.getConversationId(),
+                        u.getDetails(), u.getIpAddress(), u.getUserAgent(), Timestamp.from(u.getCreatedAt())});
+            }
+        }
+        batchTimer.record(() -> {
+            insert(INSERT_AUDIT, audits, "audit");
+            insert(INSERT_ACTION, actions, "action");
+        });
+    }
+
+    private void insert(String sql, List<Object[]> rows, String type) {
+        if (rows.isEmpty()) return;
+        try {
+            jdbc.batchUpdate(sql, rows);
+            written(type).increment(rows.size());
+            return;
+        } catch (Exception e) {
+            log.warn("批量写入日志失败({}, {}条)，改为逐条写入: {}", type, rows.size(), e.getMessage());
+        }
+        // 逐条写入，只丢弃写不进去的那几条，不重试，避免坏数据阻塞整个队列
+        for (Object[] row : rows) {
+            try {
+                jdbc.update(sql, row);
+                written(type).increment();
+            } catch (DuplicateKeyException e) {
+                // 批量插入不在事务中，失败前已写入的行会主键冲突（id在提交时生成，不会有其他来源的重复）
+                written(type).increment();
+            } catch (Exception e) {
+                dropped(type, "write_failed").increment();
+            }
+        }
+    }
+
+    private static String userId(com.example.webui.common.entity.User user) {
+        return user != null ? user.getId() : null;
+    }
+}
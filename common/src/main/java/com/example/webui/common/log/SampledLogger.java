@@ -0,0 +1,48 @@
+package com.example.webui.common.log;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限流的DEBUG日志，用于每个token/事件都会执行的热路径：每秒最多输出permitsPerSecond条，
+ * 超出的只计数，下一秒第一条日志附带上一秒省略的条数。DEBUG未开启时只有一次级别判断的开销。
+ */
+public class SampledLogger {
+
+    private final Logger logger;
+    private final int permitsPerSecond;
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicInteger used = new AtomicInteger();
+    private final AtomicInteger suppressed = new AtomicInteger();
+
+    public SampledLogger(Logger logger, int permitsPerSecond) {
+        this.logger = logger;
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public void debug(String format, Object... args) {
+        if (!logger.isDebugEnabled() || !acquire()) return;
+        int dropped = suppressed.getAndSet(0);
+        if (dropped > 0) {
+            logger.debug("（之前省略了{}条）", dropped);
+        }
+        logger.debug(format, args);
+    }
+
+    private boolean acquire() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long start = windowStart.get();
+        if (second != start && windowStart.compareAndSet(start, second)) {
+            used.set(0);
+        }
+        if (used.incrementAndGet() <= permitsPerSecond) return true;
+        suppressed.incrementAndGet();
+        return false;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.webui.common.repo;
+
+import com.example.webui.common.entity.AnalyticsRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface AnalyticsRollupRepository extends JpaRepository<AnalyticsRollup, AnalyticsRollup.Key> {
+
+    // 时间范围 [from, to) 内的一组指标，按时间桶排序（走 granularity, metric, bucket_start 索引）
+    @Query("SELECT r FROM AnalyticsRollup r WHERE r.granularity = :granularity AND r.metric IN :metrics " +
+           "AND r.bucketStart >= :from AND r.bucketStart < :to ORDER BY r.bucketStart")
+    List<AnalyticsRollup> findSeries(@Param("granularity") String granularity, @Param("metrics") List<String> metrics,
+                                     @Param("from") Instant from, @Param("to") Instant to);
+}
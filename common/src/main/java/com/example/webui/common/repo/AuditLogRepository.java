@@ -1,10 +1,25 @@
 package com.example.webui.common.repo;
 
 import com.example.webui.common.entity.AuditLog;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
 import java.util.List;
 
 public interface AuditLogRepository extends JpaRepository<AuditLog, String> {
     List<AuditLog> findTop200ByOrderByCreatedAtDesc();
     List<AuditLog> findTop200ByActionContainingIgnoreCaseOrIpContainingIgnoreCaseOrderByCreatedAtDesc(String action, String ip);
+
+    // 导出：按(createdAt, id)键集分批扫描，after为上一批最后一行，参数为null时不过滤
+    @Query("SELECT l.id AS id, u.id AS userId, u.username AS username, l.ip AS ip, l.action AS action, l.details AS details, l.createdAt AS createdAt "
+            + "FROM AuditLog l LEFT JOIN l.user u "
+            + "WHERE (:userId IS NULL OR u.id = :userId) AND (:action IS NULL OR LOWER(l.action) LIKE LOWER(CONCAT('%', :action, '%'))) "
+            + "AND (:ip IS NULL OR l.ip LIKE CONCAT('%', :ip, '%')) AND (:from IS NULL OR l.createdAt >= :from) AND (:to IS NULL OR l.createdAt < :to) "
+            + "AND (:afterAt IS NULL OR l.createdAt > :afterAt OR (l.createdAt = :afterAt AND l.id > :afterId)) ORDER BY l.createdAt, l.id")
+    List<AuditLogRow> findExportBatch(@Param("userId") String userId, @Param("action") String action, @Param("ip") String ip,
+                                      @Param("from") Instant from, @Param("to") Instant to,
+                                      @Param("afterAt") Instant afterAt, @Param("afterId") String afterId, Pageable pageable);
 }
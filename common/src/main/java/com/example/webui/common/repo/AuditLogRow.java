@@ -0,0 +1,16 @@
+package com.example.webui.common.repo;
+
+import java.time.Instant;
+
+/**
+ * 审计日志导出投影：日志和操作用户一条查询取出
+ */
+public interface AuditLogRow {
+    String getId();
+    String getUserId();
+    String getUsername();
+    String getIp();
+    String getAction();
+    String getDetails();
+    Instant getCreatedAt();
+}
@@ -0,0 +1,11 @@
+package com.example.webui.common.repo;
+
+import java.time.Instant;
+
+/**
+ * 配置表的版本戳：行数和最大更新时间，任何增删改都会改变其中之一
+ */
+public interface ConfigVersion {
+    long getCount();
+    Instant getUpdatedAt();
+}
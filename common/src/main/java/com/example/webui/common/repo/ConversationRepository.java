@@ -1,11 +1,17 @@
 package com.example.webui.common.repo;
 
 import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
 import com.example.webui.common.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,4 +22,66 @@ public interface ConversationRepository extends JpaRepository<Conversation, Stri
     List<Conversation> findByUserOrderByUpdatedAtDesc(User user);
     Page<Conversation> findByTitleContainingIgnoreCase(String title, Pageable pageable);
     List<Conversation> findByTitleContainingIgnoreCase(String title);
+
+    String SUMMARY_SELECT = "SELECT c.id AS id, c.title AS title, c.createdAt AS createdAt, c.updatedAt AS updatedAt, "
+            + "u.id AS userId, u.username AS username, c.lastMessageId AS lastMessageId, c.lastMessageRole AS lastMessageRole, "
+            + "c.lastMessagePreview AS lastMessagePreview, c.lastMessageStatus AS lastMessageStatus, c.lastMessageAt AS lastMessageAt, "
+            + "c.messageCount AS messageCount FROM Conversation c LEFT JOIN c.user u ";
+    String TITLE_FILTER = "WHERE (:query IS NULL OR LOWER(c.title) LIKE LOWER(CONCAT('%', :query, '%')))";
+
+    // 用户侧对话列表（不含已删除）
+    @Query(value = SUMMARY_SELECT + "WHERE u.id = :userId AND c.isDeleted = false",
+           countQuery = "SELECT COUNT(c) FROM Conversation c WHERE c.user.id = :userId AND c.isDeleted = false")
+    Page<ConversationSummary> findSummariesByUser(@Param("userId") String userId, Pageable pageable);
+
+    // 管理端某个用户的全部对话
+    @Query(SUMMARY_SELECT + "WHERE u.id = :userId ORDER BY c.updatedAt DESC")
+    List<ConversationSummary> findAllSummariesByUser(@Param("userId") String userId);
+
+    // 管理端对话列表，query为空时不过滤标题
+    @Query(value = SUMMARY_SELECT + TITLE_FILTER,
+           countQuery = "SELECT COUNT(c) FROM Conversation c " + TITLE_FILTER)
+    Page<ConversationSummary> findSummaries(@Param("query") String query, Pageable pageable);
+
+    // 导出：按(createdAt, id)键集分批扫描，after为上一批最后一行，参数为null时不过滤
+    @Query(SUMMARY_SELECT + TITLE_FILTER
+            + " AND (:userId IS NULL OR u.id = :userId) AND (:from IS NULL OR c.createdAt >= :from) AND (:to IS NULL OR c.createdAt < :to)"
+            + " AND (:afterAt IS NULL OR c.createdAt > :afterAt OR (c.createdAt = :afterAt AND c.id > :afterId)) ORDER BY c.createdAt, c.id")
+    List<ConversationSummary> findExportBatch(@Param("query") String query, @Param("userId") String userId,
+                                              @Param("from") Instant from, @Param("to") Instant to,
+                                              @Param("afterAt") Instant afterAt, @Param("afterId") String afterId, Pageable pageable);
+
+    // 写入一条新消息后更新最后消息摘要和消息数（未回填的历史对话message_count保持null）
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.lastMessageId = :messageId, c.lastMessageRole = :role, c.lastMessagePreview = :preview, "
+            + "c.lastMessageStatus = :status, c.lastMessageAt = :at, c.messageCount = c.messageCount + 1, c.updatedAt = :at WHERE c.id = :id")
+    int recordMessage(@Param("id") String id, @Param("messageId") String messageId, @Param("role") String role,
+                      @Param("preview") String preview, @Param("status") String status, @Param("at") Instant at);
+
+    default void recordMessage(Message m) {
+        recordMessage(m.getConversation().getId(), m.getId(), m.getRole(), Conversation.preview(m.getContent()), m.getStatus(),
+                m.getCreatedAt() != null ? m.getCreatedAt() : Instant.now());
+    }
+
+    // 流式消息结束时更新摘要中的内容和状态（只在它仍是最后一条消息时）
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.lastMessagePreview = :preview, c.lastMessageStatus = :status WHERE c.id = :id AND c.lastMessageId = :messageId")
+    int updateLastMessage(@Param("id") String id, @Param("messageId") String messageId, @Param("preview") String preview, @Param("status") String status);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.updatedAt = :now WHERE c.id = :id")
+    int touch(@Param("id") String id, @Param("now") Instant now);
+
+    @Query("SELECT c.id FROM Conversation c WHERE c.messageCount IS NULL")
+    List<String> findIdsWithoutSummary(Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.messageCount = :count, c.lastMessageId = :messageId, c.lastMessageRole = :role, c.lastMessagePreview = :preview, "
+            + "c.lastMessageStatus = :status, c.lastMessageAt = :at WHERE c.id = :id AND c.messageCount IS NULL")
+    int backfillSummary(@Param("id") String id, @Param("count") int count, @Param("messageId") String messageId, @Param("role") String role,
+                        @Param("preview") String preview, @Param("status") String status, @Param("at") Instant at);
 }
@@ -0,0 +1,21 @@
+package com.example.webui.common.repo;
+
+import java.time.Instant;
+
+/**
+ * 对话列表投影：对话本身、所属用户和最后一条消息摘要，一条查询取出，不加载messages
+ */
+public interface ConversationSummary {
+    String getId();
+    String getTitle();
+    Instant getCreatedAt();
+    Instant getUpdatedAt();
+    String getUserId();
+    String getUsername();
+    String getLastMessageId();
+    String getLastMessageRole();
+    String getLastMessagePreview();
+    String getLastMessageStatus();
+    Instant getLastMessageAt();
+    Integer getMessageCount();
+}
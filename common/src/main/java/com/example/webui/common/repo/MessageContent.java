@@ -0,0 +1,9 @@
+package com.example.webui.common.repo;
+
+/**
+ * 消息完整内容投影：只取ID和内容，用于按批补全会话上只冗余了预览的最后一条消息
+ */
+public interface MessageContent {
+    String getId();
+    String getContent();
+}
@@ -3,11 +3,17 @@ package com.example.webui.common.repo;
 import com.example.webui.common.entity.Message;
 import com.example.webui.common.entity.Conversation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Page;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface MessageRepository extends JpaRepository<Message, String> {
     Page<Message> findByConversationOrderByCreatedAtDesc(Conversation conversation, Pageable pageable);
@@ -15,4 +21,39 @@ public interface MessageRepository extends JpaRepository<Message, String> {
     List<Message> findByConversationAndCreatedAtLessThanOrderByCreatedAtDesc(Conversation conversation, Instant before, Pageable pageable);
     long countByConversation(Conversation conversation);
     long countByConversationAndRoleAndStatusNot(Conversation conversation, String role, String status);
+    Optional<Message> findFirstByConversation_IdOrderByCreatedAtDesc(String conversationId);
+    long countByConversation_Id(String conversationId);
+
+    // 按ID查找属于指定用户的消息
+    Optional<Message> findByIdAndConversation_User_Id(String id, String userId);
+
+    // 按ID批量取完整内容（导出时补全会话的最后一条消息）
+    @Query("SELECT m.id AS id, m.content AS content FROM Message m WHERE m.id IN :ids")
+    List<MessageContent> findContents(@Param("ids") Collection<String> ids);
+
+    // 游标分页：按(createdAt, id)倒序取最新一页，调用方传入limit+1的Pageable判断是否还有更多
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findLatest(@Param("conversationId") String conversationId, Pageable pageable);
+
+    // 游标分页：取严格早于游标(createdAt, id)的一页，同一时间戳的消息按id继续翻页
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findBefore(@Param("conversationId") String conversationId, @Param("createdAt") Instant createdAt, @Param("id") String id, Pageable pageable);
+
+    // 流式消息检查点：单条UPDATE写入内容和状态，避免save()的merge先SELECT再UPDATE
+    @Modifying
+    @Transactional
+    @Query("UPDATE Message m SET m.content = :content, m.status = :status, m.updatedAt = :updatedAt WHERE m.id = :id")
+    int checkpoint(@Param("id") String id, @Param("content") String content, @Param("status") String status, @Param("updatedAt") Instant updatedAt);
+
+    // 记录token用量（模型返回的usage，没有时为本地估算）和生成该消息的模型
+    @Modifying
+    @Transactional
+    @Query("UPDATE Message m SET m.promptTokens = :promptTokens, m.completionTokens = :completionTokens, m.totalTokens = :totalTokens, m.modelKey = :modelKey WHERE m.id = :id")
+    int updateUsage(@Param("id") String id, @Param("promptTokens") int promptTokens, @Param("completionTokens") int completionTokens, @Param("totalTokens") int totalTokens, @Param("modelKey") String modelKey);
+
+    // 将长时间没有检查点的generating消息标记为中断（进程崩溃或实例下线后遗留的行）
+    @Modifying
+    @Transactional
+    @Query("UPDATE Message m SET m.status = :status, m.updatedAt = :now WHERE m.status = 'generating' AND COALESCE(m.updatedAt, m.createdAt) < :staleBefore")
+    int markStaleGenerating(@Param("status") String status, @Param("staleBefore") Instant staleBefore, @Param("now") Instant now);
 }
@@ -2,8 +2,13 @@ package com.example.webui.common.repo;
 
 import com.example.webui.common.entity.ModelConfig;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import java.util.List;
 
 public interface ModelConfigRepository extends JpaRepository<ModelConfig, String> {
     List<ModelConfig> findByEnabledTrueOrderByUpdatedAtDesc();
+
+    // 配置缓存轮询用的版本戳
+    @Query("SELECT COUNT(c) AS count, MAX(c.updatedAt) AS updatedAt FROM ModelConfig c")
+    ConfigVersion version();
 }
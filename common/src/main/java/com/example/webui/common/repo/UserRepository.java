@@ -1,13 +1,22 @@
 package com.example.webui.common.repo;
 
 import com.example.webui.common.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, String> {
+    // 后台用户列表的过滤条件，参数为null时不过滤；搜索参数为已转义的前缀模式（如 abc%，转义符为!），可以使用索引
+    String LIST_FILTER = "WHERE (:status IS NULL OR u.status = :status) AND (:role IS NULL OR u.role = :role) "
+            + "AND (:from IS NULL OR u.createdAt >= :from) AND (:to IS NULL OR u.createdAt < :to) "
+            + "AND (:username IS NULL OR u.username LIKE :username ESCAPE '!') AND (:phone IS NULL OR u.phone LIKE :phone ESCAPE '!') "
+            + "AND (:email IS NULL OR u.email LIKE :email ESCAPE '!') AND (:realName IS NULL OR u.realName LIKE :realName ESCAPE '!') "
+            + "AND (:q IS NULL OR u.username LIKE :q ESCAPE '!' OR u.phone LIKE :q ESCAPE '!' OR u.email LIKE :q ESCAPE '!' OR u.realName LIKE :q ESCAPE '!') ";
+
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
     Optional<User> findByPhone(String phone);
@@ -16,6 +25,23 @@ public interface UserRepository extends JpaRepository<User, String> {
     
     // 按状态统计用户数量
     long countByStatus(String status);
+
+    // 后台用户列表：按(createdAt, id)倒序，after为上一页最后一行（为null时取第一页），调用方传入limit+1的Pageable判断是否还有更多
+    @Query("SELECT u.id AS id, u.username AS username, u.phone AS phone, u.email AS email, u.realName AS realName, "
+            + "u.role AS role, u.status AS status, u.createdAt AS createdAt FROM User u " + LIST_FILTER
+            + "AND (:afterAt IS NULL OR u.createdAt < :afterAt OR (u.createdAt = :afterAt AND u.id < :afterId)) "
+            + "ORDER BY u.createdAt DESC, u.id DESC")
+    List<UserRow> findListPage(@Param("status") String status, @Param("role") String role,
+                               @Param("from") Instant from, @Param("to") Instant to,
+                               @Param("username") String username, @Param("phone") String phone,
+                               @Param("email") String email, @Param("realName") String realName, @Param("q") String q,
+                               @Param("afterAt") Instant afterAt, @Param("afterId") String afterId, Pageable pageable);
+
+    @Query("SELECT COUNT(u) FROM User u " + LIST_FILTER)
+    long countList(@Param("status") String status, @Param("role") String role,
+                   @Param("from") Instant from, @Param("to") Instant to,
+                   @Param("username") String username, @Param("phone") String phone,
+                   @Param("email") String email, @Param("realName") String realName, @Param("q") String q);
     
     // 使用JPQL查询，只查询需要的字段，返回接口类型的投影
     @Query("SELECT u.id AS id, u.username AS username, u.phone AS phone, u.email AS email, u.realName AS realName, u.createdAt AS createdAt FROM User u")
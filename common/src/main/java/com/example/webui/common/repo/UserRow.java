@@ -0,0 +1,17 @@
+package com.example.webui.common.repo;
+
+import java.time.Instant;
+
+/**
+ * 后台用户列表投影：只取列表展示需要的列，不加载密码、身份证和关联集合
+ */
+public interface UserRow {
+    String getId();
+    String getUsername();
+    String getPhone();
+    String getEmail();
+    String getRealName();
+    String getRole();
+    String getStatus();
+    Instant getCreatedAt();
+}
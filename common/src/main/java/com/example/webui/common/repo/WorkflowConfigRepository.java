@@ -2,8 +2,13 @@ package com.example.webui.common.repo;
 
 import com.example.webui.common.entity.WorkflowConfig;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import java.util.List;
 
 public interface WorkflowConfigRepository extends JpaRepository<WorkflowConfig, String> {
     List<WorkflowConfig> findByEnabledTrueOrderByUpdatedAtDesc();
-}
\ No newline at end of file
+
+    // 配置缓存轮询用的版本戳
+    @Query("SELECT COUNT(c) AS count, MAX(c.updatedAt) AS updatedAt FROM WorkflowConfig c")
+    ConfigVersion version();
+}
@@ -0,0 +1,94 @@
+package com.example.webui.common.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * JWT校验：解析器只构建一次（线程安全可复用），校验通过的token缓存其身份信息，
+ * 缓存项在token的exp到期时失效，最长不超过maxTtl。校验失败的token不缓存；maxCacheSize为0时不缓存。
+ */
+public class JwtVerifier {
+
+    /**
+     * token中携带的用户身份，expiresAt为null表示token未设置exp
+     */
+    public record Principal(String userId, String username, String role, Instant expiresAt) {
+        boolean expired(Instant now) {
+            return expiresAt != null && !expiresAt.isAfter(now);
+        }
+    }
+
+    private final JwtParser parser;
+    private final Cache<String, Principal> cache;
+
+    public JwtVerifier(String secret, long maxCacheSize, Duration maxTtl) {
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8)))
+                .build();
+        long maxTtlNanos = maxTtl.toNanos();
+        this.cache = maxCacheSize <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(maxCacheSize)
+                .expireAfter(new Expiry<String, Principal>() {
+                    @Override
+                    public long expireAfterCreate(String token, Principal p, long currentTime) {
+                        if (p.expiresAt() == null) return maxTtlNanos;
+                        long untilExp = Duration.between(Instant.now(), p.expiresAt()).toNanos();
+                        return Math.max(0, Math.min(maxTtlNanos, untilExp));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Principal p, long currentTime, long currentDuration) {
+                        return expireAfterCreate(token, p, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Principal p, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 校验token并返回身份信息，签名错误、已过期或缺少userId/username时返回null
+     */
+    public Principal verify(String token) {
+        if (token == null || token.isBlank()) return null;
+        Instant now = Instant.now();
+        Principal cached = cache != null ? cache.getIfPresent(token) : null;
+        if (cached != null) {
+            // 缓存过期由Caffeine异步清理，这里再按exp检查一次
+            if (!cached.expired(now)) return cached;
+            cache.invalidate(token);
+            return null;
+        }
+        Claims claims;
+        try {
+            claims = parser.parseClaimsJws(token).getBody();
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        String userId = claims.get("userId", String.class);
+        String username = claims.get("username", String.class);
+        if (userId == null || username == null) return null;
+        Date exp = claims.getExpiration();
+        Principal principal = new Principal(userId, username, claims.get("role", String.class), exp != null ? exp.toInstant() : null);
+        if (cache != null) cache.put(token, principal);
+        return principal;
+    }
+
+    public long cachedTokens() {
+        return cache != null ? cache.estimatedSize() : 0;
+    }
+}
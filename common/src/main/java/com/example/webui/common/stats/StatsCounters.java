@@ -0,0 +1,238 @@
+package com.example.webui.common.stats;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台统计数字（用户/对话/消息/反馈总数及按状态的数量）的预计算计数器，存放在stats_counters表中，
+ * 后台读取时不再对大表执行COUNT(*)。
+ *
+ * 写入：插入、删除、状态变化时调用inserted/deleted/statusChanged，只在内存中累加增量（在事务中调用时等提交后才累加），
+ * 定时任务（以及读取前）把增量批量累加到表中。
+ * 校准：定时对各表执行一次GROUP BY status分组统计，用结果覆盖计数器，修正漏记（级联删除、直接改库、进程崩溃丢失的增量）。
+ * 校准和其他实例未刷新的增量之间存在竞争，最多造成一个刷新间隔内的少量偏差，下次校准时修正。
+ * 读取：snapshot()返回的值最多滞后 max-staleness-ms + flush-interval-ms。
+ */
+@Component
+public class StatsCounters {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsCounters.class);
+
+    public static final String USERS = "users";
+    public static final String CONVERSATIONS = "conversations";
+    public static final String MESSAGES = "messages";
+    public static final String FEEDBACKS = "feedbacks";
+
+    private static final String ADD =
+            "UPDATE stats_counters SET counter_value = counter_value + ?, updated_at = ? WHERE name = ?";
+    private static final String SET =
+            "UPDATE stats_counters SET counter_value = ?, updated_at = ? WHERE name = ?";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final long maxStalenessMs;
+    // 未刷新到数据库的增量
+    private final Map<String, AtomicLong> pending = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot;
+    private volatile boolean reconcileRequested;
+
+    private record Snapshot(Map<String, Long> values, long loadedAt) {}
+
+    @Autowired
+    public StatsCounters(JdbcTemplate jdbc, TransactionTemplate tx,
+                         @Value("${stats.max-staleness-ms:10000}") long maxStalenessMs) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.maxStalenessMs = maxStalenessMs;
+    }
+
+    /**
+     * 按状态计数的计数器名，如 users.ACTIVE
+     */
+    public static String byStatus(String table, String status) {
+        return table + "." + status;
+    }
+
+    public void inserted(String table, String status) {
+        add(table, 1);
+        if (status != null) add(byStatus(table, status), 1);
+    }
+
+    public void deleted(String table, String status) {
+        add(table, -1);
+        if (status != null) add(byStatus(table, status), -1);
+    }
+
+    public void statusChanged(String table, String from, String to) {
+        if (Objects.equals(from, to)) return;
+        if (from != null) add(byStatus(table, from), -1);
+        if (to != null) add(byStatus(table, to), 1);
+    }
+
+    /**
+     * 累加一个计数器；在事务中调用时等事务提交后再累加，回滚的修改不计入
+     */
+    public void add(String name, long delta) {
+        if (delta == 0) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    pending.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+                }
+            });
+        } else {
+            pending.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+        }
+    }
+
+    /**
+     * 有无法按增量维护的修改（如级联删除了不定数量的子记录）时调用，下次读取前先校准
+     */
+    public void requestReconcile() {
+        reconcileRequested = true;
+    }
+
+    /**
+     * 所有计数器的当前值（最多缓存max-staleness-ms），不存在的计数器按0处理
+     */
+    public Map<String, Long> snapshot() {
+        Snapshot s = snapshot;
+        if (s != null && !reconcileRequested && System.currentTimeMillis() - s.loadedAt() < maxStalenessMs) {
+            return s.values();
+        }
+        synchronized (this) {
+            s = snapshot;
+            if (s != null && !reconcileRequested && System.currentTimeMillis() - s.loadedAt() < maxStalenessMs) {
+                return s.values();
+            }
+            // 先写入本实例的增量，读到的值至少包含本实例已提交的修改
+            flush();
+            Map<String, Long> values = load();
+            if (values.isEmpty() || reconcileRequested) {
+                // 首次使用（表为空）或有待校准的修改
+                reconcile();
+                values = load();
+            }
+            snapshot = new Snapshot(Map.copyOf(values), System.currentTimeMillis());
+            return snapshot.values();
+        }
+    }
+
+    public long get(String name) {
+        return snapshot().getOrDefault(name, 0L);
+    }
+
+    @Scheduled(fixedDelayString = "${stats.flush-interval-ms:5000}", initialDelayString = "${stats.flush-interval-ms:5000}")
+    public synchronized void flush() {
+        List<Object[]> rows = new ArrayList<>();
+        Map<String, Long> taken = new HashMap<>();
+        Timestamp now = Timestamp.from(Instant.now());
+        pending.forEach((name, counter) -> {
+            long delta = counter.getAndSet(0);
+            if (delta == 0) return;
+            taken.put(name, delta);
+            rows.add(new Object[]{delta, now, name});
+        });
+        if (rows.isEmpty()) return;
+        try {
+            int[] updated = tx.execute(status -> jdbc.batchUpdate(ADD, rows));
+            for (int i = 0; i < rows.size(); i++) {
+                // 计数器行还不存在：说明还没有校准过，增量丢弃，由校准得到准确值
+                if (updated != null && updated[i] == 0) reconcileRequested = true;
+            }
+        } catch (Exception e) {
+            // 增量放回内存，下次刷新重试
+            taken.forEach((name, delta) -> pending.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta));
+            log.warn("刷新统计计数器失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 用分组统计的结果覆盖计数器：users和feedbacks各一条GROUP BY status查询（总数为各组之和），对话和消息各一条COUNT(*)
+     */
+    @Scheduled(fixedDelayString = "${stats.reconcile-interval-ms:3600000}", initialDelayString = "${stats.reconcile-interval-ms:3600000}")
+    public synchronized void reconcile() {
+        // 先写入本实例的增量，避免统计结果中已包含的修改再被累加一次
+        flush();
+        try {
+            Map<String, Long> counts = new HashMap<>();
+            groupByStatus(USERS, counts);
+            groupByStatus(FEEDBACKS, counts);
+            counts.put(CONVERSATIONS, count(CONVERSATIONS));
+            counts.put(MESSAGES, count(MESSAGES));
+            // 已不存在的状态清零
+            for (String name : load().keySet()) counts.putIfAbsent(name, 0L);
+            tx.executeWithoutResult(status -> write(counts));
+            reconcileRequested = false;
+            snapshot = null;
+        } catch (Exception e) {
+            log.warn("校准统计计数器失败: {}", e.getMessage());
+        }
+    }
+
+    private void groupByStatus(String table, Map<String, Long> counts) {
+        long[] total = {0};
+        jdbc.query("SELECT status, COUNT(*) FROM " + table + " GROUP BY status", rs -> {
+            long n = rs.getLong(2);
+            total[0] += n;
+            String status = rs.getString(1);
+            if (status != null) counts.merge(byStatus(table, status), n, Long::sum);
+        });
+        counts.put(table, total[0]);
+    }
+
+    private long count(String table) {
+        Long n = jdbc.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        return n == null ? 0 : n;
+    }
+
+    private void write(Map<String, Long> counts) {
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> rows = new ArrayList<>();
+        counts.forEach((name, value) -> rows.add(new Object[]{value, now, name}));
+        int[] updated = jdbc.batchUpdate(SET, rows);
+        for (int i = 0; i < rows.size(); i++) {
+            if (updated[i] != 0) continue; // 驱动返回SUCCESS_NO_INFO(-2)时视为已更新
+            Object[] r = rows.get(i);
+            try {
+                jdbc.update("INSERT INTO stats_counters (name, counter_value, updated_at) VALUES (?, ?, ?)", r[2], r[0], r[1]);
+            } catch (DuplicateKeyException e) {
+                jdbc.update(SET, r);
+            }
+        }
+    }
+
+    private Map<String, Long> load() {
+        Map<String, Long> values = new HashMap<>();
+        jdbc.query("SELECT name, counter_value FROM stats_counters", rs -> {
+            values.put(rs.getString(1), rs.getLong(2));
+        });
+        return values;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.webui.common.cache;
+
+import com.example.webui.common.entity.ModelConfig;
+import com.example.webui.common.entity.WorkflowConfig;
+import com.example.webui.common.repo.ConfigVersion;
+import com.example.webui.common.repo.ModelConfigRepository;
+import com.example.webui.common.repo.WorkflowConfigRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class ConfigCacheTest {
+
+    private static final Instant T0 = Instant.parse("2026-03-15T10:00:00Z");
+
+    @Mock private ModelConfigRepository modelConfigRepo;
+    @Mock private WorkflowConfigRepository workflowConfigRepo;
+    @Spy private ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    private ConfigCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        when(modelConfigRepo.findAll()).thenReturn(List.of(model("m1", "qwen")));
+        when(workflowConfigRepo.findAll()).thenReturn(List.of(workflow("w1")));
+        when(modelConfigRepo.version()).thenReturn(version(1, T0));
+        when(workflowConfigRepo.version()).thenReturn(version(1, T0));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testLoadsOnceAndServesSnapshot() {
+        assertEquals("qwen", cache.model("m1").getModelName());
+        assertNotNull(cache.workflow("w1"));
+        assertNull(cache.model("missing"));
+        assertNull(cache.model(null));
+
+        verify(modelConfigRepo, times(1)).findAll();
+    }
+
+    @Test
+    public void testInvalidateInTransactionWaitsForCommit() {
+        cache.model("m1");
+        when(modelConfigRepo.findAll()).thenReturn(List.of(model("m1", "qwen-v2")));
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate();
+        // 提交前仍使用旧快照，不会加载到未提交前的数据
+        assertEquals("qwen", cache.model("m1").getModelName());
+
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            s.afterCommit();
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+
+        assertEquals("qwen-v2", cache.model("m1").getModelName());
+        verify(modelConfigRepo, times(2)).findAll();
+    }
+
+    @Test
+    public void testRolledBackInvalidateKeepsSnapshot() {
+        cache.model("m1");
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate();
+        TransactionSynchronizationManager.clearSynchronization();
+
+        cache.model("m1");
+        verify(modelConfigRepo, times(1)).findAll();
+    }
+
+    @Test
+    public void testPollReloadsWhenCountOrUpdatedAtChanges() {
+        String etag = cache.modelList().etag();
+
+        cache.poll();
+        verify(modelConfigRepo, times(1)).findAll();
+
+        // 删除一行：行数变化
+        when(modelConfigRepo.version()).thenReturn(version(0, T0));
+        when(modelConfigRepo.findAll()).thenReturn(List.of());
+        cache.poll();
+        assertNull(cache.model("m1"));
+        assertNotEquals(etag, cache.modelList().etag());
+
+        // 修改一行：最大更新时间变化
+        when(workflowConfigRepo.version()).thenReturn(version(1, T0.plusSeconds(1)));
+        cache.poll();
+        verify(workflowConfigRepo, times(3)).findAll();
+    }
+
+    @Test
+    public void testPollKeepsSnapshotWhenVersionQueryFails() {
+        cache.model("m1");
+        when(modelConfigRepo.version()).thenThrow(new RuntimeException("db down"));
+
+        cache.poll();
+
+        assertEquals("qwen", cache.model("m1").getModelName());
+        verify(modelConfigRepo, times(1)).findAll();
+    }
+
+    @Test
+    public void testPollDoesNothingBeforeFirstLoad() {
+        cache.poll();
+        verify(modelConfigRepo, never()).version();
+    }
+
+    private static ModelConfig model(String id, String name) {
+        ModelConfig m = new ModelConfig();
+        m.setId(id);
+        m.setModelName(name);
+        m.setEnabled(true);
+        m.setUpdatedAt(T0);
+        return m;
+    }
+
+    private static WorkflowConfig workflow(String id) {
+        WorkflowConfig w = new WorkflowConfig();
+        w.setId(id);
+        w.setName("工作流" + id);
+        w.setEnabled(true);
+        w.setUpdatedAt(T0);
+        return w;
+    }
+
+    private static ConfigVersion version(long count, Instant updatedAt) {
+        return new ConfigVersion() {
+            @Override
+            public long getCount() {
+                return count;
+            }
+
+            @Override
+            public Instant getUpdatedAt() {
+                return updatedAt;
+            }
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.webui.common.id;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Uuid7Test {
+
+    @Test
+    public void testVersionAndVariantBits() {
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = Uuid7.nextUuid();
+            assertEquals(7, uuid.version());
+            assertEquals(2, uuid.variant());
+        }
+    }
+
+    @Test
+    public void testTimestampIsCurrentMillis() {
+        long before = System.currentTimeMillis();
+        String id = Uuid7.next();
+        long after = System.currentTimeMillis();
+
+        long ts = Uuid7.timestamp(id);
+        // 序号用完或时钟回拨时会借用后面的毫秒（其他测试可能刚借用过），只允许超前几毫秒
+        assertTrue(ts >= before && ts <= after + 5, ts + " not in [" + before + ", " + after + " + 5]");
+        long millis = base();
+        assertEquals(millis, Uuid7.timestamp(Uuid7.nextUuid(millis).toString()));
+        assertEquals(-1, Uuid7.timestamp(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testStrictlyIncreasingBeyond4096PerMillisecond() {
+        // 同一毫秒内生成超过12位序号（4096）的ID，后面的借用下一个毫秒
+        long millis = base();
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) ids.add(Uuid7.nextUuid(millis));
+
+        assertIncreasing(ids);
+        assertEquals(millis, ids.get(0).getMostSignificantBits() >>> 16);
+        assertEquals(millis + 1, ids.get(4999).getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    public void testClockGoingBackwardsStaysIncreasing() {
+        long millis = base();
+        List<UUID> ids = new ArrayList<>();
+        ids.add(Uuid7.nextUuid(millis));
+        ids.add(Uuid7.nextUuid(millis - 5_000));
+        ids.add(Uuid7.nextUuid(millis - 1));
+        ids.add(Uuid7.nextUuid(millis + 1));
+
+        assertIncreasing(ids);
+        // 回拨期间沿用上一次的时间戳
+        assertEquals(millis, ids.get(2).getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    public void testStringOrderMatchesGenerationOrder() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) ids.add(Uuid7.next());
+
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        assertEquals(ids, sorted);
+        assertEquals(ids.size(), ids.stream().distinct().count());
+        assertTrue(ids.stream().allMatch(s -> s.length() == 36 && s.equals(s.toLowerCase())));
+    }
+
+    // 进程内状态是共享的，测试用的时间取紧接在已生成的ID之后，不把后续ID的时间戳推得太远
+    private static long base() {
+        return (Uuid7.nextUuid().getMostSignificantBits() >>> 16) + 1;
+    }
+
+    private static void assertIncreasing(List<UUID> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            UUID prev = ids.get(i - 1), cur = ids.get(i);
+            assertTrue(Long.compareUnsigned(prev.getMostSignificantBits(), cur.getMostSignificantBits()) < 0, "at " + i);
+            assertTrue(prev.toString().compareTo(cur.toString()) < 0, "at " + i);
+        }
+    }
+}
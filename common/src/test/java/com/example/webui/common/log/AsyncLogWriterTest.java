@@ -0,0 +1,130 @@
+package com.example.webui.common.log;
+
+import com.example.webui.common.entity.AuditLog;
+import com.example.webui.common.entity.UserActionLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncLogWriterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<Integer> batches = new ArrayList<>();
+
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    public void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:logwriter;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        // 记录每次批量插入的行数
+        jdbc = new JdbcTemplate(ds) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                batches.add(batchArgs.size());
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+        jdbc.execute("CREATE TABLE audit_logs (id VARCHAR(36) PRIMARY KEY, user_id VARCHAR(36), ip VARCHAR(64), " +
+                "action VARCHAR(64), details VARCHAR(255), created_at TIMESTAMP)");
+        jdbc.execute("CREATE TABLE user_action_logs (id VARCHAR(36) PRIMARY KEY, user_id VARCHAR(36), action VARCHAR(32), " +
+                "message_id VARCHAR(36), conversation_id VARCHAR(36), details VARCHAR(255), ip_address VARCHAR(64), " +
+                "user_agent VARCHAR(255), created_at TIMESTAMP)");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void testWritesInBatches() {
+        AsyncLogWriter writer = new AsyncLogWriter(jdbc, registry, 100, 2, 1000);
+        for (int i = 0; i < 5; i++) writer.submit(audit("login"));
+        writer.submit(action("like"));
+
+        writer.flushAll();
+
+        // 每批最多2条，同一批中的审计日志和操作日志分别批量插入
+        assertEquals(List.of(2, 2, 1, 1), batches);
+        assertEquals(5, count("audit_logs"));
+        assertEquals(1, count("user_action_logs"));
+        assertEquals(5, registry.get("log.writer.written").tag("type", "audit").counter().count());
+    }
+
+    @Test
+    public void testFallsBackToRowByRowOnBatchFailure() {
+        AsyncLogWriter writer = new AsyncLogWriter(jdbc, registry, 100, 10, 1000);
+        writer.submit(audit("login"));
+        // 超长字段导致整批失败，逐条写入后只丢弃这一条
+        AuditLog invalid = audit("login");
+        invalid.setDetails("x".repeat(300));
+        writer.submit(invalid);
+        writer.submit(audit("logout"));
+
+        writer.flushAll();
+
+        assertEquals(2, count("audit_logs"));
+        assertEquals(2, registry.get("log.writer.written").tag("type", "audit").counter().count());
+        assertEquals(1, registry.get("log.writer.dropped").tags("type", "audit", "reason", "write_failed").counter().count());
+    }
+
+    @Test
+    public void testDropsWhenQueueIsFull() {
+        AsyncLogWriter writer = new AsyncLogWriter(jdbc, registry, 2, 10, 1000);
+
+        assertTrue(writer.submit(audit("a")));
+        assertTrue(writer.submit(audit("b")));
+        assertFalse(writer.submit(audit("c")));
+
+        assertEquals(1, registry.get("log.writer.dropped").tags("type", "audit", "reason", "queue_full").counter().count());
+    }
+
+    @Test
+    public void testStopDrainsQueueAndWritesLateSubmissions() {
+        // 刷新间隔很长，停止时队列中的日志还没被后台线程写入
+        AsyncLogWriter writer = new AsyncLogWriter(jdbc, registry, 100, 100, 60_000);
+        writer.start();
+        for (int i = 0; i < 10; i++) writer.submit(audit("login"));
+
+        writer.stop();
+        assertFalse(writer.isRunning());
+        assertEquals(10, count("audit_logs"));
+
+        // 停止后仍在处理的请求提交的日志直接写入
+        assertTrue(writer.submit(action("like")));
+        assertEquals(1, count("user_action_logs"));
+    }
+
+    @Test
+    public void testStopsAfterWebServer() {
+        AsyncLogWriter writer = new AsyncLogWriter(jdbc, registry, 100, 10, 1000);
+        // 阶段越小越晚停止，Web服务器的优雅关闭和停止分别在DEFAULT_PHASE - 1024、- 2048
+        assertTrue(writer.getPhase() < SmartLifecycle.DEFAULT_PHASE - 2048);
+    }
+
+    private int count(String table) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    private static AuditLog audit(String action) {
+        AuditLog log = new AuditLog();
+        log.setIp("127.0.0.1");
+        log.setAction(action);
+        return log;
+    }
+
+    private static UserActionLog action(String action) {
+        UserActionLog log = new UserActionLog();
+        log.setAction(action);
+        return log;
+    }
+}
@@ -2,6 +2,7 @@ package com.example.webui.userapi.config;
 
 import com.example.webui.common.entity.User;
 import com.example.webui.common.repo.UserRepository;
+import com.example.webui.common.stats.StatsCounters;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
@@ -11,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class BootstrapAdmin implements ApplicationRunner {
     @Autowired private UserRepository userRepo;
+    @Autowired private StatsCounters stats;
 
     @Override
     @Transactional
@@ -26,6 +28,7 @@ public class BootstrapAdmin implements ApplicationRunner {
             admin.setIdCard("110101199001010000");
             admin.setRole("ADMIN");
             userRepo.save(admin);
+            stats.inserted(StatsCounters.USERS, admin.getStatus());
         } else {
             if (!"ADMIN".equals(admin.getRole())) {
                 admin.setRole("ADMIN");
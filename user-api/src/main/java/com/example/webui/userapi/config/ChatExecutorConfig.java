@@ -0,0 +1,69 @@
+package com.example.webui.userapi.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * 聊天请求的执行器配置。
+ * spring.threads.virtual.enabled=true 且运行在Java 21+时，Tomcat请求线程（由Spring Boot负责）
+ * 和聊天执行器都使用虚拟线程；否则使用有界的平台线程池，线程数先增长到max-size再排队，队列满时拒绝新的聊天请求。
+ * 提交的任务带上提交线程的MDC（requestId、userId）。
+ */
+@Configuration
+public class ChatExecutorConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatExecutorConfig.class);
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${chat.executor.max-size:200}")
+    private int maxSize;
+
+    @Value("${chat.executor.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Bean(name = "chatExecutor")
+    public AsyncTaskExecutor chatExecutor() {
+        if (virtualThreads && !virtualThreadsSupported()) {
+            log.warn("当前运行时为Java {}，不支持虚拟线程，聊天执行器回退为平台线程池", Runtime.version().feature());
+        }
+        AsyncTaskExecutor executor = create(virtualThreads && virtualThreadsSupported(), maxSize, queueCapacity);
+        log.info("聊天执行器: {}", executor instanceof SimpleAsyncTaskExecutor ? "虚拟线程" : "平台线程池 max=" + maxSize + ", queue=" + queueCapacity);
+        return executor;
+    }
+
+    /**
+     * 创建聊天执行器，压测代码复用同一套参数
+     */
+    public static AsyncTaskExecutor create(boolean virtual, int maxSize, int queueCapacity) {
+        if (virtual) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("chat-vt-");
+            executor.setVirtualThreads(true);
+            executor.setTaskDecorator(RequestIdFilter::withMdc);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("chat-");
+        // ThreadPoolExecutor在队列满之前不会创建超过核心数的线程，核心数取max-size才能真正扩容，
+        // 空闲线程超时回收
+        executor.setCorePoolSize(maxSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setTaskDecorator(RequestIdFilter::withMdc);
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    public static boolean virtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+}
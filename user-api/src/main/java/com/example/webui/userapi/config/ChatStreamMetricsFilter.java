@@ -0,0 +1,166 @@
+package com.example.webui.userapi.config;
+
+import com.example.webui.userapi.service.ChatMetrics;
+import io.micrometer.core.instrument.Counter;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * /chat/stream 和 /chat/stream/{messageId} 的SSE连接指标：打开的连接数、写出的字节数、连接结束原因。
+ * http.server.requests对持续几十分钟的SSE请求没有意义，连接层面的数据在这里按endpoint单独记录。
+ */
+@Component
+public class ChatStreamMetricsFilter extends OncePerRequestFilter {
+
+    @Autowired private ChatMetrics chatMetrics;
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !request.getServletPath().startsWith(ChatMetrics.STREAM);
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
+        String endpoint = ChatMetrics.STREAM.equals(request.getServletPath()) ? ChatMetrics.STREAM : ChatMetrics.RESUME;
+        CountingResponse counting = new CountingResponse(response, endpoint);
+        chatMetrics.streamOpened(endpoint);
+        AtomicBoolean closed = new AtomicBoolean();
+        try {
+            filterChain.doFilter(request, counting);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // SseEmitter的响应在异步请求结束时才关闭
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        close("complete");
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        close("timeout");
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        close("error");
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+
+                    private void close(String reason) {
+                        if (closed.compareAndSet(false, true)) chatMetrics.streamClosed(endpoint, reason);
+                    }
+                });
+            } else if (closed.compareAndSet(false, true)) {
+                // 认证失败等同步结束的请求
+                chatMetrics.streamClosed(endpoint, "complete");
+            }
+        }
+    }
+
+    // 字节数计数器按连接取一次，每次写出直接累加
+    private class CountingResponse extends HttpServletResponseWrapper {
+        private final Counter bytes;
+        private ServletOutputStream out;
+        private PrintWriter writer;
+
+        CountingResponse(HttpServletResponse response, String endpoint) {
+            super(response);
+            this.bytes = chatMetrics.bytesCounter(endpoint);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                ServletOutputStream delegate = super.getOutputStream();
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        bytes.increment();
+                    }
+
+                    @Override
+                    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        bytes.increment(len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        delegate.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return out;
+        }
+
+        // 错误响应等通过Writer输出的内容，按响应编码折算字节数
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                PrintWriter delegate = super.getWriter();
+                Charset charset = Charset.forName(getCharacterEncoding());
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(@NonNull char[] cbuf, int off, int len) {
+                        delegate.write(cbuf, off, len);
+                        bytes.increment(new String(cbuf, off, len).getBytes(charset).length);
+                    }
+
+                    @Override
+                    public void write(@NonNull String str, int off, int len) {
+                        delegate.write(str, off, len);
+                        bytes.increment(str.substring(off, off + len).getBytes(charset).length);
+                    }
+
+                    @Override
+                    public void flush() {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        delegate.close();
+                    }
+                });
+            }
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.webui.userapi.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 注入当前登录用户（com.example.webui.common.entity.User），未登录或用户不存在时为null。
+ * 同一请求内只查询一次数据库。
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
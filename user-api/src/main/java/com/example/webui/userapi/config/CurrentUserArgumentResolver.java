@@ -0,0 +1,59 @@
+package com.example.webui.userapi.config;
+
+import com.example.webui.common.entity.User;
+import com.example.webui.common.repo.UserRepository;
+import org.springframework.core.MethodParameter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 解析@CurrentUser参数：按JwtFilter放入的userId做一次主键查询，结果缓存在请求属性中
+ */
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    static final String ATTRIBUTE = CurrentUserArgumentResolver.class.getName() + ".user";
+
+    private final UserRepository userRepo;
+
+    public CurrentUserArgumentResolver(UserRepository userRepo) {
+        this.userRepo = userRepo;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class) && User.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Object cached = webRequest.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cached instanceof User) return cached;
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !auth.isAuthenticated() || !(auth.getDetails() instanceof Map<?, ?> details)) return null;
+        String userId = Objects.toString(details.get("userId"), null);
+        String username = Objects.toString(details.get("username"), null);
+
+        User user = null;
+        if (userId != null && !userId.isEmpty()) {
+            user = userRepo.findById(userId).orElse(null);
+        }
+        if (user == null && username != null && !username.isEmpty()) {
+            // 兼容userId与库中不一致的旧token
+            user = userRepo.findByUsername(username).orElse(null);
+        }
+        if (user != null) {
+            webRequest.setAttribute(ATTRIBUTE, user, RequestAttributes.SCOPE_REQUEST);
+        }
+        return user;
+    }
+}
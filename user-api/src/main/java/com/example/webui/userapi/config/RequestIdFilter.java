@@ -0,0 +1,83 @@
+package com.example.webui.userapi.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 每个请求的关联ID：取请求头X-Request-Id（没有或格式不对时生成），放入MDC（requestId）并写回响应头，
+ * 日志格式中通过%X{requestId}输出；userId由JwtFilter认证后放入MDC。
+ * 聊天执行器和上游回调线程上的日志通过withMdc带上发起请求时的MDC。
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestIdFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Request-Id";
+    public static final String REQUEST_ID = "requestId";
+    public static final String USER_ID = "userId";
+
+    private static final Pattern VALID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
+        String requestId = request.getHeader(HEADER);
+        if (requestId == null || !VALID.matcher(requestId).matches()) {
+            requestId = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+        }
+        MDC.put(REQUEST_ID, requestId);
+        response.setHeader(HEADER, requestId);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    /**
+     * 在其他线程执行时恢复当前线程的MDC，执行完后还原
+     */
+    public static Runnable withMdc(Runnable task) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return () -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            setContext(context);
+            try {
+                task.run();
+            } finally {
+                setContext(previous);
+            }
+        };
+    }
+
+    public static <T> Consumer<T> withMdc(Consumer<T> action) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return value -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            setContext(context);
+            try {
+                action.accept(value);
+            } finally {
+                setContext(previous);
+            }
+        };
+    }
+
+    private static void setContext(Map<String, String> context) {
+        if (context == null) MDC.clear();
+        else MDC.setContextMap(context);
+    }
+}
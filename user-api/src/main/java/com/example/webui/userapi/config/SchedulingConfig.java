@@ -0,0 +1,10 @@
+package com.example.webui.userapi.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+    // 启用定时任务（流式消息检查点、遗留消息回收等）
+}
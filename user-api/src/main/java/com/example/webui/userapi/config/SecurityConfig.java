@@ -1,13 +1,12 @@
 package com.example.webui.userapi.config;
 
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
+import com.example.webui.common.security.JwtVerifier;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -15,7 +14,6 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.SecurityFilterChain;
@@ -24,9 +22,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.lang.NonNull;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.Key;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,112 +33,77 @@ public class SecurityConfig {
     @Value("${jwt.secret}")
     private String jwtSecret;
 
+    @Value("${jwt.cache.max-size:10000}")
+    private long jwtCacheMaxSize;
+
+    @Value("${jwt.cache.max-ttl-seconds:600}")
+    private long jwtCacheMaxTtlSeconds;
+
+    @Bean
+    public JwtVerifier jwtVerifier() {
+        return new JwtVerifier(jwtSecret, jwtCacheMaxSize, Duration.ofSeconds(jwtCacheMaxTtlSeconds));
+    }
+
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, JwtVerifier jwtVerifier) throws Exception {
         http.csrf(csrf -> csrf.disable())
             .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
-                .requestMatchers("/users/login", "/users/register", "/users/password-reset/**", 
-                            "/api/users/login", "/api/users/register", "/api/users/password-reset/**", 
+                .requestMatchers("/users/login", "/users/register", "/users/password-reset/**",
+                            "/api/users/login", "/api/users/register", "/api/users/password-reset/**",
                             "/user/auth/login", "/api/user/auth/login",
-                            "/users/bootstrap-admin", "/api/users/bootstrap-admin", 
+                            "/users/bootstrap-admin", "/api/users/bootstrap-admin",
                             "/health", "/api/health").permitAll()
                 .requestMatchers("/api/messages/**", "/api/conversations/**", "/api/feedbacks/**").authenticated()
                 .requestMatchers("/users/**", "/api/users/**").authenticated()
                 .anyRequest().permitAll())
-            .addFilterBefore(new JwtFilter(jwtSecret), AuthorizationFilter.class);
+            .addFilterBefore(new JwtFilter(jwtVerifier), AuthorizationFilter.class);
         return http.build();
     }
 
-    class JwtFilter extends OncePerRequestFilter {
-        private final Key key;
+    public static class JwtFilter extends OncePerRequestFilter {
+        private static final List<SimpleGrantedAuthority> USER_AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_USER"));
+        private static final List<SimpleGrantedAuthority> ADMIN_AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_USER"), new SimpleGrantedAuthority("ROLE_ADMIN"));
+
+        private final JwtVerifier verifier;
 
-        JwtFilter(String secret) {
-            this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
-            logger.info("JWT Filter initialized with secret: " + secret);
+        public JwtFilter(JwtVerifier verifier) {
+            this.verifier = verifier;
         }
 
         @Override
         protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
             String token = null;
             String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
-            
-            logger.info("Processing request: " + request.getMethod() + " " + request.getRequestURI());
-            
             if (authHeader != null && authHeader.startsWith("Bearer ")) {
                 token = authHeader.substring(7);
-                logger.info("Found Bearer token in Authorization header");
             } else if (request.getCookies() != null) {
                 for (Cookie c : request.getCookies()) {
                     if ("access_token".equals(c.getName())) {
                         token = c.getValue();
-                        logger.info("Found token in access_token cookie");
                         break;
                     }
                 }
             }
-            
-            if (token != null && !token.isBlank()) {
-                try {
-                    logger.info("Attempting to parse JWT token");
-                    Claims claims = Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
-                    String userId = claims.get("userId", String.class);
-                    String username = claims.get("username", String.class);
-                    String role = claims.get("role", String.class);
-                    
-                    logger.info("JWT parsed successfully. UserId: " + userId + ", Username: " + username + ", Role: " + role);
-                    
-                    if (userId != null && username != null) {
-                        // Create authorities list with ROLE_USER
-                        List<SimpleGrantedAuthority> authorities = new ArrayList<>();
-                        authorities.add(new SimpleGrantedAuthority("ROLE_USER"));
-                        
-                        // Add admin role if user is admin
-                        if ("ADMIN".equals(role)) {
-                            authorities.add(new SimpleGrantedAuthority("ROLE_ADMIN"));
-                        }
-                        
-                        // Create a Map with user details
-                        Map<String, Object> userDetails = new HashMap<>();
-                        userDetails.put("userId", userId);
-                        userDetails.put("username", username);
-                        userDetails.put("role", role);
-                        
-                        // Create authentication token with user and authorities
-                        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(username, null, authorities);
-                        auth.setDetails(userDetails);
-                        
-                        SecurityContextHolder.getContext().setAuthentication(auth);
-                        logger.info("Authentication set in SecurityContext with authorities: " + authorities);
-                        
-                        // Verify authentication was set correctly
-                        Authentication currentAuth = SecurityContextHolder.getContext().getAuthentication();
-                        logger.info("Current authentication after setting: " + (currentAuth != null ? currentAuth.getName() : "null"));
-                        
-                        // Verify details are set correctly
-                        if (currentAuth != null && currentAuth.getDetails() != null) {
-                            logger.info("Authentication details: " + currentAuth.getDetails());
-                        } else {
-                            logger.error("Authentication details are null!");
-                        }
-                    }
-                } catch (Exception e) {
-                    // Log the error for debugging
-                    logger.error("JWT parsing failed: " + e.getMessage(), e);
-                }
-            } else {
-                logger.warn("No token found in request");
+
+            // 校验结果按token缓存，同一token的后续请求不再做签名校验
+            JwtVerifier.Principal principal = verifier.verify(token);
+            if (principal != null) {
+                Map<String, Object> userDetails = new HashMap<>();
+                userDetails.put("userId", principal.userId());
+                userDetails.put("username", principal.username());
+                userDetails.put("role", principal.role());
+
+                UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(principal.username(), null,
+                        "ADMIN".equals(principal.role()) ? ADMIN_AUTHORITIES : USER_AUTHORITIES);
+                auth.setDetails(userDetails);
+                SecurityContextHolder.getContext().setAuthentication(auth);
+                MDC.put(RequestIdFilter.USER_ID, principal.userId());
+            } else if (token != null && !token.isBlank() && logger.isDebugEnabled()) {
+                logger.debug("JWT校验失败: " + request.getMethod() + " " + request.getRequestURI());
             }
-            
-            // Log authentication before passing to next filter
-            Authentication authBefore = SecurityContextHolder.getContext().getAuthentication();
-            logger.info("Authentication before filter chain: " + (authBefore != null ? authBefore.getName() : "null"));
-            
+
             filterChain.doFilter(request, response);
-            
-            // Log authentication after returning from filter chain
-            Authentication authAfter = SecurityContextHolder.getContext().getAuthentication();
-            logger.info("Authentication after filter chain: " + (authAfter != null ? authAfter.getName() : "null"));
         }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,21 @@
 package com.example.webui.userapi.config;
 
+import com.example.webui.common.repo.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
     // 这个配置类确保Spring MVC正常工作
-}
\ No newline at end of file
+
+    @Autowired private UserRepository userRepo;
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new CurrentUserArgumentResolver(userRepo));
+    }
+}
@@ -1,41 +1,83 @@
 package com.example.webui.userapi.controller;
 
+import com.example.webui.common.cache.ConfigCache;
+import com.example.webui.common.client.BishengClient;
+import com.example.webui.common.client.BishengClientFactory;
+import com.example.webui.common.client.BishengEvent;
+import com.example.webui.common.client.BishengEventParser;
+import com.example.webui.common.client.ModelHttpClients;
 import com.example.webui.common.entity.Conversation;
 import com.example.webui.common.entity.Message;
 import com.example.webui.common.entity.User;
 import com.example.webui.common.entity.ModelConfig;
 import com.example.webui.common.entity.WorkflowConfig;
+import com.example.webui.common.log.SampledLogger;
 import com.example.webui.common.repo.ConversationRepository;
 import com.example.webui.common.repo.MessageRepository;
-import com.example.webui.common.repo.ModelConfigRepository;
 import com.example.webui.common.repo.UserRepository;
-import com.example.webui.common.repo.WorkflowConfigRepository;
+import com.example.webui.common.stats.StatsCounters;
+import com.example.webui.userapi.config.RequestIdFilter;
+import com.example.webui.userapi.service.BishengSessionStore;
+import com.example.webui.userapi.service.ChatMetrics;
+import com.example.webui.userapi.service.ChatStreamSink;
+import com.example.webui.userapi.service.ConversationContextBuilder;
+import com.example.webui.userapi.service.GenerationRegistry;
+import com.example.webui.userapi.service.GenerationScheduler;
+import com.example.webui.userapi.service.StreamingMessageWriter;
+import com.example.webui.userapi.service.TokenEstimator;
+import com.example.webui.userapi.service.UpstreamLimiter;
+import com.example.webui.userapi.service.UsageMeter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @RestController
 @RequestMapping({"/chat"})
 @SuppressWarnings("null")
 public class ChatController {
 
+    private static final Logger log = LoggerFactory.getLogger(ChatController.class);
+    // 每个上游chunk/事件一条的DEBUG日志，每秒最多输出20条
+    private static final SampledLogger tokenLog = new SampledLogger(log, 20);
+
     @Autowired private ConversationRepository conversationRepo;
     @Autowired private MessageRepository messageRepo;
     @Autowired private UserRepository userRepo;
-    @Autowired private ModelConfigRepository modelConfigRepo;
-    @Autowired private WorkflowConfigRepository workflowConfigRepo;
+    @Autowired private ConfigCache configCache;
+    @Autowired private StreamingMessageWriter messageWriter;
+    @Autowired private BishengClientFactory bishengClients;
+    @Autowired private ModelHttpClients modelClients;
+    @Autowired private BishengEventParser bishengEventParser;
+    @Autowired private ObjectMapper objectMapper;
+    @Autowired private UpstreamLimiter upstreamLimiter;
+    @Autowired private GenerationRegistry generations;
+    @Autowired private GenerationScheduler scheduler;
+    @Autowired private ConversationContextBuilder contextBuilder;
+    @Autowired private UsageMeter usageMeter;
+    @Autowired private StatsCounters stats;
+    @Autowired private ChatMetrics chatMetrics;
+    // 平台线程模式下为有界线程池，虚拟线程模式下每个请求一个虚拟线程，见ChatExecutorConfig
+    @Autowired @Qualifier("chatExecutor") private AsyncTaskExecutor chatExecutor;
     
     @Value("${bisheng.api.url:http://localhost:8000}")
     private String bishengApiUrl;
@@ -46,10 +88,26 @@ public class ChatController {
     @Value("${bisheng.workflow.id:test-workflow}")
     private String bishengWorkflowId;
     
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // 未选择模型配置时使用的默认模型
+    @Value("${model.api.url:http://43.192.114.202:8000/v1/chat/completions}")
+    private String defaultModelUrl;
+    
+    @Value("${model.api.key:123}")
+    private String defaultModelKey;
+    
+    @Value("${model.api.name:Qwen3-4B-Instruct-2507-FP8}")
+    private String defaultModelName;
+    
+    // 工作流/模型SSE事件每次最多预取的条数：下游写得慢时停止从上游连接读取
+    private static final int UPSTREAM_STREAM_PREFETCH = 16;
+    
+    // 每个生成保留的最近事件数，断线重连时按Last-Event-ID补发
+    @Value("${chat.stream.replay-buffer-size:1024}")
+    private int replayBufferSize;
     
-    // 临时存储bisheng工作流的session信息（conversationId -> {sessionId, messageId, nodeId}）
-    private final java.util.concurrent.ConcurrentHashMap<String, java.util.Map<String, String>> bishengSessions = new java.util.concurrent.ConcurrentHashMap<>();
+    
+    // bisheng工作流的session信息（conversationId -> sessionId/messageId/nodeId），实现由bisheng.session-store.type选择
+    @Autowired private BishengSessionStore bishengSessions;
 
     @PostMapping
     @Transactional
@@ -59,6 +117,11 @@ public class ChatController {
         if (userId == null) return ResponseEntity.status(401).body(err("用户认证信息无效"));
         
         User user = userRepo.findById(userId).orElseThrow(() -> new RuntimeException("用户不存在"));
+        try {
+            usageMeter.checkQuota(user);
+        } catch (UsageMeter.QuotaExceededException e) {
+            return ResponseEntity.status(429).body(err(e.getMessage()));
+        }
         
         String conversationId = getString(body, "conversationId");
         String content = getString(body, "content");
@@ -70,17 +133,21 @@ public class ChatController {
         // 保存用户消息
         Message userMsg = createMessage(c, "user", content, "sent");
         messageRepo.save(userMsg);
+        conversationRepo.recordMessage(userMsg);
+        contextBuilder.append(userMsg);
 
-        // 获取AI回复
-        String aiContent = getAIResponse(content, modelId);
+        // 获取AI回复（同时设置token用量）
+        Message aiMsg = createMessage(c, "assistant", "", "sent");
+        aiMsg.setContent(getAIResponse(aiMsg, content, modelId));
         
         // 保存AI消息
-        Message aiMsg = createMessage(c, "assistant", aiContent, "sent");
         messageRepo.save(aiMsg);
+        stats.add(StatsCounters.MESSAGES, 2);
+        contextBuilder.append(aiMsg);
+        usageMeter.record(userId, aiMsg);
 
-        // 更新对话时间
-        c.setUpdatedAt(Instant.now());
-        conversationRepo.save(c);
+        // 更新最后消息摘要（同时更新对话时间）
+        conversationRepo.recordMessage(aiMsg);
 
         Map<String,Object> res = new HashMap<>();
         res.put("code", 201);
@@ -107,13 +174,23 @@ public class ChatController {
             sendError(emitter, "用户不存在");
             return emitter;
         }
+        // 额度检查只读内存中的用量，不查库
+        try {
+            usageMeter.checkQuota(user);
+        } catch (UsageMeter.QuotaExceededException e) {
+            sendError(emitter, e.getMessage());
+            return emitter;
+        }
         
         String conversationId = getString(body, "conversationId");
         String content = getString(body, "content");
         String modelId = getString(body, "modelId");
         String workflowId = getString(body, "workflowId");
+        // 新客户端传protocol=v2接收增量格式，不传的旧客户端继续接收完整快照（v1）
+        String protocol = getString(body, "protocol");
+        ChatStreamSink sink = ChatStreamSink.create(protocol, emitter, m -> mapMsg(m, userId), replayBufferSize);
         
-        executor.execute(() -> {
+        Runnable task = () -> {
             try {
                 Conversation c = getOrCreateConversation(user, conversationId, content);
                 if (c == null) {
@@ -124,108 +201,253 @@ public class ChatController {
                 // 保存用户消息
                 Message userMsg = createMessage(c, "user", content, "sent");
                 messageRepo.save(userMsg);
-                try {
-                     System.out.println("发送用户消息SSE: " + mapMsg(userMsg, userId));
-                     emitter.send(SseEmitter.event().name("message").data(mapMsg(userMsg, userId)));
-                 } catch (Exception e) {
-                     System.err.println("发送用户消息失败: " + e.getMessage());
-                     sendError(emitter, "发送消息失败：" + e.getMessage());
-                     return;
-                 }
+                conversationRepo.recordMessage(userMsg);
+                contextBuilder.append(userMsg);
                  
                  // 创建AI消息（初始为空）
                  Message aiMsg = createMessage(c, "assistant", "", "generating");
                  messageRepo.save(aiMsg);
-                 System.out.println("创建AI消息，ID: " + aiMsg.getId() + ", conversationId: " + c.getId());
+                 conversationRepo.recordMessage(aiMsg);
+                 stats.add(StatsCounters.MESSAGES, 2);
+                 log.debug("创建AI消息: messageId={}, conversationId={}", aiMsg.getId(), c.getId());
+                 // 生成过程中的内容先写入内存缓冲，按检查点落盘；连接断开或超时时保存已生成的部分
+                 StreamingMessageWriter.PendingMessage pending = messageWriter.open(aiMsg);
+                 try {
+                     // v1推送用户消息，v2推送start事件（用户消息和AI消息的ID）
+                     sink.start(userMsg, pending);
+                 } catch (Exception e) {
+                     log.warn("发送用户消息失败: {}", e.getMessage());
+                     pending.finish("interrupted");
+                     sendError(emitter, "发送消息失败：" + e.getMessage());
+                     return;
+                 }
+                 // 登记为进行中的生成：所有SSE连接都断开（断开、超时、出错）且宽限期内没有通过
+                 // GET /chat/stream/{messageId} 重新连接时取消，上游订阅和工作流随之停止，已生成的部分以interrupted落盘
+                 GenerationRegistry.Generation generation = generations.start(userId, pending);
+                 generation.setSink(sink);
+                 sink.onAbandoned(() -> generations.abandon(generation));
+                 // 用户通过 /conversations/{id}/stop 停止：取消时已推送最终内容并结束SSE，这里只更新对话时间
+                 generation.onStopped(() -> completeStream(sink, pending, c));
+                 Runnable onDone = () -> {
+                     generations.finish(generation);
+                     completeStream(sink, pending, c);
+                 };
                  
                 // 判断是工作流还是大模型
                 // 优先检查workflowId，如果提供了workflowId，使用工作流
                 // 如果提供了modelId且不是工作流ID，使用大模型
                 // 否则使用默认工作流
                 boolean isWorkflow = false;
+                Integer maxConcurrency = null;
                 String actualWorkflowId = bishengWorkflowId;
                 String actualBishengApiUrl = bishengApiUrl;
                 String actualBishengApiKey = bishengApiKey;
                 
-                System.out.println("判断模型类型 - workflowId: " + workflowId + ", modelId: " + modelId);
+                log.debug("判断模型类型: workflowId={}, modelId={}", workflowId, modelId);
                 
                 if (workflowId != null && !workflowId.isBlank()) {
                     // 前端明确指定了工作流ID
                     isWorkflow = true;
-                    System.out.println("检测到workflowId，使用工作流模式");
                     // 从数据库获取工作流配置
-                    WorkflowConfig workflowConfig = workflowConfigRepo.findById(workflowId).orElse(null);
+                    WorkflowConfig workflowConfig = configCache.workflow(workflowId);
                     if (workflowConfig != null && workflowConfig.isEnabled()) {
                         actualWorkflowId = workflowConfig.getWorkflowId();
                         actualBishengApiUrl = workflowConfig.getEndpoint() != null ? workflowConfig.getEndpoint() : bishengApiUrl;
                         actualBishengApiKey = workflowConfig.getApiKey() != null ? workflowConfig.getApiKey() : bishengApiKey;
-                        System.out.println("找到工作流配置: " + workflowConfig.getName() + ", workflowId: " + actualWorkflowId);
+                        maxConcurrency = workflowConfig.getMaxConcurrency();
                     } else {
-                        System.out.println("警告: 工作流配置不存在或未启用: " + workflowId);
+                        log.warn("工作流配置不存在或未启用: {}", workflowId);
                     }
                 } else if (modelId != null && !modelId.isBlank()) {
                     // 检查modelId是否是工作流ID
-                    WorkflowConfig workflowConfig = workflowConfigRepo.findById(modelId).orElse(null);
+                    WorkflowConfig workflowConfig = configCache.workflow(modelId);
                     if (workflowConfig != null && workflowConfig.isEnabled()) {
                         // modelId实际上是工作流ID
                         isWorkflow = true;
-                        System.out.println("modelId是工作流ID，使用工作流模式");
                         actualWorkflowId = workflowConfig.getWorkflowId();
                         actualBishengApiUrl = workflowConfig.getEndpoint() != null ? workflowConfig.getEndpoint() : bishengApiUrl;
                         actualBishengApiKey = workflowConfig.getApiKey() != null ? workflowConfig.getApiKey() : bishengApiKey;
+                        maxConcurrency = workflowConfig.getMaxConcurrency();
                     } else {
                         // 是真正的模型ID
                         isWorkflow = false;
-                        System.out.println("modelId是真正的模型ID，使用大模型模式");
                     }
                 } else {
                     // 没有提供modelId或workflowId，使用默认工作流
                     isWorkflow = true;
-                    System.out.println("未提供modelId或workflowId，使用默认工作流");
                 }
                 
                 // 根据判断结果选择输出方式
+                String upstreamUrl;
+                java.util.function.Function<GenerationScheduler.Ticket, Disposable> work;
                 if (isWorkflow) {
-                    // 工作流：流式输出
-                    System.out.println("调用工作流流式输出，workflowId: " + actualWorkflowId + ", apiUrl: " + actualBishengApiUrl);
-                    handleWorkflowStream(emitter, aiMsg, userId, content, actualWorkflowId, actualBishengApiUrl, actualBishengApiKey);
+                    // 工作流：流式输出，订阅后立即返回，事件到达时才占用线程处理
+                    log.info("调用工作流流式输出: messageId={}, workflowId={}, apiUrl={}", aiMsg.getId(), actualWorkflowId, actualBishengApiUrl);
+                    String wfId = actualWorkflowId, wfUrl = actualBishengApiUrl, wfKey = actualBishengApiKey;
+                    upstreamUrl = wfUrl;
+                    // 工作流的会话历史由Bisheng维护，提示词用量只估算本轮输入
+                    pending.model(wfId, TokenEstimator.estimateMessage(content));
+                    work = ticket -> handleWorkflowStream(sink, generation, content, wfId, wfUrl, wfKey, ticket, onDone);
                 } else {
-                     // 大模型：一次性输出
-                    System.out.println("调用大模型非流式输出，modelId: " + modelId);
-                     handleModelNonStream(emitter, aiMsg, userId, content, modelId);
-                 }
-                 
-                 // 更新对话时间
-                 c.setUpdatedAt(Instant.now());
-                 conversationRepo.save(c);
-                 
-                 try {
-                     emitter.complete();
-                 } catch (Exception e) {
-                     // 忽略完成异常
-                 }
+                    // 大模型：OpenAI协议的模型（包括默认模型）逐token流式输出，其他协议一次性输出
+                    ModelConfig modelConfig = modelId != null && !modelId.isBlank()
+                            ? Optional.ofNullable(configCache.model(modelId)).filter(ModelConfig::isEnabled).orElse(null)
+                            : null;
+                    upstreamUrl = modelConfig != null ? modelConfig.getEndpoint() : defaultModelUrl;
+                    maxConcurrency = modelConfig != null ? modelConfig.getMaxConcurrency() : null;
+                    // 历史消息按模型的上下文窗口截取，本轮用户消息已在窗口中
+                    List<Map<String, String>> messages = contextBuilder.messages(c.getId(), modelConfig);
+                    pending.model(modelConfig != null ? modelConfig.getId() : ModelHttpClients.DEFAULT_KEY, TokenEstimator.estimateMessages(messages));
+                    if (modelConfig == null || "openai".equalsIgnoreCase(modelConfig.getProtocol())) {
+                        log.info("调用大模型流式输出: messageId={}, modelId={}", aiMsg.getId(), modelId);
+                        work = ticket -> handleModelStream(sink, pending, messages, modelConfig, ticket, onDone);
+                    } else {
+                        log.info("调用大模型非流式输出: messageId={}, modelId={}, protocol={}", aiMsg.getId(), modelId, modelConfig.getProtocol());
+                        work = ticket -> {
+                            handleModelNonStream(sink, pending, content, messages, modelId);
+                            onDone.run();
+                            return null;
+                        };
+                    }
+                }
+                
+                // 按上游地址准入：名额已满时排队并推送排队位置，轮到时才调用上游（排队期间取消生成会移出队列）
+                // 出队后在其他线程调用上游，带上本请求的MDC
+                java.util.function.Consumer<UpstreamLimiter.BusyException> busy = RequestIdFilter.withMdc((UpstreamLimiter.BusyException e) -> {
+                    pending.replace(e.getMessage());
+                    pending.finish("error");
+                    sink.done(pending);
+                    onDone.run();
+                });
+                try {
+                    generation.attach(scheduler.submit(upstreamUrl, maxConcurrency, userId, RequestIdFilter.withMdc((GenerationScheduler.Ticket ticket) -> {
+                        Disposable upstream = work.apply(ticket);
+                        if (upstream == null) {
+                            ticket.release();
+                        } else {
+                            generation.attach(upstream);
+                        }
+                    }), new GenerationScheduler.QueueListener() {
+                        @Override
+                        public void queued(int position, long etaMs) {
+                            sink.queued(position, etaMs);
+                        }
+
+                        @Override
+                        public void rejected(UpstreamLimiter.BusyException e) {
+                            busy.accept(e);
+                        }
+                    }));
+                } catch (UpstreamLimiter.BusyException e) {
+                    busy.accept(e);
+                }
              } catch (Exception e) {
                  sendError(emitter, "生成失败：" + e.getMessage());
              }
-        });
+        };
+        try {
+            chatExecutor.execute(task);
+        } catch (TaskRejectedException e) {
+            // 聊天线程池和队列都已占满
+            sendError(emitter, "服务繁忙，请稍后再试");
+        }
         
         return emitter;
     }
 
+    // 处理大模型流式输出（OpenAI协议 stream=true）：每个delta追加到消息并推送给前端，最后一个chunk带usage
+    private Disposable handleModelStream(ChatStreamSink sink, StreamingMessageWriter.PendingMessage pending, List<Map<String, String>> messages, ModelConfig modelConfig, GenerationScheduler.Ticket ticket, Runnable onDone) {
+        try {
+            String modelApiUrl = modelConfig != null ? modelConfig.getEndpoint() : defaultModelUrl;
+            String modelApiKey = modelConfig != null ? modelConfig.getApiKey() : defaultModelKey;
+            String modelName = modelConfig != null ? modelConfig.getModelName() : defaultModelName;
+            String modelKey = modelConfig != null ? modelConfig.getId() : ModelHttpClients.DEFAULT_KEY;
+            
+            Map<String, Object> request = new HashMap<>();
+            request.put("model", modelName);
+            request.put("stream", true);
+            request.put("stream_options", Map.of("include_usage", true));
+            
+            request.put("messages", messages);
+            request.put("temperature", 0.7);
+            request.put("max_tokens", ConversationContextBuilder.REPLY_TOKENS);
+            
+            Flux<String> chunks = modelClients.streamJson(modelKey, modelApiUrl, modelApiKey, request)
+                    .takeWhile(data -> !"[DONE]".equals(data.trim()));
+            // 上游首个事件和整个流的耗时，按模型统计
+            return chatMetrics.upstream(chunks, ChatMetrics.STREAM, modelKey)
+                    .doFinally(signal -> ticket.release())
+                    .publishOn(Schedulers.boundedElastic(), UPSTREAM_STREAM_PREFETCH)
+                    // 结束回调在boundedElastic线程执行，带上请求的MDC；每个chunk的日志直接带messageId
+                    .subscribe(
+                            data -> handleModelChunk(sink, pending, data),
+                            RequestIdFilter.withMdc((Throwable e) -> {
+                                failModelStream(sink, pending, e);
+                                onDone.run();
+                            }),
+                            RequestIdFilter.withMdc(() -> {
+                                pending.finish("sent");
+                                sink.done(pending);
+                                onDone.run();
+                            }));
+        } catch (Exception e) {
+            failModelStream(sink, pending, e);
+            onDone.run();
+            return null;
+        }
+    }
+    
+    // 解析一个OpenAI流式chunk：{"choices":[{"delta":{"content":"..."}}],"usage":{...}}
+    private void handleModelChunk(ChatStreamSink sink, StreamingMessageWriter.PendingMessage pending, String data) {
+        try {
+            com.fasterxml.jackson.databind.JsonNode chunk = objectMapper.readTree(data);
+            com.fasterxml.jackson.databind.JsonNode usage = chunk.path("usage");
+            if (usage.isObject()) {
+                pending.usage(usage.path("prompt_tokens").asInt(), usage.path("completion_tokens").asInt(), usage.path("total_tokens").asInt());
+            }
+            com.fasterxml.jackson.databind.JsonNode choices = chunk.path("choices");
+            if (!choices.isArray() || choices.size() == 0) {
+                return; // usage chunk的choices为空
+            }
+            String delta = choices.get(0).path("delta").path("content").asText("");
+            tokenLog.debug("模型chunk: messageId={}, length={}", pending.getMessage().getId(), delta.length());
+            if (!delta.isEmpty()) {
+                pending.append(delta);
+                sink.update(pending);
+            }
+        } catch (Exception e) {
+            log.warn("处理模型流式数据失败: messageId={}, {}", pending.getMessage().getId(), e.getMessage());
+        }
+    }
+    
+    private void failModelStream(ChatStreamSink sink, StreamingMessageWriter.PendingMessage pending, Throwable e) {
+        log.warn("大模型流式请求异常: messageId={}, {}", pending.getMessage().getId(), e.getMessage());
+        // 已经输出的部分内容保留，只有没有任何输出时才写入错误提示
+        if (e instanceof UpstreamLimiter.BusyException) {
+            pending.replace(e.getMessage());
+        } else if (pending.length() == 0) {
+            pending.replace("生成失败：" + e.getMessage());
+        }
+        pending.finish("error");
+        sink.done(pending);
+    }
+
     // 处理大模型非流式输出
-    private void handleModelNonStream(SseEmitter emitter, Message aiMsg, String userId, String content, String modelId) {
+    private void handleModelNonStream(ChatStreamSink sink, StreamingMessageWriter.PendingMessage pending, String content, List<Map<String, String>> messages, String modelId) {
         try {
             // 获取模型配置
-            String modelApiUrl = "http://43.192.114.202:8000/v1/chat/completions";
-            String modelApiKey = "123";
-            String modelName = "Qwen3-4B-Instruct-2507-FP8";
+            String modelApiUrl = defaultModelUrl;
+            String modelApiKey = defaultModelKey;
+            String modelName = defaultModelName;
+            String modelKey = ModelHttpClients.DEFAULT_KEY;
             
             if (modelId != null && !modelId.isBlank()) {
-                ModelConfig modelConfig = modelConfigRepo.findById(modelId).orElse(null);
+                ModelConfig modelConfig = configCache.model(modelId);
                 if (modelConfig != null && modelConfig.isEnabled()) {
                     modelApiUrl = modelConfig.getEndpoint();
                     modelApiKey = modelConfig.getApiKey();
                     modelName = modelConfig.getModelName();
+                    modelKey = modelConfig.getId();
                 }
             }
             
@@ -234,45 +456,91 @@ public class ChatController {
             request.put("model", modelName);
             request.put("stream", false);
             
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "system", "content", "你是一个有帮助的AI助手。"));
-            messages.add(Map.of("role", "user", "content", content));
             request.put("messages", messages);
             request.put("temperature", 0.7);
-            request.put("max_tokens", 1024);
+            request.put("max_tokens", ConversationContextBuilder.REPLY_TOKENS);
             
-            // 发送请求
-            String response = sendHttpRequest(modelApiUrl, "POST", request, Map.of("Authorization", "Bearer " + modelApiKey));
+            // 发送请求（并发已由GenerationScheduler按上游地址控制）
+            String response = modelClients.postJson(modelKey, modelApiUrl, modelApiKey, request);
             
-            // 解析响应
-            String aiContent = parseModelResponse(response);
+            // 解析响应，有usage时记录模型返回的用量（否则finish时按估算值记录）
+            com.fasterxml.jackson.databind.JsonNode responseNode = objectMapper.readTree(response);
+            String aiContent = responseNode.path("choices").get(0).path("message").path("content").asText();
+            com.fasterxml.jackson.databind.JsonNode usage = responseNode.path("usage");
+            if (usage.isObject()) {
+                pending.usage(usage.path("prompt_tokens").asInt(), usage.path("completion_tokens").asInt(), usage.path("total_tokens").asInt());
+            }
             
             // 更新消息并发送
-             aiMsg.setContent(aiContent);
-             aiMsg.setStatus("sent");
-             messageRepo.save(aiMsg);
-             try {
-                 emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-             } catch (Exception ex) {
-                 // 忽略发送异常
-             }
+             pending.replace(aiContent);
+             pending.finish("sent");
+             sink.done(pending);
              
          } catch (Exception e) {
-             // 失败时使用默认回复
+             // 失败时使用默认回复，不计用量
+             pending.model(null, 0);
              String defaultContent = "这是AI对\"" + content + "\"的回复。";
-             aiMsg.setContent(defaultContent);
-             aiMsg.setStatus("sent");
-             messageRepo.save(aiMsg);
-             try {
-                 emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-             } catch (Exception ex) {
-                 // 忽略发送异常
-             }
+             pending.replace(defaultContent);
+             pending.finish("sent");
+             sink.done(pending);
          }
     }
 
-    // 处理工作流流式输出
-    private void handleWorkflowStream(SseEmitter emitter, Message aiMsg, String userId, String content, String workflowId, String apiUrl, String apiKey) {
+    // 更新对话时间并结束所有订阅端的SSE响应
+    private void completeStream(ChatStreamSink sink, StreamingMessageWriter.PendingMessage pending, Conversation c) {
+        // 生成结束（含停止后保留的部分内容），加入对话的上下文窗口
+        contextBuilder.append(pending.view());
+        try {
+            // 只更新时间列：c是生成开始前加载的实体，save会用旧的最后消息摘要覆盖
+            conversationRepo.touch(c.getId(), Instant.now());
+        } catch (Exception e) {
+            log.warn("更新对话时间失败: {}", e.getMessage());
+        }
+        sink.complete();
+    }
+    
+    /**
+     * 断线重连：按Last-Event-ID补发缺失的事件并继续接收后续事件。
+     * 生成已不在内存中（结束超过保留期或在其他实例上）时按数据库中的消息推送一个done事件。
+     */
+    @GetMapping(value = "/stream/{messageId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("isAuthenticated()")
+    public SseEmitter resumeStream(Authentication auth, @PathVariable String messageId,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                   @RequestParam(value = "lastEventId", required = false) String lastEventIdParam) {
+        SseEmitter emitter = new SseEmitter(30 * 60 * 1000L);
+        String userId = getUserId(auth);
+        if (userId == null) {
+            sendError(emitter, "用户认证信息无效");
+            return emitter;
+        }
+        long lastEventId;
+        try {
+            String value = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+            lastEventId = value != null && !value.isBlank() ? Long.parseLong(value.trim()) : 0;
+        } catch (NumberFormatException e) {
+            sendError(emitter, "Last-Event-ID无效");
+            return emitter;
+        }
+        
+        GenerationRegistry.Generation generation = generations.lookup(messageId);
+        if (generation != null && userId.equals(generation.getUserId()) && generation.getSink() != null) {
+            generation.getSink().attach(emitter, lastEventId);
+            return emitter;
+        }
+        Message message = messageRepo.findByIdAndConversation_User_Id(messageId, userId).orElse(null);
+        if (message == null) {
+            sendError(emitter, "消息不存在");
+            return emitter;
+        }
+        ChatStreamSink.sendStored(emitter, message);
+        return emitter;
+    }
+    
+    // 处理工作流流式输出：基于BishengClient(WebClient)非阻塞读取上游SSE，上游结束或出错时调用onDone
+    private Disposable handleWorkflowStream(ChatStreamSink sink, GenerationRegistry.Generation generation, String content, String workflowId, String apiUrl, String apiKey, GenerationScheduler.Ticket ticket, Runnable onDone) {
+        StreamingMessageWriter.PendingMessage pending = generation.getPending();
+        Message aiMsg = pending.getMessage();
         try {
             // 构建工作流请求URL
             String workflowUrl;
@@ -282,8 +550,12 @@ public class ChatController {
                 workflowUrl = apiUrl + "/api/v2/workflow/invoke";
             }
             
+            // v2接口的停止地址，v1接口没有对应的停止接口
+            String stopUrl = workflowUrl.contains("/workflow/invoke") ? workflowUrl.replace("/workflow/invoke", "/workflow/stop") : null;
+            BishengClient bishengClient = bishengClients.get(apiUrl, apiKey);
+            
             String conversationId = aiMsg.getConversation().getId();
-            java.util.Map<String, String> sessionInfo = bishengSessions.get(conversationId);
+            BishengSessionStore.Session sessionInfo = bishengSessions.get(conversationId);
             
             // bisheng工作流请求格式：
             // 第一次调用：{"workflow_id":"...","stream":true} - 不传user_input，工作流会返回guide_word和input事件
@@ -292,11 +564,11 @@ public class ChatController {
             request.put("workflow_id", workflowId);
             request.put("stream", true);
             
-            if (sessionInfo != null && sessionInfo.containsKey("sessionId") && sessionInfo.containsKey("messageId") && sessionInfo.containsKey("nodeId")) {
+            if (sessionInfo != null && sessionInfo.resumable()) {
                 // 后续调用：使用input格式（用户已经输入了内容）
-                String sessionId = sessionInfo.get("sessionId");
-                String messageId = sessionInfo.get("messageId");
-                String nodeId = sessionInfo.get("nodeId");
+                String sessionId = sessionInfo.sessionId();
+                String messageId = sessionInfo.messageId();
+                String nodeId = sessionInfo.nodeId();
                 
                 request.put("session_id", sessionId);
                 request.put("message_id", messageId);
@@ -306,288 +578,172 @@ public class ChatController {
                 nodeInput.put("user_input", content);
                 input.put(nodeId, nodeInput);
                 request.put("input", input);
-                
-                System.out.println("后续调用 - session_id: " + sessionId + ", message_id: " + messageId + ", node_id: " + nodeId + ", user_input: " + content);
             } else if (content != null && !content.isEmpty()) {
                 // 第一次调用但用户已经输入了内容：使用user_input方式（bisheng支持这种方式）
                 // 注意：这种方式会跳过guide_word和input事件，直接处理用户输入
             request.put("user_input", content);
-                System.out.println("第一次调用 - 使用user_input方式: " + content);
-            } else {
-                // 第一次调用且没有用户输入：只传workflow_id和stream
-                System.out.println("第一次调用 - 不传user_input，等待工作流返回guide_word和input事件");
             }
+            // 第一次调用且没有用户输入时只传workflow_id和stream，等待工作流返回guide_word和input事件
             
-            System.out.println("工作流请求URL: " + workflowUrl);
-            System.out.println("工作流ID: " + workflowId);
-            System.out.println("用户输入: " + content);
-            System.out.println("请求体: " + new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(request));
+            // 请求体包含用户输入，只在DEBUG时序列化输出
+            if (log.isDebugEnabled()) {
+                log.debug("工作流请求: url={}, body={}", workflowUrl, objectMapper.writeValueAsString(request));
+            }
             
-            // 发送流式请求
-            sendStreamRequest(workflowUrl, request, Map.of("Authorization", "Bearer " + apiKey), 
-                (eventType, eventData) -> {
+            // 每个流只需在第一次拿到session_id时写一次存储
+            java.util.concurrent.atomic.AtomicBoolean sessionIdSaved = new java.util.concurrent.atomic.AtomicBoolean(sessionInfo != null);
+            StreamEventHandler handler = (eventType, event) -> {
                     try {
-                        // bisheng API返回格式: {"session_id":"...","data":{"event":"...","status":"...","output_schema":{"message":"..."}}}
                         // 首先保存session_id（从根节点获取）
-                        String sessionIdFromResponse = eventData.path("session_id").asText();
-                        if (!sessionIdFromResponse.isEmpty()) {
-                            String convId = aiMsg.getConversation().getId();
-                            java.util.Map<String, String> sessInfo = bishengSessions.getOrDefault(convId, new HashMap<>());
-                            if (!sessInfo.containsKey("sessionId")) {
-                                sessInfo.put("sessionId", sessionIdFromResponse);
-                                bishengSessions.put(convId, sessInfo);
-                                System.out.println("保存session_id: " + sessionIdFromResponse);
-                            }
+                        String sessionIdFromResponse = event.getSessionId();
+                        // 拿到session_id后，取消生成时可以通知Bisheng停止该工作流
+                        if (!sessionIdFromResponse.isEmpty() && stopUrl != null && !generation.hasUpstreamStop()) {
+                            generation.onUpstreamStop(() -> bishengClient.stopWorkflow(stopUrl, sessionIdFromResponse)
+                                    .subscribe(r -> {}, e -> log.warn("停止Bisheng工作流失败: {}", e.getMessage())));
                         }
-                        
-                        com.fasterxml.jackson.databind.JsonNode dataNode = eventData.path("data");
-                        if (dataNode.isMissingNode()) {
-                            dataNode = eventData;
+                        if (!sessionIdFromResponse.isEmpty() && sessionIdSaved.compareAndSet(false, true)) {
+                            bishengSessions.putSessionIdIfAbsent(aiMsg.getConversation().getId(), sessionIdFromResponse);
                         }
                         
-                        String actualEventType = dataNode.path("event").asText();
+                        String actualEventType = event.getEvent();
                         if (actualEventType.isEmpty()) {
                             actualEventType = eventType;
                         }
                         
                         // 获取status字段（用于stream_msg事件）
-                        String status = dataNode.path("status").asText();
+                        String status = event.getStatus();
+                        // output_schema.message：字符串原样，数组取第一个元素
+                        String message = event.getMessage();
                         
-                        System.out.println("处理bisheng事件: event=" + actualEventType + ", status=" + status + ", session_id=" + sessionIdFromResponse);
+                        tokenLog.debug("处理bisheng事件: messageId={}, event={}, status={}, session_id={}", aiMsg.getId(), actualEventType, status, sessionIdFromResponse);
                         
                         switch (actualEventType) {
                             case "stream_msg":
                                 // 流式输出事件：根据status字段判断是流式输出中还是结束
                                 // 参考代码：value.data.status === 'stream' 表示流式输出中，value.data.status === 'end' 表示流式输出结束
-                                com.fasterxml.jackson.databind.JsonNode streamOutputSchema = dataNode.path("output_schema");
-                                if (!streamOutputSchema.isMissingNode()) {
-                                    com.fasterxml.jackson.databind.JsonNode streamMessageNode = streamOutputSchema.path("message");
-                                    String streamMessage = "";
-                                    
-                                    if (streamMessageNode.isTextual()) {
-                                        streamMessage = streamMessageNode.asText();
-                                    } else if (streamMessageNode.isArray() && streamMessageNode.size() > 0) {
-                                        streamMessage = streamMessageNode.get(0).asText();
-                                    }
-                                    
-                                    if (!streamMessage.isEmpty()) {
-                                        String currentContent = aiMsg.getContent() != null ? aiMsg.getContent() : "";
-                                        
-                                        if ("stream".equals(status)) {
-                                            // 流式输出中：追加内容
-                                            aiMsg.setContent(currentContent + streamMessage);
-                                            aiMsg.setStatus("generating");
-                                        } else if ("end".equals(status)) {
-                                            // 流式输出结束：使用最终完整内容覆盖
-                                            aiMsg.setContent(streamMessage);
-                                            aiMsg.setStatus("sent");
-                                        } else {
-                                            // 如果没有status字段，默认追加
-                                            aiMsg.setContent(currentContent + streamMessage);
-                                            aiMsg.setStatus("generating");
-                                        }
-                                        
-                                        messageRepo.save(aiMsg);
-                                        try {
-                                            System.out.println("发送stream_msg: event=" + actualEventType + ", status=" + status + ", 内容长度=" + (aiMsg.getContent() != null ? aiMsg.getContent().length() : 0));
-                                            Map<String,Object> msgData = mapMsg(aiMsg, userId);
-                                            System.out.println("发送SSE消息数据: " + new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(msgData));
-                                            // 确保每次流式更新都发送SSE事件
-                                            emitter.send(SseEmitter.event().name("message").data(msgData));
-                                        } catch (Exception ex) {
-                                            System.err.println("发送SSE消息失败: " + ex.getMessage());
-                                            ex.printStackTrace();
-                                        }
+                                if (!message.isEmpty()) {
+                                    if ("end".equals(status)) {
+                                        // 流式输出结束：使用最终完整内容覆盖并落盘
+                                        pending.replace(message);
+                                        pending.finish("sent");
+                                        sink.done(pending);
+                                    } else {
+                                        // 流式输出中（或没有status字段）：追加到内存缓冲，由检查点策略决定何时写库
+                                        pending.append(message);
+                                        sink.update(pending);
                                     }
                                 }
                                 break;
                                 
-                        case "guide_word":
-                                // 开场白事件：直接设置消息内容（这是工作流的初始问候语）
-                                com.fasterxml.jackson.databind.JsonNode guideOutputSchema = dataNode.path("output_schema");
-                                if (!guideOutputSchema.isMissingNode()) {
-                                    com.fasterxml.jackson.databind.JsonNode guideMessageNode = guideOutputSchema.path("message");
-                                    if (guideMessageNode.isTextual()) {
-                                        String guideMessage = guideMessageNode.asText();
-                                        if (!guideMessage.isEmpty()) {
-                                            // guide_word是开场白，直接设置内容
-                                            aiMsg.setContent(guideMessage);
-                                            aiMsg.setStatus("generating"); // 设置为生成中，等待后续消息
-                                            messageRepo.save(aiMsg);
-                                            try {
-                                                System.out.println("发送guide_word: " + guideMessage);
-                                                emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-                                            } catch (Exception ex) {
-                                                System.err.println("发送SSE消息失败: " + ex.getMessage());
-                                                ex.printStackTrace();
-                                            }
-                                        }
-                                    }
+                            case "guide_word":
+                                // 开场白事件：直接设置消息内容（这是工作流的初始问候语），状态保持generating等待后续消息
+                                if (event.isMessageTextual() && !message.isEmpty()) {
+                                    pending.replace(message);
+                                    sink.update(pending);
                                 }
                                 break;
                                 
-                        case "output_msg":
-                                // 输出事件：追加消息内容
-                                com.fasterxml.jackson.databind.JsonNode outputSchema = dataNode.path("output_schema");
-                                if (!outputSchema.isMissingNode()) {
-                                    com.fasterxml.jackson.databind.JsonNode messageNode = outputSchema.path("message");
-                                    String message = "";
-                                    
-                                    if (messageNode.isTextual()) {
-                                        message = messageNode.asText();
-                                    } else if (messageNode.isArray() && messageNode.size() > 0) {
-                                        message = messageNode.get(0).asText();
-                                    }
-                                    
-                                    if (!message.isEmpty() && !message.equals("['']") && !message.equals("[]")) {
-                                        String currentContent = aiMsg.getContent() != null ? aiMsg.getContent() : "";
-                                        aiMsg.setContent(currentContent.isEmpty() ? message : currentContent + message);
-                                     messageRepo.save(aiMsg);
-                                     try {
-                                            System.out.println("发送output_msg: " + message);
-                                         emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-                                     } catch (Exception ex) {
-                                            System.err.println("发送SSE消息失败: " + ex.getMessage());
-                                        }
-                                     }
-                                 }
-                                 break;
-                                
-                             case "close":
+                            case "close":
                             case "end":
                                 // 结束事件
-                                 aiMsg.setStatus("sent");
-                                 messageRepo.save(aiMsg);
-                                 try {
-                                     emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-                                 } catch (Exception ex) {
-                                     // 忽略发送异常
-                                 }
-                                 break;
+                                pending.finish("sent");
+                                sink.done(pending);
+                                break;
                                 
-                             case "error":
+                            case "error":
                                 // 错误事件
-                                String errorMsg = "生成失败";
-                                com.fasterxml.jackson.databind.JsonNode errorOutputSchema = dataNode.path("output_schema");
-                                if (!errorOutputSchema.isMissingNode()) {
-                                    errorMsg = errorOutputSchema.path("message").asText();
-                                }
-                                 try {
-                                     emitter.send(SseEmitter.event().name("error").data(err("生成失败：" + errorMsg)));
-                                 } catch (Exception ex) {
-                                     // 忽略发送异常
-                                 }
-                                 break;
+                                String errorMsg = event.hasOutputSchema() ? message : "生成失败";
+                                sink.error(err("生成失败：" + errorMsg));
+                                break;
                                 
                             case "input":
                                 // 等待输入事件：保存session_id、message_id和node_id用于后续调用
-                                String inputSessionId = eventData.path("session_id").asText();
-                                String inputMessageId = dataNode.path("message_id").asText();
-                                String inputNodeId = dataNode.path("node_id").asText();
-                                
-                                if (!inputSessionId.isEmpty() && !inputMessageId.isEmpty() && !inputNodeId.isEmpty()) {
+                                if (!sessionIdFromResponse.isEmpty() && !event.getMessageId().isEmpty() && !event.getNodeId().isEmpty()) {
                                     String convId = aiMsg.getConversation().getId();
-                                    java.util.Map<String, String> sessInfo = new HashMap<>();
-                                    sessInfo.put("sessionId", inputSessionId);
-                                    sessInfo.put("messageId", inputMessageId);
-                                    sessInfo.put("nodeId", inputNodeId);
-                                    bishengSessions.put(convId, sessInfo);
-                                    System.out.println("保存bisheng session信息: conversationId=" + convId + ", session_id=" + inputSessionId + ", message_id=" + inputMessageId + ", node_id=" + inputNodeId);
+                                    bishengSessions.put(convId, new BishengSessionStore.Session(sessionIdFromResponse, event.getMessageId(), event.getNodeId()));
+                                    log.debug("保存bisheng session信息: conversationId={}, session_id={}, message_id={}, node_id={}", convId, sessionIdFromResponse, event.getMessageId(), event.getNodeId());
                                 }
                                 break;
                                 
+                            case "output_msg":
                             default:
-                                // 对于其他事件类型，尝试提取消息
-                                // 特别处理：如果status="stream"，说明是流式输出中
-                                if ("stream".equals(status)) {
-                                    com.fasterxml.jackson.databind.JsonNode defaultOutputSchema = dataNode.path("output_schema");
-                                    if (!defaultOutputSchema.isMissingNode()) {
-                                        com.fasterxml.jackson.databind.JsonNode defaultMessageNode = defaultOutputSchema.path("message");
-                                        String defaultMessage = "";
-                                        
-                                        if (defaultMessageNode.isTextual()) {
-                                            defaultMessage = defaultMessageNode.asText();
-                                        } else if (defaultMessageNode.isArray() && defaultMessageNode.size() > 0) {
-                                            defaultMessage = defaultMessageNode.get(0).asText();
-                                        }
-                                        
-                                        if (!defaultMessage.isEmpty() && !defaultMessage.equals("['']") && !defaultMessage.equals("[]")) {
-                                            String currentContent = aiMsg.getContent() != null ? aiMsg.getContent() : "";
-                                            aiMsg.setContent(currentContent + defaultMessage);
-                                            aiMsg.setStatus("generating");
-                                            messageRepo.save(aiMsg);
-                                            try {
-                                                System.out.println("发送流式事件(默认): event=" + actualEventType + ", status=" + status + ", 内容: " + defaultMessage);
-                                                emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-                                            } catch (Exception ex) {
-                                                System.err.println("发送SSE消息失败: " + ex.getMessage());
-                                            }
-                                        }
-                                    }
-                                } else {
-                                    // 非流式事件，尝试提取消息
-                                    com.fasterxml.jackson.databind.JsonNode defaultOutputSchema = dataNode.path("output_schema");
-                                    if (!defaultOutputSchema.isMissingNode()) {
-                                        com.fasterxml.jackson.databind.JsonNode defaultMessageNode = defaultOutputSchema.path("message");
-                                        String defaultMessage = "";
-                                        
-                                        if (defaultMessageNode.isTextual()) {
-                                            defaultMessage = defaultMessageNode.asText();
-                                        } else if (defaultMessageNode.isArray() && defaultMessageNode.size() > 0) {
-                                            defaultMessage = defaultMessageNode.get(0).asText();
-                                        }
-                                        
-                                        if (!defaultMessage.isEmpty() && !defaultMessage.equals("['']") && !defaultMessage.equals("[]")) {
-                                            String currentContent = aiMsg.getContent() != null ? aiMsg.getContent() : "";
-                                            aiMsg.setContent(currentContent.isEmpty() ? defaultMessage : currentContent + defaultMessage);
-                                            messageRepo.save(aiMsg);
-                                            try {
-                                                System.out.println("发送默认事件: " + actualEventType + ", 内容: " + defaultMessage);
-                                                emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-                                            } catch (Exception ex) {
-                                                System.err.println("发送SSE消息失败: " + ex.getMessage());
-                                            }
-                                        }
-                                    }
+                                // 输出事件及其他事件（包括status=stream的流式事件）：追加消息内容
+                                if (!message.isEmpty() && !message.equals("['']") && !message.equals("[]")) {
+                                    pending.append(message);
+                                    sink.update(pending);
                                 }
                                 break;
                         }
                     } catch (Exception e) {
-                        System.err.println("处理bisheng事件失败: " + e.getMessage());
-                        e.printStackTrace();
+                        log.warn("处理bisheng事件失败: messageId={}", aiMsg.getId(), e);
                     }
-                });
-                
-                // 等待流式请求完成（设置超时）
-                // 注意：sendStreamRequest是同步的，但实际处理是异步的
-                // 这里不需要等待，因为事件处理已经在回调中完成
+            };
+            
+            // 事件回调会写SSE响应和数据库（阻塞操作），切到boundedElastic处理，不能占用netty的IO线程；
+            // 小预取量形成背压：客户端读得慢时上游连接暂停读取，而不是在内存中堆积事件
+            return chatMetrics.upstream(bishengClient.streamWorkflow(workflowUrl, request), ChatMetrics.STREAM, workflowId)
+                    // 上游连接结束时归还调度名额
+                    .doFinally(signal -> ticket.release())
+                    .publishOn(Schedulers.boundedElastic(), UPSTREAM_STREAM_PREFETCH)
+                    .subscribe(
+                            sse -> dispatchWorkflowEvent(sse, handler),
+                            RequestIdFilter.withMdc((Throwable e) -> {
+                                failWorkflowStream(sink, pending, e);
+                                onDone.run();
+                            }),
+                            RequestIdFilter.withMdc(() -> {
+                                // 上游正常结束：没有收到end事件的消息在这里做最终落盘
+                                // （工作流停在input节点等待用户输入时同样以已生成的内容结束本轮）
+                                pending.finish("sent");
+                                sink.done(pending);
+                                onDone.run();
+                            }));
                 
         } catch (Exception e) {
-            System.err.println("工作流请求异常: " + e.getMessage());
-            e.printStackTrace();
-            // 失败时使用默认回复
-            String defaultContent = "工作流处理失败：" + e.getMessage();
-            aiMsg.setContent(defaultContent);
-            aiMsg.setStatus("error");
-            messageRepo.save(aiMsg);
-            try {
-                emitter.send(SseEmitter.event().name("message").data(mapMsg(aiMsg, userId)));
-            } catch (Exception ex) {
-                System.err.println("发送错误消息失败: " + ex.getMessage());
-            }
-        } finally {
-            // 确保流式请求完成后，如果消息状态还是generating，标记为sent
-            try {
-                if ("generating".equals(aiMsg.getStatus())) {
-                    // 等待一段时间后，如果还是generating，标记为sent
-                    // 这里不等待，让事件处理回调来更新状态
-                }
-            } catch (Exception e) {
-                // 忽略
-            }
+            failWorkflowStream(sink, pending, e);
+            onDone.run();
+            return null;
         }
     }
-
+    
+    private void failWorkflowStream(ChatStreamSink sink, StreamingMessageWriter.PendingMessage pending, Throwable e) {
+        log.warn("工作流请求异常: messageId={}", pending.getMessage().getId(), e);
+        // 失败时使用默认回复
+        String defaultContent = e instanceof UpstreamLimiter.BusyException ? e.getMessage() : "工作流处理失败：" + e.getMessage();
+        pending.replace(defaultContent);
+        pending.finish("error");
+        sink.done(pending);
+    }
+    
+    // 解析一条上游SSE事件并交给事件处理器
+    private void dispatchWorkflowEvent(ServerSentEvent<String> sse, StreamEventHandler handler) {
+        String jsonData = sse.data();
+        if (jsonData == null || jsonData.isBlank()) {
+            return; // 心跳注释或空事件
+        }
+        BishengEvent event;
+        try {
+            event = bishengEventParser.parse(jsonData);
+        } catch (Exception e) {
+            log.warn("解析SSE数据失败: {}, 错误: {}", jsonData.substring(0, Math.min(200, jsonData.length())), e.getMessage());
+            return;
+        }
+        String eventType = event.getEvent();
+        // 如果没有event字段，尝试从status判断（可能是stream_msg事件）
+        if (eventType.isEmpty() && ("stream".equals(event.getStatus()) || "end".equals(event.getStatus()))) {
+            eventType = "stream_msg";
+        }
+        if (eventType.isEmpty() && sse.event() != null) {
+            eventType = sse.event();
+        }
+        if (eventType.isEmpty()) {
+            tokenLog.debug("无法提取事件类型，原始数据: {}", jsonData.substring(0, Math.min(200, jsonData.length())));
+            // 即使没有event类型，也尝试处理（可能是其他格式）
+            eventType = "unknown";
+        }
+        handler.handleEvent(eventType, event);
+    }
+    
     // 辅助方法
     private String getUserId(Authentication auth) {
         if (auth.getDetails() instanceof Map) {
@@ -610,6 +766,7 @@ public class ChatController {
             c.setUser(user);
             c.setTitle(title);
             conversationRepo.save(c);
+            stats.inserted(StatsCounters.CONVERSATIONS, null);
             return c;
         }
     }
@@ -623,171 +780,49 @@ public class ChatController {
         return msg;
     }
     
-    private String getAIResponse(String content, String modelId) {
+    private String getAIResponse(Message aiMsg, String content, String modelId) {
         try {
-            String modelApiUrl = "http://43.192.114.202:8000/v1/chat/completions";
-            String modelApiKey = "123";
-            String modelName = "Qwen3-4B-Instruct-2507-FP8";
+            String modelApiUrl = defaultModelUrl;
+            String modelApiKey = defaultModelKey;
+            String modelName = defaultModelName;
+            String modelKey = ModelHttpClients.DEFAULT_KEY;
+            ModelConfig modelConfig = null;
             
             if (modelId != null && !modelId.isBlank()) {
-                ModelConfig modelConfig = modelConfigRepo.findById(modelId).orElse(null);
+                modelConfig = configCache.model(modelId);
                 if (modelConfig != null && modelConfig.isEnabled()) {
                     modelApiUrl = modelConfig.getEndpoint();
                     modelApiKey = modelConfig.getApiKey();
                     modelName = modelConfig.getModelName();
+                    modelKey = modelConfig.getId();
+                } else {
+                    modelConfig = null;
                 }
             }
             
             Map<String, Object> request = new HashMap<>();
             request.put("model", modelName);
             
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "system", "content", "你是一个有帮助的AI助手。"));
-            messages.add(Map.of("role", "user", "content", content));
+            List<Map<String, String>> messages = contextBuilder.messages(aiMsg.getConversation().getId(), modelConfig);
             request.put("messages", messages);
             request.put("temperature", 0.7);
-            request.put("max_tokens", 1024);
+            request.put("max_tokens", ConversationContextBuilder.REPLY_TOKENS);
             
-            String response = sendHttpRequest(modelApiUrl, "POST", request, Map.of("Authorization", "Bearer " + modelApiKey));
-            return parseModelResponse(response);
+            String response = callModel(modelKey, modelApiUrl, request, modelApiKey);
+            com.fasterxml.jackson.databind.JsonNode responseNode = objectMapper.readTree(response);
+            String aiContent = responseNode.path("choices").get(0).path("message").path("content").asText();
+            aiMsg.setModelKey(modelKey);
+            UsageMeter.applyUsage(aiMsg, aiContent, responseNode.path("usage"), TokenEstimator.estimateMessages(messages));
+            return aiContent;
             
         } catch (Exception e) {
             return "这是AI对\"" + content + "\"的回复。";
         }
     }
     
-    private String sendHttpRequest(String url, String method, Map<String, Object> body, Map<String, String> headers) throws Exception {
-        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(url).openConnection();
-        connection.setRequestMethod(method);
-        connection.setRequestProperty("Content-Type", "application/json");
-        headers.forEach(connection::setRequestProperty);
-        connection.setDoOutput(true);
-        
-        try (java.io.OutputStream os = connection.getOutputStream()) {
-            byte[] input = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsBytes(body);
-            os.write(input, 0, input.length);
-        } catch (IOException e) {
-            throw new IOException("Failed to write request body: " + e.getMessage(), e);
-        }
-        
-        try (java.io.BufferedReader br = new java.io.BufferedReader(
-            new java.io.InputStreamReader(connection.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                response.append(line);
-            }
-            return response.toString();
-        } catch (IOException e) {
-            throw new IOException("Failed to read response: " + e.getMessage(), e);
-        } finally {
-            connection.disconnect();
-        }
-    }
-    
-    private String parseModelResponse(String response) throws Exception {
-        com.fasterxml.jackson.databind.JsonNode responseNode = new com.fasterxml.jackson.databind.ObjectMapper().readTree(response);
-        return responseNode.path("choices").get(0).path("message").path("content").asText();
-    }
-    
-    private void sendStreamRequest(String url, Map<String, Object> body, Map<String, String> headers, 
-                                  StreamEventHandler handler) throws Exception {
-        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(url).openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        headers.forEach(connection::setRequestProperty);
-        connection.setDoOutput(true);
-        connection.setChunkedStreamingMode(0);
-        
-        try (java.io.OutputStream os = connection.getOutputStream()) {
-            byte[] input = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsBytes(body);
-            os.write(input, 0, input.length);
-        } catch (IOException e) {
-            throw new IOException("Failed to write request body: " + e.getMessage(), e);
-        }
-        
-        try (java.io.BufferedReader br = new java.io.BufferedReader(
-            new java.io.InputStreamReader(connection.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))) {
-            String line;
-            StringBuilder buffer = new StringBuilder();
-            
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) {
-                    continue; // 跳过空行
-                }
-                
-                System.out.println("收到bisheng原始行: " + line);
-                
-                // 处理SSE格式: data: {...}
-                if (line.startsWith("data: ")) {
-                    String jsonData = line.substring(6).trim();
-                    if (!jsonData.isEmpty()) {
-                        try {
-                            System.out.println("解析bisheng JSON数据: " + jsonData);
-                            com.fasterxml.jackson.databind.JsonNode eventNode = new com.fasterxml.jackson.databind.ObjectMapper().readTree(jsonData);
-                            // bisheng API返回格式: {"session_id":"...","data":{"event":"...","status":"..."}}
-                            // 从data节点获取event类型，如果没有data节点则从根节点获取
-                            com.fasterxml.jackson.databind.JsonNode dataNode = eventNode.path("data");
-                            String eventType = "";
-                            if (!dataNode.isMissingNode()) {
-                                eventType = dataNode.path("event").asText();
-                            } else {
-                                eventType = eventNode.path("event").asText();
-                            }
-                            
-                            // 如果没有event字段，尝试从status判断（可能是stream_msg事件）
-                            if (eventType.isEmpty() && !dataNode.isMissingNode()) {
-                                String status = dataNode.path("status").asText();
-                                if ("stream".equals(status) || "end".equals(status)) {
-                                    eventType = "stream_msg";
-                                }
-                            }
-                            
-                            if (!eventType.isEmpty()) {
-                                System.out.println("处理bisheng事件: " + eventType + ", 原始数据: " + jsonData.substring(0, Math.min(200, jsonData.length())));
-                                handler.handleEvent(eventType, eventNode);
-                            } else {
-                                System.out.println("警告: 无法提取事件类型，原始数据: " + jsonData.substring(0, Math.min(200, jsonData.length())));
-                                // 即使没有event类型，也尝试处理（可能是其他格式）
-                                handler.handleEvent("unknown", eventNode);
-                            }
-                        } catch (Exception e) {
-                            System.err.println("解析SSE数据失败: " + jsonData.substring(0, Math.min(200, jsonData.length())) + ", 错误: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }
-                } else if (!line.trim().isEmpty()) {
-                    // 如果不是data:开头且不是空行，可能是多行JSON的一部分，累积到buffer
-                    buffer.append(line);
-                }
-                
-                // 如果buffer有内容且当前行是空行或新的事件开始，尝试解析buffer
-                if (buffer.length() > 0 && (line.trim().isEmpty() || line.startsWith("data: "))) {
-                    try {
-                        String jsonData = buffer.toString();
-                        com.fasterxml.jackson.databind.JsonNode eventNode = new com.fasterxml.jackson.databind.ObjectMapper().readTree(jsonData);
-                        com.fasterxml.jackson.databind.JsonNode dataNode = eventNode.path("data");
-                        String eventType = "";
-                        if (!dataNode.isMissingNode()) {
-                            eventType = dataNode.path("event").asText();
-                        } else {
-                            eventType = eventNode.path("event").asText();
-                        }
-                        if (!eventType.isEmpty()) {
-                        handler.handleEvent(eventType, eventNode);
-                    }
-                    buffer.setLength(0);
-                    } catch (Exception e) {
-                        // 如果解析失败，清空buffer继续
-                        buffer.setLength(0);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            throw new IOException("Failed to read response: " + e.getMessage(), e);
-        } finally {
-            connection.disconnect();
-        }
+    // 经ModelHttpClients的连接池调用模型接口，按上游地址限制并发（/chat不经过GenerationScheduler）
+    private String callModel(String modelKey, String url, Map<String, Object> request, String apiKey) throws Exception {
+        return upstreamLimiter.call(url, () -> modelClients.postJson(modelKey, url, apiKey, request));
     }
     
     private void sendError(SseEmitter emitter, String message) {
@@ -836,6 +871,6 @@ public class ChatController {
     // 流式事件处理接口
     @FunctionalInterface
     private interface StreamEventHandler {
-        void handleEvent(String eventType, com.fasterxml.jackson.databind.JsonNode eventData);
+        void handleEvent(String eventType, BishengEvent event);
     }
 }
\ No newline at end of file
@@ -1,10 +1,13 @@
 package com.example.webui.userapi.controller;
 
 import com.example.webui.common.entity.Conversation;
-import com.example.webui.common.entity.Message;
 import com.example.webui.common.entity.User;
 import com.example.webui.common.repo.ConversationRepository;
-import com.example.webui.common.repo.UserRepository;
+import com.example.webui.common.repo.ConversationSummary;
+import com.example.webui.common.stats.StatsCounters;
+import com.example.webui.userapi.config.CurrentUser;
+import com.example.webui.userapi.service.ConversationContextBuilder;
+import com.example.webui.userapi.service.GenerationRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -22,10 +25,12 @@ import java.util.*;
 public class ConversationController {
 
     @Autowired private ConversationRepository conversationRepo;
-    @Autowired private UserRepository userRepo;
+    @Autowired private GenerationRegistry generations;
+    @Autowired private ConversationContextBuilder contextBuilder;
+    @Autowired private StatsCounters stats;
 
     @GetMapping
-    public ResponseEntity<?> list(Authentication auth,
+    public ResponseEntity<?> list(Authentication auth, @CurrentUser User user,
                                   @RequestParam(name = "page", defaultValue = "1") int page,
                                   @RequestParam(name = "limit", defaultValue = "20") int limit) {
         // 检查认证信息
@@ -36,61 +41,34 @@ public class ConversationController {
             return ResponseEntity.status(401).body(error);
         }
         
-        System.out.println("DEBUG: Authentication details: " + auth.getDetails());
-        System.out.println("DEBUG: Authentication principal: " + auth.getPrincipal());
-        System.out.println("DEBUG: Authentication authorities: " + auth.getAuthorities());
-        
-        String userId = null;
-        String username = null;
-        
-        if (auth.getDetails() instanceof Map) {
-            Map<?,?> details = (Map<?,?>) auth.getDetails();
-            userId = java.util.Objects.toString(details.get("userId"), null);
-            username = java.util.Objects.toString(details.get("username"), null);
-        }
-        
-        System.out.println("DEBUG: Extracted userId: " + userId);
-        System.out.println("DEBUG: Extracted username: " + username);
-        
-        User user = null;
-        if (username != null && !username.isEmpty()) {
-            user = userRepo.findByUsername(username).orElse(null);
-        }
-        if (user == null && userId != null && !userId.isEmpty()) {
-            // 如果通过用户名找不到，尝试通过userId查找
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
             error.put("error", "用户不存在");
             return ResponseEntity.status(404).body(error);
         }
+        String userId = user.getId();
         
-        System.out.println("DEBUG: Found user: " + user.getUsername() + " with ID: " + user.getId());
-        
-        // 只获取未删除的会话（用户看不到已删除的会话）
-        Page<Conversation> p = conversationRepo.findByUserAndIsDeletedFalse(user, PageRequest.of(Math.max(0, page-1), limit));
+        // 只获取未删除的会话（用户看不到已删除的会话），最后一条消息取自对话上的摘要列，不加载messages
+        Page<ConversationSummary> p = conversationRepo.findSummariesByUser(user.getId(), PageRequest.of(Math.max(0, page-1), limit));
         List<Map<String,Object>> cons = new ArrayList<>();
-        for (Conversation c : p.getContent()) {
+        for (ConversationSummary c : p.getContent()) {
             Map<String,Object> m = new HashMap<>();
             m.put("id", c.getId());
             m.put("title", c.getTitle());
             m.put("createdAt", toStr(c.getCreatedAt()));
             m.put("updatedAt", toStr(c.getUpdatedAt()));
             m.put("unreadCount", 0);
-            List<Message> msgs = c.getMessages();
-            Message last = msgs.stream().max(Comparator.comparing(Message::getCreatedAt)).orElse(null);
-            if (last != null) {
+            m.put("messageCount", c.getMessageCount());
+            if (c.getLastMessageId() != null) {
                 Map<String,Object> lm = new HashMap<>();
-                lm.put("id", last.getId());
+                lm.put("id", c.getLastMessageId());
                 lm.put("conversationId", c.getId());
-                lm.put("senderId", last.getRole().equals("user") ? userId : "assistant");
-                lm.put("content", last.getContent());
+                lm.put("senderId", "user".equals(c.getLastMessageRole()) ? userId : "assistant");
+                lm.put("content", c.getLastMessagePreview());
                 lm.put("type", "text");
-                lm.put("status", last.getStatus());
-                lm.put("createdAt", toStr(last.getCreatedAt()));
+                lm.put("status", c.getLastMessageStatus());
+                lm.put("createdAt", toStr(c.getLastMessageAt()));
                 m.put("lastMessage", lm);
             }
             cons.add(m);
@@ -103,7 +81,7 @@ public class ConversationController {
 
     @PostMapping
     @Transactional
-    public ResponseEntity<?> create(Authentication auth, @RequestBody Map<String, Object> body) {
+    public ResponseEntity<?> create(Authentication auth, @CurrentUser User user, @RequestBody Map<String, Object> body) {
         // 检查认证信息
         if (auth == null || !auth.isAuthenticated() || "anonymousUser".equals(auth.getName())) {
             Map<String,Object> error = new HashMap<>();
@@ -112,23 +90,6 @@ public class ConversationController {
             return ResponseEntity.status(401).body(error);
         }
         
-        String userId = null;
-        String username = null;
-        
-        if (auth.getDetails() instanceof Map) {
-            Map<?,?> details = (Map<?,?>) auth.getDetails();
-            userId = java.util.Objects.toString(details.get("userId"), null);
-            username = java.util.Objects.toString(details.get("username"), null);
-        }
-        
-        User user = null;
-        if (username != null && !username.isEmpty()) {
-            user = userRepo.findByUsername(username).orElse(null);
-        }
-        if (user == null && userId != null && !userId.isEmpty()) {
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
@@ -141,6 +102,7 @@ public class ConversationController {
         c.setUser(user);
         c.setTitle(title);
         conversationRepo.save(c);
+        stats.inserted(StatsCounters.CONVERSATIONS, null);
         Map<String,Object> conv = new HashMap<>();
         conv.put("id", c.getId());
         conv.put("title", c.getTitle());
@@ -154,7 +116,7 @@ public class ConversationController {
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<?> detail(Authentication auth, @PathVariable String id) {
+    public ResponseEntity<?> detail(Authentication auth, @CurrentUser User user, @PathVariable String id) {
         // 检查认证信息
         if (auth == null || !auth.isAuthenticated() || "anonymousUser".equals(auth.getName())) {
             Map<String,Object> error = new HashMap<>();
@@ -163,23 +125,6 @@ public class ConversationController {
             return ResponseEntity.status(401).body(error);
         }
         
-        String userId = null;
-        String username = null;
-        
-        if (auth.getDetails() instanceof Map) {
-            Map<?,?> details = (Map<?,?>) auth.getDetails();
-            userId = java.util.Objects.toString(details.get("userId"), null);
-            username = java.util.Objects.toString(details.get("username"), null);
-        }
-        
-        User user = null;
-        if (username != null && !username.isEmpty()) {
-            user = userRepo.findByUsername(username).orElse(null);
-        }
-        if (user == null && userId != null && !userId.isEmpty()) {
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
@@ -203,15 +148,7 @@ public class ConversationController {
 
     @PutMapping("/{id}")
     @Transactional
-    public ResponseEntity<?> update(Authentication auth, @PathVariable String id, @RequestBody Map<String,Object> body) {
-        String userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-        String username = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("username"), null);
-        
-        User user = userRepo.findByUsername(username).orElse(null);
-        if (user == null) {
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
+    public ResponseEntity<?> update(@CurrentUser User user, @PathVariable String id, @RequestBody Map<String,Object> body) {
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
@@ -232,15 +169,7 @@ public class ConversationController {
 
     @DeleteMapping("/{id}")
     @Transactional
-    public ResponseEntity<?> delete(Authentication auth, @PathVariable String id) {
-        String userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-        String username = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("username"), null);
-        
-        User user = userRepo.findByUsername(username).orElse(null);
-        if (user == null) {
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
+    public ResponseEntity<?> delete(@CurrentUser User user, @PathVariable String id) {
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
@@ -253,6 +182,7 @@ public class ConversationController {
         // 软删除：只标记为已删除，不真正删除数据
         c.setDeleted(true);
         conversationRepo.save(c);
+        contextBuilder.invalidate(c.getId());
         Map<String,Object> res = new HashMap<>();
         res.put("code", 200);
         res.put("message", "删除成功");
@@ -260,15 +190,7 @@ public class ConversationController {
     }
 
     @PostMapping("/{id}/stop")
-    public ResponseEntity<?> stop(Authentication auth, @PathVariable String id) {
-        String userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-        String username = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("username"), null);
-        
-        User user = userRepo.findByUsername(username).orElse(null);
-        if (user == null) {
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
+    public ResponseEntity<?> stop(@CurrentUser User user, @PathVariable String id) {
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
@@ -279,10 +201,12 @@ public class ConversationController {
         Conversation c = conversationRepo.findByIdAndUser(id, user).orElse(null);
         if (c == null) return ResponseEntity.status(404).body(err("对话不存在"));
         
-        // 这里可以添加停止对话的具体逻辑，比如停止正在进行的AI生成等
+        // 停止该对话中正在进行的生成：取消上游读取、通知工作流停止，已生成的部分以stopped状态保存
+        int stopped = generations.stopConversation(c.getId());
         Map<String,Object> res = new HashMap<>();
         res.put("code", 200);
         res.put("message", "对话已停止");
+        res.put("stopped", stopped);
         return ResponseEntity.ok(res);
     }
 
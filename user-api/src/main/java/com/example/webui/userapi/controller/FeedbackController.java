@@ -3,7 +3,10 @@ package com.example.webui.userapi.controller;
 import com.example.webui.common.entity.Feedback;
 import com.example.webui.common.entity.User;
 import com.example.webui.common.repo.FeedbackRepository;
-import com.example.webui.common.repo.UserRepository;
+import com.example.webui.common.stats.StatsCounters;
+import com.example.webui.userapi.config.CurrentUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -15,44 +18,20 @@ import java.util.*;
 @RestController
 @RequestMapping("/feedbacks")
 public class FeedbackController {
+
+    private static final Logger log = LoggerFactory.getLogger(FeedbackController.class);
     @Autowired private FeedbackRepository feedbackRepo;
-    @Autowired private UserRepository userRepo;
+    @Autowired private StatsCounters stats;
 
     @PostMapping
     @Transactional
-    public ResponseEntity<?> submit(Authentication auth, @RequestBody Map<String, String> body) {
+    public ResponseEntity<?> submit(Authentication auth, @CurrentUser User user, @RequestBody Map<String, String> body) {
         try {
             // 检查认证信息
             if (auth == null || !auth.isAuthenticated() || "anonymousUser".equals(auth.getName())) {
                 return ResponseEntity.status(401).body(err("用户未认证"));
             }
             
-            // 调试认证信息
-            System.out.println("Authentication details: " + auth.getDetails());
-            System.out.println("Authentication principal: " + auth.getPrincipal());
-            
-            String userId = null;
-            String username = null;
-            
-            if (auth.getDetails() instanceof Map) {
-                Map<?,?> details = (Map<?,?>) auth.getDetails();
-                userId = java.util.Objects.toString(details.get("userId"), null);
-                username = java.util.Objects.toString(details.get("username"), null);
-            }
-            System.out.println("Extracted userId: " + userId + ", username: " + username);
-            
-            if (userId == null && username == null) {
-                return ResponseEntity.status(401).body(err("用户未认证"));
-            }
-            
-            User user = null;
-            if (username != null && !username.isEmpty()) {
-                user = userRepo.findByUsername(username).orElse(null);
-            }
-            if (user == null && userId != null && !userId.isEmpty()) {
-                user = userRepo.findById(userId).orElse(null);
-            }
-            
             if (user == null) {
                 return ResponseEntity.status(404).body(err("用户不存在"));
             }
@@ -69,8 +48,9 @@ public class FeedbackController {
             f.setContent(content); 
             f.setContact(contact);
             feedbackRepo.save(f);
+            stats.inserted(StatsCounters.FEEDBACKS, f.getStatus());
             
-            System.out.println("反馈提交成功 - ID: " + f.getId() + ", 用户: " + user.getUsername() + ", 类型: " + type + ", 内容: " + content);
+            log.info("反馈提交成功: id={}, type={}", f.getId(), type);
             
             Map<String,Object> res = new HashMap<>();
             res.put("code", 201);
@@ -84,28 +64,18 @@ public class FeedbackController {
                     "status", f.getStatus()));
             return ResponseEntity.status(201).body(res);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("提交反馈失败", e);
             return ResponseEntity.status(500).body(err("服务器内部错误: " + e.getMessage()));
         }
     }
 
     @GetMapping
-    public ResponseEntity<?> list(Authentication auth) {
-        if (auth == null) {
-            return ResponseEntity.status(401).body(err("用户未认证"));
-        }
-        
-        String userId = null;
-        if (auth.getDetails() instanceof Map) {
-            userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-        }
-        
-        if (userId == null) {
+    public ResponseEntity<?> list(@CurrentUser User user) {
+        if (user == null) {
             return ResponseEntity.status(401).body(err("用户未认证"));
         }
         
-        final String finalUserId = userId;
-        User user = userRepo.findById(finalUserId).orElseThrow(() -> new RuntimeException("用户不存在: " + finalUserId));
+        final String finalUserId = user.getId();
         List<Feedback> list = feedbackRepo.findByUserOrderByCreatedAtDesc(user);
         List<Map<String,Object>> res = new ArrayList<>();
         for (Feedback f : list) {
@@ -5,8 +5,16 @@ import com.example.webui.common.entity.Message;
 import com.example.webui.common.entity.User;
 import com.example.webui.common.repo.ConversationRepository;
 import com.example.webui.common.repo.MessageRepository;
-import com.example.webui.common.repo.UserRepository;
+import com.example.webui.common.stats.StatsCounters;
+import com.example.webui.userapi.config.CurrentUser;
+import com.example.webui.userapi.service.ConversationContextBuilder;
+import com.example.webui.userapi.service.TokenEstimator;
+import com.example.webui.userapi.service.UpstreamLimiter;
+import com.example.webui.userapi.service.UsageMeter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -26,15 +34,34 @@ import java.util.Optional;
 @SuppressWarnings("null")
 public class MessageController {
 
+    private static final Logger log = LoggerFactory.getLogger(MessageController.class);
+
     @Autowired private ConversationRepository conversationRepo;
     @Autowired private MessageRepository messageRepo;
-    @Autowired private UserRepository userRepo;
-    @Autowired private com.example.webui.common.repo.ModelConfigRepository modelConfigRepo;
-    @Autowired private com.example.webui.common.repo.UserActionLogRepository userActionLogRepo;
+    @Autowired private com.example.webui.common.cache.ConfigCache configCache;
+    @Autowired private com.example.webui.common.client.ModelHttpClients modelClients;
+    @Autowired private UpstreamLimiter upstreamLimiter;
+    @Autowired private com.fasterxml.jackson.databind.ObjectMapper objectMapper;
+    @Autowired private com.example.webui.common.log.AsyncLogWriter logWriter;
+    @Autowired private ConversationContextBuilder contextBuilder;
+    @Autowired private UsageMeter usageMeter;
+    @Autowired private StatsCounters stats;
+
+    // 未选择模型配置时使用的默认模型
+    @Value("${model.api.url:http://43.192.114.202:8000/v1/chat/completions}")
+    private String defaultModelUrl;
+
+    @Value("${model.api.key:123}")
+    private String defaultModelKey;
+
+    @Value("${model.api.name:Qwen3-4B-Instruct-2507-FP8}")
+    private String defaultModelName;
+
+    private static final int MAX_PAGE_SIZE = 200;
 
     @PostMapping
     @Transactional
-    public ResponseEntity<?> send(@RequestBody Map<String, String> body) {
+    public ResponseEntity<?> send(@RequestBody Map<String, String> body, @CurrentUser User user) {
         // 从SecurityContext获取认证信息
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         
@@ -42,32 +69,21 @@ public class MessageController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(err("未认证"));
         }
         
-        // 从认证信息中获取用户ID
-        String userId = null;
-        String username = null;
-        if (auth.getDetails() instanceof Map) {
-            Map<?, ?> details = (Map<?, ?>) auth.getDetails();
-            userId = java.util.Objects.toString(details.get("userId"), null);
-            username = java.util.Objects.toString(details.get("username"), null);
-        }
-        
-        if (userId == null) {
+        if (!(auth.getDetails() instanceof Map<?, ?> details) || details.get("userId") == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(err("无效的访问令牌"));
         }
         
-        // 尝试通过用户名查找用户
-        User user = userRepo.findByUsername(username).orElse(null);
-        if (user == null) {
-            // 如果通过用户名找不到，尝试通过userId查找
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
             error.put("error", "用户不存在");
             return ResponseEntity.status(404).body(error);
         }
+        try {
+            usageMeter.checkQuota(user);
+        } catch (UsageMeter.QuotaExceededException e) {
+            return ResponseEntity.status(429).body(err(e.getMessage()));
+        }
         
         String conversationId = body.getOrDefault("conversationId", "");
         String content = Optional.ofNullable(body.get("content")).orElse("");
@@ -83,19 +99,21 @@ public class MessageController {
         userMsg.setContent(content);
         userMsg.setStatus("sent");
         messageRepo.save(userMsg);
+        conversationRepo.recordMessage(userMsg);
+        contextBuilder.append(userMsg);
 
-        // 调用大模型API获取AI回复
-        String aiContent = callModelApi(content, modelId);
-
+        // 调用大模型API获取AI回复（同时设置token用量）
         Message aiMsg = new Message();
         aiMsg.setConversation(c);
         aiMsg.setRole("assistant");
-        aiMsg.setContent(aiContent);
+        aiMsg.setContent(callModelApi(aiMsg, content, modelId));
         aiMsg.setStatus("sent");
         messageRepo.save(aiMsg);
-
-        c.setUpdatedAt(Instant.now());
-        conversationRepo.save(c);
+        stats.add(StatsCounters.MESSAGES, 2);
+        contextBuilder.append(aiMsg);
+        usageMeter.record(user.getId(), aiMsg);
+        // 更新最后消息摘要（同时更新对话时间）
+        conversationRepo.recordMessage(aiMsg);
 
         Map<String,Object> res = new HashMap<>();
         res.put("code", 201);
@@ -113,65 +131,51 @@ public class MessageController {
     /**
      * 调用大模型API获取AI回复
      */
-    private String callModelApi(String content, String modelId) {
+    private String callModelApi(Message aiMsg, String content, String modelId) {
         try {
             // 构建大模型API请求
-            String modelApiUrl = "http://43.192.114.202:8000/v1/chat/completions";
-            String modelApiKey = "123";
-            String modelName = "Qwen3-4B-Instruct-2507-FP8";
+            String modelApiUrl = defaultModelUrl;
+            String modelApiKey = defaultModelKey;
+            String modelName = defaultModelName;
+            String modelKey = com.example.webui.common.client.ModelHttpClients.DEFAULT_KEY;
+            com.example.webui.common.entity.ModelConfig modelConfig = null;
             
             // 如果用户指定了模型ID，则使用该模型的配置
             if (modelId != null && !modelId.isBlank()) {
-                com.example.webui.common.entity.ModelConfig modelConfig = modelConfigRepo.findById(modelId).orElse(null);
+                modelConfig = configCache.model(modelId);
                 if (modelConfig != null && modelConfig.isEnabled()) {
                     modelApiUrl = modelConfig.getEndpoint();
                     modelApiKey = modelConfig.getApiKey();
                     modelName = modelConfig.getModelName();
+                    modelKey = modelConfig.getId();
+                } else {
+                    modelConfig = null;
                 }
             }
             
-            // 创建HTTP客户端和请求
-            java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(modelApiUrl).openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Authorization", "Bearer " + modelApiKey);
-            connection.setDoOutput(true);
-            
             // 构建请求体
             Map<String, Object> modelRequest = new HashMap<>();
             modelRequest.put("model", modelName);
             
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "system", "content", "你是一个有帮助的AI助手。"));
-            messages.add(Map.of("role", "user", "content", content));
+            // 系统提示词 + 按模型上下文窗口截取的最近历史（含本轮用户消息）
+            List<Map<String, String>> messages = contextBuilder.messages(aiMsg.getConversation().getId(), modelConfig);
             modelRequest.put("messages", messages);
             modelRequest.put("temperature", 0.7);
-            modelRequest.put("max_tokens", 1024);
+            modelRequest.put("max_tokens", ConversationContextBuilder.REPLY_TOKENS);
             
-            // 发送请求体
-            try (java.io.OutputStream os = connection.getOutputStream()) {
-                byte[] input = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsBytes(modelRequest);
-                os.write(input, 0, input.length);
-            }
+            // 经连接池发送请求（复用到该模型endpoint的keep-alive连接），与/chat一样按上游地址限制并发
+            String url = modelApiUrl, apiKey = modelApiKey, key = modelKey;
+            String response = upstreamLimiter.call(url, () -> modelClients.postJson(key, url, apiKey, modelRequest));
             
-            // 读取响应
-            try (java.io.BufferedReader br = new java.io.BufferedReader(
-                new java.io.InputStreamReader(connection.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))) {
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-                
-                // 解析响应
-                com.fasterxml.jackson.databind.JsonNode responseNode = new com.fasterxml.jackson.databind.ObjectMapper().readTree(response.toString());
-                return responseNode.path("choices").get(0).path("message").path("content").asText();
-            } finally {
-                connection.disconnect();
-            }
+            // 解析响应
+            com.fasterxml.jackson.databind.JsonNode responseNode = objectMapper.readTree(response);
+            String aiContent = responseNode.path("choices").get(0).path("message").path("content").asText();
+            aiMsg.setModelKey(modelKey);
+            UsageMeter.applyUsage(aiMsg, aiContent, responseNode.path("usage"), TokenEstimator.estimateMessages(messages));
+            return aiContent;
         } catch (Exception e) {
             // 如果大模型API调用失败，使用默认回复
-            System.err.println("大模型API调用失败: " + e.getMessage());
+            log.warn("大模型API调用失败: {}", e.getMessage());
             return "这是AI对\"" + content + "\"的回复。";
         }
     }
@@ -181,10 +185,8 @@ public class MessageController {
                                   @RequestParam(value = "page", defaultValue = "1") int page,
                                   @RequestParam(value = "limit", defaultValue = "50") int limit,
                                   @RequestParam(value = "before", required = false) String before,
-                                  Authentication auth) {
+                                  Authentication auth, @CurrentUser User user) {
         try {
-            System.out.println("DEBUG: list method called with conversationId: " + conversationId);
-            
             // 检查认证状态
             if (auth == null || auth.getDetails() == null) {
                 return ResponseEntity.status(401).body(Map.of(
@@ -194,17 +196,6 @@ public class MessageController {
                 ));
             }
             
-            String userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-            String username = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("username"), null);
-            
-            System.out.println("DEBUG: Using userId: " + userId + ", username: " + username);
-            
-            // 查找用户
-            User user = userRepo.findByUsername(username).orElse(null);
-            if (user == null) {
-                user = userRepo.findById(userId).orElse(null);
-            }
-            
             if (user == null) {
                 return ResponseEntity.status(401).body(Map.of(
                     "code", 401,
@@ -212,13 +203,12 @@ public class MessageController {
                     "message", "用户不存在或已被删除"
                 ));
             }
+            String userId = user.getId();
             
             // 查找对话 - 确保用户只能访问自己的对话
             Optional<Conversation> conversationOpt = conversationRepo.findByIdAndUser(conversationId, user);
-            System.out.println("DEBUG: Conversation found: " + conversationOpt.isPresent());
             
             if (conversationOpt.isEmpty()) {
-                System.out.println("DEBUG: Conversation not found");
                 return ResponseEntity.status(404).body(Map.of(
                     "code", 404,
                     "error", "对话不存在",
@@ -227,16 +217,30 @@ public class MessageController {
             }
             
             Conversation c = conversationOpt.get();
-            System.out.println("DEBUG: Conversation title: " + c.getTitle());
             
             // 查询消息列表
-            System.out.println("DEBUG: Querying messages for conversation: " + conversationId + ", page: " + page + ", limit: " + limit);
             
-            // 使用分页方式获取所有消息
-            Pageable pageable = PageRequest.of(0, 1000);
-            Page<Message> messagePage = messageRepo.findByConversationOrderByCreatedAtDesc(c, pageable);
-            List<Message> messages = messagePage.getContent();
-            System.out.println("DEBUG: Messages found: " + messages.size());
+            // 游标分页：before为上一页返回的nextCursor（也兼容ISO时间戳），每次只按索引读取limit+1行
+            int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            Pageable pageable = PageRequest.of(0, size + 1);
+            List<Message> messages;
+            if (before != null && !before.isBlank()) {
+                Cursor cursor = decodeCursor(before);
+                if (cursor == null) {
+                    return ResponseEntity.badRequest().body(Map.of(
+                        "code", 400,
+                        "error", "无效的分页游标"
+                    ));
+                }
+                messages = messageRepo.findBefore(c.getId(), cursor.createdAt(), cursor.id(), pageable);
+            } else {
+                messages = messageRepo.findLatest(c.getId(), pageable);
+            }
+            boolean hasMore = messages.size() > size;
+            if (hasMore) messages = messages.subList(0, size);
+            // 最早一条消息即下一页（更早消息）的游标
+            String nextCursor = hasMore ? encodeCursor(messages.get(messages.size() - 1)) : null;
+            log.debug("查询消息: conversationId={}, before={}, limit={}, found={}", conversationId, before, size, messages.size());
             
             List<Map<String,Object>> msgs = new ArrayList<>();
             for (Message m : messages) {
@@ -255,30 +259,24 @@ public class MessageController {
             // 反转消息顺序，使最新消息在底部
             Collections.reverse(msgs);
             
-            // 手动处理分页
-            int startIndex = Math.max(0, (page - 1) * limit);
-            int endIndex = Math.min(msgs.size(), startIndex + limit);
-            List<Map<String,Object>> paginatedMessages = msgs.subList(startIndex, endIndex);
+            // 总数取自对话上的消息计数，尚未回填的旧对话才执行count
+            long total = c.getMessageCount() != null ? c.getMessageCount() : messageRepo.countByConversation(c);
+            Map<String,Object> pagination = new HashMap<>();
+            pagination.put("page", page);
+            pagination.put("limit", size);
+            pagination.put("total", total);
+            pagination.put("hasMore", hasMore);
+            pagination.put("nextCursor", nextCursor);
             
             Map<String,Object> res = new HashMap<>();
             res.put("code", 200);
             res.put("data", Map.of(
-                "messages", paginatedMessages, 
-                "pagination", Map.of(
-                    "page", page, 
-                    "limit", limit, 
-                    "total", msgs.size(), 
-                    "hasMore", endIndex < msgs.size()
-                )
+                "messages", msgs, 
+                "pagination", pagination
             ));
-            
-            System.out.println("DEBUG: Response prepared successfully");
             return ResponseEntity.ok(res);
         } catch (Exception e) {
-            System.err.println("ERROR in MessageController.list: ");
-            e.printStackTrace(System.err);
-            System.out.println("ERROR message: " + e.getMessage());
-            System.out.println("ERROR class: " + e.getClass().getName());
+            log.error("查询消息列表失败: conversationId={}", conversationId, e);
             
             // 返回更详细的错误信息
             return ResponseEntity.status(500).body(Map.of(
@@ -290,6 +288,30 @@ public class MessageController {
         }
     }
 
+    private record Cursor(Instant createdAt, String id) {}
+
+    // 游标格式：base64url("createdAt|id")，对客户端不透明
+    private static String encodeCursor(Message m) {
+        String raw = m.getCreatedAt().toString() + "|" + m.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
+
+    // 解析失败返回null；纯ISO时间戳只按createdAt过滤（id取空串，不会匹配同一时刻的消息）
+    private static Cursor decodeCursor(String cursor) {
+        try {
+            return new Cursor(Instant.parse(cursor), "");
+        } catch (Exception ignored) {
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), java.nio.charset.StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            if (sep <= 0 || sep == raw.length() - 1) return null;
+            return new Cursor(Instant.parse(raw.substring(0, sep)), raw.substring(sep + 1));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     @PostMapping("/read")
     public ResponseEntity<?> markRead(@RequestBody Map<String,Object> body) {
         Map<String,Object> res = new HashMap<>();
@@ -299,7 +321,7 @@ public class MessageController {
     }
 
     @GetMapping("/unread-count")
-    public ResponseEntity<?> unreadCount(Authentication auth) {
+    public ResponseEntity<?> unreadCount(Authentication auth, @CurrentUser User user) {
         if (auth == null || auth.getDetails() == null) {
             return ResponseEntity.status(401).body(Map.of(
                 "code", 401,
@@ -308,16 +330,6 @@ public class MessageController {
             ));
         }
         
-        String userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-        String username = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("username"), null);
-        
-        // 尝试通过用户名查找用户
-        User user = userRepo.findByUsername(username).orElse(null);
-        if (user == null) {
-            // 如果通过用户名找不到，尝试通过userId查找
-            user = userRepo.findById(userId).orElse(null);
-        }
-        
         if (user == null) {
             Map<String,Object> error = new HashMap<>();
             error.put("code", 404);
@@ -353,7 +365,7 @@ public class MessageController {
     @PostMapping("/{messageId}/action")
     public ResponseEntity<?> logAction(@PathVariable String messageId, 
                                       @RequestBody Map<String, Object> body,
-                                      Authentication auth) {
+                                      Authentication auth, @CurrentUser User user) {
         try {
             // 检查认证状态
             if (auth == null || auth.getDetails() == null) {
@@ -364,15 +376,6 @@ public class MessageController {
                 ));
             }
             
-            String userId = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("userId"), null);
-            String username = java.util.Objects.toString(((Map<?,?>) auth.getDetails()).get("username"), null);
-            
-            // 查找用户
-            User user = userRepo.findByUsername(username).orElse(null);
-            if (user == null) {
-                user = userRepo.findById(userId).orElse(null);
-            }
-            
             if (user == null) {
                 return ResponseEntity.status(404).body(Map.of(
                     "code", 404,
@@ -402,8 +405,8 @@ public class MessageController {
             actionLog.setConversationId(conversationId);
             actionLog.setDetails(details);
             
-            // 保存操作记录
-            userActionLogRepo.save(actionLog);
+            // 放入异步写入队列，id在提交时生成
+            logWriter.submit(actionLog);
             
             return ResponseEntity.ok(Map.of(
                 "code", 200,
@@ -418,8 +421,7 @@ public class MessageController {
             ));
             
         } catch (Exception e) {
-            System.err.println("记录操作日志失败: " + e.getMessage());
-            e.printStackTrace();
+            log.error("记录操作日志失败", e);
             return ResponseEntity.status(500).body(Map.of(
                 "code", 500,
                 "error", "服务器内部错误",
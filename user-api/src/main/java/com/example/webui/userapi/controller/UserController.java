@@ -1,16 +1,20 @@
 package com.example.webui.userapi.controller;
 
+import com.example.webui.common.cache.ConfigCache;
 import com.example.webui.common.entity.User;
 import com.example.webui.common.entity.AuditLog;
 import com.example.webui.common.repo.UserRepository;
+import com.example.webui.common.stats.StatsCounters;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 // validation annotations not used directly; remove jakarta imports for Java 11
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import jakarta.servlet.http.Cookie;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,11 +34,11 @@ public class UserController {
     @Autowired
     private com.example.webui.common.repo.PasswordResetRepository passwordResetRepo;
     @Autowired
-    private com.example.webui.common.repo.AuditLogRepository auditRepo;
+    private com.example.webui.common.log.AsyncLogWriter logWriter;
     @Autowired
-    private com.example.webui.common.repo.ModelConfigRepository modelConfigRepo;
+    private ConfigCache configCache;
     @Autowired
-    private com.example.webui.common.repo.WorkflowConfigRepository workflowConfigRepo;
+    private StatsCounters stats;
 
     @Value("${jwt.secret}")
     private String jwtSecret;
@@ -81,6 +85,7 @@ public class UserController {
         u.setIdCard(idCard.trim());
         u.setStatus("PENDING"); // 注册后状态为待审核
         userRepo.save(u);
+        stats.inserted(StatsCounters.USERS, u.getStatus());
 
         Map<String, Object> res = new HashMap<>();
         res.put("code", 201);
@@ -141,7 +146,8 @@ public class UserController {
             log.setIp(request.getHeader("X-Forwarded-For") != null ? request.getHeader("X-Forwarded-For") : request.getRemoteAddr());
             log.setAction("login");
             log.setDetails("用户登录");
-            auditRepo.save(log);
+            // 异步批量写入，不阻塞登录
+            logWriter.submit(log);
         } catch (Exception ignored) {}
         Map<String, Object> res = new HashMap<>();
         res.put("code", 200);
@@ -173,6 +179,7 @@ public class UserController {
             admin.setIdCard("110101199001010000");
             admin.setRole("ADMIN");
             userRepo.save(admin);
+            stats.inserted(StatsCounters.USERS, admin.getStatus());
         } else {
             // Always update the password to ensure it's correctly hashed
             admin.setPassword(org.springframework.security.crypto.bcrypt.BCrypt.hashpw("Abcdef1!", org.springframework.security.crypto.bcrypt.BCrypt.gensalt(12)));
@@ -194,6 +201,7 @@ public class UserController {
             admin2.setIdCard("110101199001010002");
             admin2.setRole("ADMIN");
             userRepo.save(admin2);
+            stats.inserted(StatsCounters.USERS, admin2.getStatus());
         } else {
             // Always update the password to ensure it's correctly hashed
             admin2.setPassword(org.springframework.security.crypto.bcrypt.BCrypt.hashpw("Abcdef1!", org.springframework.security.crypto.bcrypt.BCrypt.gensalt(12)));
@@ -215,6 +223,7 @@ public class UserController {
             admin3.setIdCard("110101199001010003");
             admin3.setRole("ADMIN");
             userRepo.save(admin3);
+            stats.inserted(StatsCounters.USERS, admin3.getStatus());
         } else {
             // Always update the password to ensure it's correctly hashed
             admin3.setPassword(org.springframework.security.crypto.bcrypt.BCrypt.hashpw("Abcdef1!", org.springframework.security.crypto.bcrypt.BCrypt.gensalt(12)));
@@ -346,44 +355,12 @@ public class UserController {
     }
 
     @GetMapping("/models")
-    public ResponseEntity<?> getAvailableModels() {
-        // 获取所有启用的模型配置
-        var enabledModels = modelConfigRepo.findByEnabledTrueOrderByUpdatedAtDesc();
-        
-        // 获取所有启用的工作流配置
-        var enabledWorkflows = workflowConfigRepo.findByEnabledTrueOrderByUpdatedAtDesc();
-        
-        Map<String, Object> response = new HashMap<>();
-        response.put("code", 200);
-        
-        Map<String, Object> data = new HashMap<>();
-        
-        // 转换模型数据，避免返回敏感信息
-        var models = enabledModels.stream().map(m -> {
-            Map<String, Object> modelMap = new HashMap<>();
-            modelMap.put("id", m.getId());
-            modelMap.put("name", m.getModelName());
-            modelMap.put("tag", m.getTag());
-            modelMap.put("provider", m.getProvider());
-            modelMap.put("type", "model");
-            return modelMap;
-        }).toList();
-        
-        // 转换工作流数据
-        var workflows = enabledWorkflows.stream().map(w -> {
-            Map<String, Object> workflowMap = new HashMap<>();
-            workflowMap.put("id", w.getId());
-            workflowMap.put("name", w.getName());
-            workflowMap.put("description", w.getDescription());
-            workflowMap.put("type", "workflow");
-            return workflowMap;
-        }).toList();
-        
-        // 合并模型和工作流列表
-        data.put("items", models);
-        data.put("workflows", workflows);
-        response.put("data", data);
-        
-        return ResponseEntity.ok(response);
+    public ResponseEntity<?> getAvailableModels(WebRequest request) {
+        // 启用的模型和工作流列表（不含敏感信息），由配置缓存预先序列化
+        ConfigCache.ModelList list = configCache.modelList();
+        if (request.checkNotModified(list.etag())) {
+            return null;
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).eTag(list.etag()).body(list.json());
     }
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.AnalyticsRollup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 后台分析数据的增量汇总：定时把原始表（messages、user_action_logs、feedbacks）按小时汇总到analytics_rollups，
+ * 再由小时数据合计出按天数据，后台分析接口只读汇总表。
+ *
+ * 每次从最近一个已汇总的小时往前回溯lookback-hours开始重算，覆盖消息生成结束后才写入的状态和token用量；
+ * 每个小时桶整体删除后重新写入，重复执行结果不变（多实例同时执行也只是重复计算）。
+ * 首次运行从backfill-days天前开始，每次最多处理max-hours-per-run个小时，逐次追上当前时间。
+ *
+ * 指标（维度）：messages（角色/状态）、prompt_tokens / completion_tokens / model_requests（模型或工作流ID）、
+ * active_users（无，发送过消息的用户数，按天的值单独去重统计）、actions（操作类型，如like/dislike）、feedbacks（反馈类型）
+ */
+@Service
+public class AnalyticsRollupJob {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsRollupJob.class);
+
+    public static final String MESSAGES = "messages";
+    public static final String PROMPT_TOKENS = "prompt_tokens";
+    public static final String COMPLETION_TOKENS = "completion_tokens";
+    public static final String MODEL_REQUESTS = "model_requests";
+    public static final String ACTIVE_USERS = "active_users";
+    public static final String ACTIONS = "actions";
+    public static final String FEEDBACKS = "feedbacks";
+
+    private static final String INSERT =
+            "INSERT INTO analytics_rollups (granularity, bucket_start, metric, dimension, metric_value) VALUES (?, ?, ?, ?, ?)";
+    private static final String ACTIVE_USERS_SQL =
+            "SELECT COUNT(DISTINCT c.user_id) FROM messages m JOIN conversations c ON c.id = m.conversation_id " +
+            "WHERE m.created_at >= ? AND m.created_at < ? AND m.role = 'user'";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final int lookbackHours;
+    private final int backfillDays;
+    private final int maxHoursPerRun;
+    private final Clock clock;
+    private final ZoneId zone;
+
+    @Autowired
+    public AnalyticsRollupJob(JdbcTemplate jdbc, TransactionTemplate tx,
+                              @Value("${analytics.lookback-hours:2}") int lookbackHours,
+                              @Value("${analytics.backfill-days:30}") int backfillDays,
+                              @Value("${analytics.max-hours-per-run:48}") int maxHoursPerRun) {
+        this(jdbc, tx, lookbackHours, backfillDays, maxHoursPerRun, Clock.systemDefaultZone());
+    }
+
+    AnalyticsRollupJob(JdbcTemplate jdbc, TransactionTemplate tx, int lookbackHours, int backfillDays,
+                       int maxHoursPerRun, Clock clock) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.lookbackHours = Math.max(1, lookbackHours);
+        this.backfillDays = Math.max(1, backfillDays);
+        // 每次至少要比回溯多处理一个小时，否则补历史数据时无法前进
+        this.maxHoursPerRun = Math.max(this.lookbackHours + 1, maxHoursPerRun);
+        this.clock = clock;
+        this.zone = clock.getZone();
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.rollup-interval-ms:300000}", initialDelayString = "${analytics.rollup-interval-ms:300000}")
+    public void run() {
+        try {
+            rollup();
+        } catch (Exception e) {
+            log.warn("汇总分析数据失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 汇总一轮，返回处理的小时数
+     */
+    int rollup() {
+        Instant currentHour = Instant.now(clock).truncatedTo(ChronoUnit.HOURS);
+        Instant earliest = LocalDate.ofInstant(currentHour, zone).minusDays(backfillDays).atStartOfDay(zone).toInstant();
+        Timestamp latest = jdbc.queryForObject(
+                "SELECT MAX(bucket_start) FROM analytics_rollups WHERE granularity = ?", Timestamp.class, AnalyticsRollup.HOUR);
+        Instant start = latest == null ? earliest : latest.toInstant().minus(Duration.ofHours(lookbackHours));
+        if (start.isBefore(earliest)) start = earliest;
+        Instant end = start.plus(Duration.ofHours(maxHoursPerRun));
+        // 包括当前未结束的小时，当天的数据也能看到
+        if (end.isAfter(currentHour.plus(Duration.ofHours(1)))) end = currentHour.plus(Duration.ofHours(1));
+
+        TreeSet<LocalDate> days = new TreeSet<>();
+        int hours = 0;
+        for (Instant hour = start; hour.isBefore(end); hour = hour.plus(Duration.ofHours(1))) {
+            Instant from = hour;
+            tx.executeWithoutResult(status -> rollupHour(from, from.plus(Duration.ofHours(1))));
+            days.add(LocalDate.ofInstant(hour, zone));
+            hours++;
+        }
+        for (LocalDate day : days) {
+            tx.executeWithoutResult(status -> rollupDay(day));
+        }
+        return hours;
+    }
+
+    private void rollupHour(Instant from, Instant to) {
+        Timestamp f = Timestamp.from(from), t = Timestamp.from(to);
+        Map<String, Map<String, Long>> values = new LinkedHashMap<>();
+
+        // 一次扫描得到按角色/状态的消息数和按模型的token用量
+        jdbc.query("SELECT role, status, model_key, COUNT(*), COALESCE(SUM(prompt_tokens), 0), COALESCE(SUM(completion_tokens), 0) " +
+                "FROM messages WHERE created_at >= ? AND created_at < ? GROUP BY role, status, model_key", rs -> {
+            String role = rs.getString(1);
+            long count = rs.getLong(4);
+            put(values, MESSAGES, role + "/" + rs.getString(2), count);
+            String modelKey = rs.getString(3);
+            if (modelKey != null && "assistant".equals(role)) {
+                put(values, PROMPT_TOKENS, modelKey, rs.getLong(5));
+                put(values, COMPLETION_TOKENS, modelKey, rs.getLong(6));
+                put(values, MODEL_REQUESTS, modelKey, count);
+            }
+        }, f, t);
+        // 没有活跃用户时也写入0，最近已汇总的小时据此推进
+        put(values, ACTIVE_USERS, "", count(ACTIVE_USERS_SQL, f, t));
+        jdbc.query("SELECT action, COUNT(*) FROM user_action_logs WHERE created_at >= ? AND created_at < ? GROUP BY action",
+                rs -> { put(values, ACTIONS, rs.getString(1), rs.getLong(2)); }, f, t);
+        jdbc.query("SELECT type, COUNT(*) FROM feedbacks WHERE created_at >= ? AND created_at < ? GROUP BY type",
+                rs -> { put(values, FEEDBACKS, rs.getString(1), rs.getLong(2)); }, f, t);
+
+        jdbc.update("DELETE FROM analytics_rollups WHERE granularity = ? AND bucket_start = ?", AnalyticsRollup.HOUR, f);
+        List<Object[]> rows = new ArrayList<>();
+        values.forEach((metric, dims) -> dims.forEach((dim, v) -> rows.add(new Object[]{AnalyticsRollup.HOUR, f, metric, dim, v})));
+        jdbc.batchUpdate(INSERT, rows);
+    }
+
+    private void rollupDay(LocalDate day) {
+        Timestamp f = Timestamp.from(day.atStartOfDay(zone).toInstant());
+        Timestamp t = Timestamp.from(day.plusDays(1).atStartOfDay(zone).toInstant());
+        jdbc.update("DELETE FROM analytics_rollups WHERE granularity = ? AND bucket_start = ?", AnalyticsRollup.DAY, f);
+        // 可相加的指标由当天的小时数据合计，不再读原始表
+        jdbc.update("INSERT INTO analytics_rollups (granularity, bucket_start, metric, dimension, metric_value) " +
+                "SELECT ?, ?, metric, dimension, SUM(metric_value) FROM analytics_rollups " +
+                "WHERE granularity = ? AND bucket_start >= ? AND bucket_start < ? AND metric <> ? GROUP BY metric, dimension",
+                AnalyticsRollup.DAY, f, AnalyticsRollup.HOUR, f, t, ACTIVE_USERS);
+        // 去重用户数不能相加，按天单独统计
+        jdbc.update(INSERT, AnalyticsRollup.DAY, f, ACTIVE_USERS, "", count(ACTIVE_USERS_SQL, f, t));
+    }
+
+    private long count(String sql, Object... args) {
+        Long n = jdbc.queryForObject(sql, Long.class, args);
+        return n == null ? 0 : n;
+    }
+
+    private static void put(Map<String, Map<String, Long>> values, String metric, String dimension, long value) {
+        String dim = dimension == null ? "" : dimension.length() > 128 ? dimension.substring(0, 128) : dimension;
+        values.computeIfAbsent(metric, k -> new LinkedHashMap<>()).merge(dim, value, Long::sum);
+    }
+}
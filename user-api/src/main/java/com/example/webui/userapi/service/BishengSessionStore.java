@@ -0,0 +1,38 @@
+package com.example.webui.userapi.service;
+
+/**
+ * 对话ID -> Bisheng工作流会话信息的存储。
+ * 实现由 bisheng.session-store.type 选择：memory（单实例，默认）或 jdbc（多实例共享）。
+ */
+public interface BishengSessionStore {
+
+    /**
+     * 工作流会话信息；收到input事件前只有sessionId
+     */
+    record Session(String sessionId, String messageId, String nodeId) {
+        /**
+         * 是否可以用input格式继续对话（三个ID都已知）
+         */
+        public boolean resumable() {
+            return sessionId != null && messageId != null && nodeId != null;
+        }
+    }
+
+    /**
+     * @return 不存在或已过期时返回null
+     */
+    Session get(String conversationId);
+
+    void put(String conversationId, Session session);
+
+    void remove(String conversationId);
+
+    /**
+     * 首次拿到session_id时记录，已有会话信息时不覆盖
+     */
+    default void putSessionIdIfAbsent(String conversationId, String sessionId) {
+        if (get(conversationId) == null) {
+            put(conversationId, new Session(sessionId, null, null));
+        }
+    }
+}
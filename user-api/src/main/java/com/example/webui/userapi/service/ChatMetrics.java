@@ -0,0 +1,228 @@
+package com.example.webui.userapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 聊天生成链路的指标（/actuator/prometheus），按endpoint（/chat/stream等）和model（ModelConfig或WorkflowConfig的ID）打标签：
+ * chat_generation_ttft_seconds（创建AI消息到第一段内容）、chat_generation_inter_token_seconds（相邻两段增量内容的间隔）、
+ * chat_generation_tokens_per_second（第一段内容到结束的输出速度）、chat_generation_db_writes（每次生成的写库次数）、
+ * chat_generations_total（按结束状态：sent、error、interrupted（连接断开或超时）、stopped（用户停止））、
+ * chat_upstream_response_seconds（调用上游到收到第一个事件）、chat_upstream_duration_seconds（整个上游流，按outcome：complete、error、timeout、cancelled）。
+ * SSE连接（只按endpoint）：chat_stream_active、chat_stream_bytes_total、chat_stream_closed_total（按reason：complete、timeout、error）。
+ * 直方图桶在application.yml的management.metrics.distribution中配置。
+ */
+@Service
+public class ChatMetrics {
+
+    public static final String STREAM = "/chat/stream";
+    public static final String RESUME = "/chat/stream/{messageId}";
+
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeStreams = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ChatMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 开始记录一次生成（AI消息已创建），由StreamingMessageWriter在对应的缓冲上调用
+     */
+    public Generation start(String endpoint) {
+        return new Generation(endpoint);
+    }
+
+    /**
+     * 给上游事件流加上响应时间和总时长的记录，每次订阅单独计时
+     */
+    public <T> Flux<T> upstream(Flux<T> flux, String endpoint, String model) {
+        return Flux.defer(() -> {
+            long startedAt = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean();
+            // 在结束信号传给下游之前记录
+            return flux
+                    .doOnNext(item -> {
+                        if (first.compareAndSet(false, true)) {
+                            meters(endpoint, model).upstreamResponse.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doOnComplete(() -> duration(endpoint, model, "complete", startedAt))
+                    .doOnError(e -> duration(endpoint, model, isTimeout(e) ? "timeout" : "error", startedAt))
+                    .doOnCancel(() -> duration(endpoint, model, "cancelled", startedAt));
+        });
+    }
+
+    private void duration(String endpoint, String model, String outcome, long startedAt) {
+        Timer.builder("chat.upstream.duration").tag("endpoint", endpoint).tag("model", tag(model)).tag("outcome", outcome)
+                .description("上游事件流从调用到结束的时间").register(meterRegistry)
+                .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    public void streamOpened(String endpoint) {
+        activeStreams.computeIfAbsent(endpoint, k -> {
+            AtomicInteger active = new AtomicInteger();
+            Gauge.builder("chat.stream.active", active, AtomicInteger::get).tag("endpoint", k)
+                    .description("当前打开的SSE连接数").register(meterRegistry);
+            return active;
+        }).incrementAndGet();
+    }
+
+    public void streamClosed(String endpoint, String reason) {
+        AtomicInteger active = activeStreams.get(endpoint);
+        if (active != null) active.decrementAndGet();
+        counter("chat.stream.closed", endpoint, reason, "SSE连接结束数").increment();
+    }
+
+    /**
+     * SSE响应写出的字节数，调用方按连接取一次后直接累加
+     */
+    public Counter bytesCounter(String endpoint) {
+        return counter("chat.stream.bytes", endpoint, null, "SSE响应写出的字节数");
+    }
+
+    private Counter counter(String name, String endpoint, String reason, String description) {
+        return counters.computeIfAbsent(name + "|" + endpoint + "|" + reason, k -> {
+            Counter.Builder builder = Counter.builder(name).tag("endpoint", endpoint).description(description);
+            if (reason != null) builder.tag("reason", reason);
+            return builder.register(meterRegistry);
+        });
+    }
+
+    private Meters meters(String endpoint, String model) {
+        return meters.computeIfAbsent(endpoint + "|" + tag(model), k -> new Meters(endpoint, tag(model)));
+    }
+
+    private static String tag(String model) {
+        return model == null || model.isBlank() ? UNKNOWN : model;
+    }
+
+    // 上游读取超时（reactor-netty的ReadTimeoutException）或Reactor的timeout()
+    static boolean isTimeout(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof TimeoutException || t instanceof io.netty.handler.timeout.TimeoutException) return true;
+        }
+        return false;
+    }
+
+    private class Meters {
+        final String endpoint;
+        final String model;
+        final Timer ttft;
+        final Timer interToken;
+        final DistributionSummary tokensPerSecond;
+        final DistributionSummary dbWrites;
+        final Timer upstreamResponse;
+
+        Meters(String endpoint, String model) {
+            this.endpoint = endpoint;
+            this.model = model;
+            this.ttft = Timer.builder("chat.generation.ttft").tag("endpoint", endpoint).tag("model", model)
+                    .description("创建AI消息到第一段内容的时间").register(meterRegistry);
+            this.interToken = Timer.builder("chat.generation.inter.token").tag("endpoint", endpoint).tag("model", model)
+                    .description("相邻两段增量内容的间隔").register(meterRegistry);
+            this.tokensPerSecond = DistributionSummary.builder("chat.generation.tokens.per.second").tag("endpoint", endpoint).tag("model", model)
+                    .description("第一段内容到结束的输出token速度").register(meterRegistry);
+            this.dbWrites = DistributionSummary.builder("chat.generation.db.writes").tag("endpoint", endpoint).tag("model", model)
+                    .description("每次生成的写库次数").register(meterRegistry);
+            this.upstreamResponse = Timer.builder("chat.upstream.response").tag("endpoint", endpoint).tag("model", model)
+                    .description("调用上游到收到第一个事件的时间").register(meterRegistry);
+        }
+
+        Counter outcome(String status) {
+            return Counter.builder("chat.generations").tag("endpoint", endpoint).tag("model", model).tag("status", tag(status))
+                    .description("结束的生成数").register(meterRegistry);
+        }
+    }
+
+    /**
+     * 一次生成的计时状态，调用方负责同步（PendingMessage的方法都是synchronized）。
+     * model在第一段内容时确定（PendingMessage.model在调用上游之前设置）。
+     */
+    public final class Generation {
+        private final String endpoint;
+        private final long startedAt = System.nanoTime();
+        private Meters meters;
+        private long firstAt;
+        private long lastAt;
+        private boolean ttftPending;
+        private boolean streamed;
+        private int dbWrites;
+
+        private Generation(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * 追加了一段增量内容
+         */
+        public void appended(String model) {
+            long now = System.nanoTime();
+            Meters m = meters(model);
+            if (firstAt == 0) {
+                firstAt = now;
+                m.ttft.record(now - startedAt, TimeUnit.NANOSECONDS);
+            } else {
+                if (ttftPending) m.ttft.record(firstAt - startedAt, TimeUnit.NANOSECONDS);
+                m.interToken.record(now - lastAt, TimeUnit.NANOSECONDS);
+            }
+            ttftPending = false;
+            streamed = true;
+            lastAt = now;
+        }
+
+        /**
+         * 内容被整体覆盖：可能是开场白或非流式回复，也可能是紧接着以error结束的错误提示，
+         * 所以首段内容的时间等到后续追加或非error结束时才记录
+         */
+        public void replaced(String model) {
+            long now = System.nanoTime();
+            if (firstAt == 0) {
+                firstAt = now;
+                ttftPending = true;
+            }
+            meters(model);
+            lastAt = now;
+        }
+
+        public void dbWrite() {
+            dbWrites++;
+        }
+
+        public void finished(String model, String status, Integer completionTokens) {
+            Meters m = meters(model);
+            long now = System.nanoTime();
+            if (ttftPending && !"error".equals(status)) {
+                m.ttft.record(firstAt - startedAt, TimeUnit.NANOSECONDS);
+            }
+            // 一次性返回的内容没有输出速度
+            if (streamed && completionTokens != null && completionTokens > 0 && now > firstAt) {
+                m.tokensPerSecond.record(completionTokens * 1e9 / (now - firstAt));
+            }
+            m.dbWrites.record(dbWrites);
+            m.outcome(status).increment();
+        }
+
+        private Meters meters(String model) {
+            if (meters == null) meters = ChatMetrics.this.meters(endpoint, model);
+            return meters;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * /chat/stream 的SSE输出格式，由请求体的protocol字段选择：
+ * v2（protocol=v2）—— start事件给出消息ID，delta事件只带新增文本和递增序号，done事件带最终内容和token用量；
+ * v1（默认）—— 每次变化都推送完整消息快照（message事件），不传protocol的旧客户端保持原格式，内容长度为n时总传输量约n²/2。
+ * 错误事件（error）两种格式相同。
+ *
+ * 同一次生成可以有多个订阅端：断线的客户端通过 GET /chat/stream/{messageId} 重新连接，
+ * v2按Last-Event-ID从环形缓冲区补发缺失的事件，v1补发一次当前快照。
+ */
+public abstract class ChatStreamSink {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatStreamSink.class);
+
+    public static final String V1 = "v1";
+    public static final String V2 = "v2";
+
+    protected final Function<Message, Map<String, Object>> mapper;
+    private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+    private volatile Runnable onAbandoned;
+    protected StreamingMessageWriter.PendingMessage pending;
+    private boolean completed;
+
+    ChatStreamSink(SseEmitter emitter, Function<Message, Map<String, Object>> mapper) {
+        this.mapper = mapper;
+        subscribe(emitter);
+    }
+
+    /**
+     * @param mapper v1快照以及start事件中消息对象的格式
+     * @param replayBufferSize v2保留的最近事件数
+     */
+    public static ChatStreamSink create(String protocol, SseEmitter emitter, Function<Message, Map<String, Object>> mapper, int replayBufferSize) {
+        return V2.equalsIgnoreCase(protocol) ? new Delta(emitter, mapper, replayBufferSize) : new Snapshot(emitter, mapper);
+    }
+
+    /**
+     * 用户消息已保存、AI消息已创建（内容为空），客户端已断开时抛出异常由调用方结束本次生成
+     */
+    public synchronized void start(Message userMsg, StreamingMessageWriter.PendingMessage pending) throws IOException {
+        this.pending = pending;
+        sendStart(userMsg, pending.getMessage());
+        if (subscribers.isEmpty()) throw new IOException("SSE连接已断开");
+    }
+
+    protected abstract void sendStart(Message userMsg, Message aiMsg);
+
+    /**
+     * AI消息内容有变化（追加或覆盖）
+     */
+    public abstract void update(StreamingMessageWriter.PendingMessage pending);
+
+    /**
+     * 生成已结束（pending已finish），推送最终结果；重复调用只有第一次生效
+     */
+    public abstract void done(StreamingMessageWriter.PendingMessage pending);
+
+    /**
+     * 排队位置变化（v2推送queue事件，不进入重放缓冲区；v1客户端不认识该事件，不推送）
+     */
+    public void queued(int position, long etaMs) {
+    }
+
+    /**
+     * 错误事件（上游工作流报错等），不结束本次生成
+     */
+    public synchronized void error(Map<String, Object> data) {
+        sendAll(null, "error", data);
+    }
+
+    /**
+     * 结束所有订阅端的SSE响应，之后重新连接的客户端补发事件后立即结束
+     */
+    public synchronized void complete() {
+        if (completed) return;
+        completed = true;
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.complete();
+            } catch (Exception e) {
+                // 忽略完成异常
+            }
+        }
+    }
+
+    /**
+     * 断线重连：补发lastEventId之后的事件，生成未结束时继续接收后续事件
+     * @param lastEventId 客户端收到的最后一个事件ID，没有时为0
+     */
+    public synchronized void attach(SseEmitter emitter, long lastEventId) {
+        try {
+            replay(emitter, lastEventId);
+        } catch (Exception e) {
+            log.warn("补发SSE事件失败: {}", e.getMessage());
+            return;
+        }
+        if (completed) {
+            emitter.complete();
+        } else {
+            subscribe(emitter);
+        }
+    }
+
+    protected abstract void replay(SseEmitter emitter, long lastEventId) throws IOException;
+
+    /**
+     * 所有订阅端都断开时的回调（设置时已经没有订阅端则立即执行）
+     */
+    public void onAbandoned(Runnable callback) {
+        this.onAbandoned = callback;
+        if (subscribers.isEmpty()) callback.run();
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    // SseEmitter的完成/超时/出错回调都只能设置一个，统一在这里登记
+    private void subscribe(SseEmitter emitter) {
+        subscribers.add(emitter);
+        emitter.onCompletion(() -> detach(emitter));
+        emitter.onTimeout(() -> detach(emitter));
+        emitter.onError(e -> detach(emitter));
+    }
+
+    private void detach(SseEmitter emitter) {
+        if (subscribers.remove(emitter) && subscribers.isEmpty()) {
+            Runnable callback = onAbandoned;
+            if (callback != null) callback.run();
+        }
+    }
+
+    protected void sendAll(Long id, String name, Object data) {
+        for (SseEmitter emitter : subscribers) {
+            try {
+                send(emitter, id, name, data);
+            } catch (Exception e) {
+                // 写失败说明客户端已断开，等待其重新连接
+                log.debug("发送SSE消息失败: {}", e.getMessage());
+                detach(emitter);
+            }
+        }
+    }
+
+    protected static void send(SseEmitter emitter, Long id, String name, Object data) throws IOException {
+        SseEmitter.SseEventBuilder event = SseEmitter.event();
+        if (id != null) event.id(String.valueOf(id));
+        emitter.send(event.name(name).data(data));
+    }
+
+    /**
+     * 生成已不在内存中（已过保留期或在其他实例上）时，按数据库中的消息推送一个done事件并结束
+     */
+    public static void sendStored(SseEmitter emitter, Message m) {
+        try {
+            send(emitter, null, "done", doneData(m, 0));
+            emitter.complete();
+        } catch (Exception e) {
+            // 忽略发送异常
+        }
+    }
+
+    static Map<String, Object> doneData(Message m, long seq) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("type", "done");
+        data.put("id", m.getId());
+        data.put("conversationId", m.getConversation().getId());
+        data.put("seq", seq);
+        data.put("status", m.getStatus());
+        data.put("content", m.getContent());
+        if (m.getTotalTokens() > 0) {
+            data.put("usage", Map.of(
+                    "promptTokens", m.getPromptTokens(),
+                    "completionTokens", m.getCompletionTokens(),
+                    "totalTokens", m.getTotalTokens()));
+        }
+        return data;
+    }
+
+    // v1：完整快照
+    static final class Snapshot extends ChatStreamSink {
+        private boolean done;
+
+        Snapshot(SseEmitter emitter, Function<Message, Map<String, Object>> mapper) {
+            super(emitter, mapper);
+        }
+
+        @Override
+        protected void sendStart(Message userMsg, Message aiMsg) {
+            sendAll(null, "message", mapper.apply(userMsg));
+        }
+
+        @Override
+        public synchronized void update(StreamingMessageWriter.PendingMessage pending) {
+            if (done) return;
+            sendAll(null, "message", mapper.apply(pending.view()));
+        }
+
+        @Override
+        public synchronized void done(StreamingMessageWriter.PendingMessage pending) {
+            if (done) return;
+            done = true;
+            sendAll(null, "message", mapper.apply(pending.view()));
+        }
+
+        @Override
+        protected void replay(SseEmitter emitter, long lastEventId) throws IOException {
+            if (pending != null) {
+                send(emitter, null, "message", mapper.apply(pending.view()));
+            }
+        }
+    }
+
+    // v2：start / delta / done，事件ID即seq
+    static final class Delta extends ChatStreamSink {
+        private record Event(long id, String name, Map<String, Object> data) {}
+
+        private final int bufferSize;
+        private final ArrayDeque<Event> buffer = new ArrayDeque<>();
+        private Event doneEvent;
+        private long seq;
+        private int offset;
+        private int replaces;
+        private boolean done;
+
+        Delta(SseEmitter emitter, Function<Message, Map<String, Object>> mapper, int bufferSize) {
+            super(emitter, mapper);
+            this.bufferSize = Math.max(1, bufferSize);
+        }
+
+        @Override
+        protected void sendStart(Message userMsg, Message aiMsg) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("type", "start");
+            data.put("conversationId", aiMsg.getConversation().getId());
+            data.put("messageId", aiMsg.getId());
+            data.put("userMessage", mapper.apply(userMsg));
+            data.put("message", mapper.apply(aiMsg));
+            sendAll(null, "start", data);
+        }
+
+        @Override
+        public synchronized void update(StreamingMessageWriter.PendingMessage pending) {
+            if (done) return;
+            StreamingMessageWriter.Tail tail = pending.tail(offset, replaces);
+            offset = tail.end();
+            replaces = tail.replaces();
+            if (tail.text().isEmpty() && !tail.reset()) return;
+            // 内容被整体覆盖（开场白、工作流最终内容等），text为完整内容，客户端应替换而不是追加
+            publish("delta", deltaData(pending.getMessage().getId(), ++seq, tail.text(), tail.reset()));
+        }
+
+        @Override
+        public synchronized void done(StreamingMessageWriter.PendingMessage pending) {
+            if (done) return;
+            done = true;
+            // done事件带完整内容，之前的增量不再需要补发
+            buffer.clear();
+            doneEvent = publish("done", doneData(pending.view(), ++seq));
+        }
+
+        @Override
+        public synchronized void error(Map<String, Object> data) {
+            publish("error", data);
+        }
+
+        @Override
+        public synchronized void queued(int position, long etaMs) {
+            if (done || pending == null) return;
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("type", "queue");
+            data.put("id", pending.getMessage().getId());
+            data.put("position", position);
+            data.put("etaMs", etaMs);
+            sendAll(null, "queue", data);
+        }
+
+        private Event publish(String name, Map<String, Object> data) {
+            Event event = new Event(name.equals("error") ? ++seq : seq, name, data);
+            buffer.addLast(event);
+            if (buffer.size() > bufferSize) buffer.removeFirst();
+            sendAll(event.id(), name, data);
+            return event;
+        }
+
+        @Override
+        protected void replay(SseEmitter emitter, long lastEventId) throws IOException {
+            if (lastEventId >= seq) return;
+            Event first = buffer.peekFirst();
+            if (first != null && first.id() <= lastEventId + 1) {
+                for (Event event : buffer) {
+                    if (event.id() > lastEventId) send(emitter, event.id(), event.name(), event.data());
+                }
+            } else if (doneEvent != null) {
+                send(emitter, doneEvent.id(), doneEvent.name(), doneEvent.data());
+            } else if (pending != null) {
+                // 缺失的事件已移出缓冲区：补发一条已推送内容的完整快照（reset），之后继续接收增量
+                String content = pending.content();
+                String sent = content.substring(0, Math.min(offset, content.length()));
+                send(emitter, seq, "delta", deltaData(pending.getMessage().getId(), seq, sent, true));
+            }
+        }
+
+        private static Map<String, Object> deltaData(String id, long seq, String text, boolean reset) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("type", "delta");
+            data.put("id", id);
+            data.put("seq", seq);
+            data.put("text", text);
+            if (reset) data.put("reset", true);
+            return data;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.entity.ModelConfig;
+import com.example.webui.common.repo.MessageRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 组装发给大模型的对话上下文：系统提示词 + 按token预算截取的最近若干条历史消息（最后一条为本轮用户消息）。
+ * 预算 = 模型的contextWindow（未配置时用默认值）- 回复预留的max_tokens - 系统提示词，token数用本地估算。
+ *
+ * 每个活跃对话在内存中保留一个窗口：首次使用时按游标分页从新到旧加载到预算为止，
+ * 之后新消息通过append追加、超出预算的旧消息从头部丢弃，每轮的开销只和新增消息数有关，
+ * 不再随对话历史长度增长。窗口闲置一段时间后淘汰，下次使用时重新加载。
+ */
+@Service
+public class ConversationContextBuilder {
+
+    public static final String SYSTEM_PROMPT = "你是一个有帮助的AI助手。";
+
+    // 回复预留的token数，与请求中的max_tokens一致
+    public static final int REPLY_TOKENS = 1024;
+
+    private static final int PAGE_SIZE = 50;
+
+    private final MessageRepository messageRepo;
+    private final int defaultContextWindow;
+    private final Cache<String, Window> windows;
+
+    @Autowired
+    public ConversationContextBuilder(MessageRepository messageRepo,
+                                      @Value("${chat.context.default-window:8192}") int defaultContextWindow,
+                                      @Value("${chat.context.idle-minutes:30}") long idleMinutes,
+                                      @Value("${chat.context.max-conversations:10000}") long maxConversations) {
+        this.messageRepo = messageRepo;
+        this.defaultContextWindow = defaultContextWindow;
+        this.windows = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .maximumSize(maxConversations)
+                .build();
+    }
+
+    /**
+     * 历史消息可用的token预算（不含系统提示词）
+     */
+    public int budget(ModelConfig modelConfig) {
+        Integer configured = modelConfig != null ? modelConfig.getContextWindow() : null;
+        int window = configured != null && configured > 0 ? configured : defaultContextWindow;
+        return Math.max(0, window - REPLY_TOKENS - TokenEstimator.estimateMessage(SYSTEM_PROMPT));
+    }
+
+    /**
+     * 本轮请求的messages：系统提示词 + 预算内的最近历史（从旧到新）。
+     * 本轮用户消息须已保存；预算不足时至少包含最后一条消息
+     */
+    public List<Map<String, String>> messages(String conversationId, ModelConfig modelConfig) {
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", SYSTEM_PROMPT));
+        windows.get(conversationId, Window::new).collect(budget(modelConfig), messages);
+        return messages;
+    }
+
+    /**
+     * 消息已保存（用户消息）或已生成完成（AI消息）时调用，只更新已在内存中的窗口
+     */
+    public void append(Message message) {
+        if (message.getConversation() == null || !usable(message)) return;
+        Window window = windows.getIfPresent(message.getConversation().getId());
+        if (window != null) window.append(message);
+    }
+
+    /**
+     * 对话被删除或消息被修改后丢弃窗口
+     */
+    public void invalidate(String conversationId) {
+        windows.invalidate(conversationId);
+    }
+
+    // 生成中、出错的消息和空消息不进入上下文
+    private static boolean usable(Message m) {
+        return ("user".equals(m.getRole()) || "assistant".equals(m.getRole()))
+                && !"generating".equals(m.getStatus()) && !"error".equals(m.getStatus()) && !"failed".equals(m.getStatus())
+                && m.getContent() != null && !m.getContent().isBlank();
+    }
+
+    private record Entry(String id, Instant createdAt, String role, String content, int tokens) {}
+
+    private final class Window {
+        private final String conversationId;
+        // 从旧到新
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final Set<String> ids = new HashSet<>();
+        private int tokens;
+        // 数据库中是否可能还有比窗口更早的消息，以及下一页的游标（已检查过的最早一行）
+        private boolean hasOlder = true;
+        private Instant cursorCreatedAt;
+        private String cursorId;
+        // 窗口保留的token数，取用过的最大预算
+        private int retain;
+
+        Window(String conversationId) {
+            this.conversationId = conversationId;
+        }
+
+        synchronized void collect(int budget, List<Map<String, String>> out) {
+            retain = Math.max(retain, budget);
+            if (tokens < budget && hasOlder) loadOlder(budget);
+            int used = 0;
+            int from = entries.size();
+            Iterator<Entry> it = entries.descendingIterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                if (from < entries.size() && used + e.tokens() > budget) break;
+                used += e.tokens();
+                from--;
+            }
+            int i = 0;
+            for (Entry e : entries) {
+                if (i++ >= from) out.add(Map.of("role", e.role(), "content", e.content()));
+            }
+        }
+
+        synchronized void append(Message m) {
+            if (!ids.add(m.getId())) return;
+            Entry entry = new Entry(m.getId(), m.getCreatedAt(), m.getRole(), m.getContent(), TokenEstimator.estimateMessage(m.getContent()));
+            entries.addLast(entry);
+            tokens += entry.tokens();
+            while (tokens > retain && entries.size() > 1) {
+                Entry removed = entries.removeFirst();
+                ids.remove(removed.id());
+                tokens -= removed.tokens();
+                // 丢弃的消息仍在数据库中，需要时从当前最早的消息继续往前加载
+                Entry oldest = entries.peekFirst();
+                cursorCreatedAt = oldest.createdAt();
+                cursorId = oldest.id();
+                hasOlder = true;
+            }
+        }
+
+        // 从游标往前分页加载，直到达到预算或没有更早的消息
+        private void loadOlder(int budget) {
+            PageRequest page = PageRequest.of(0, PAGE_SIZE);
+            while (tokens < budget && hasOlder) {
+                List<Message> rows = cursorId == null
+                        ? messageRepo.findLatest(conversationId, page)
+                        : messageRepo.findBefore(conversationId, cursorCreatedAt, cursorId, page);
+                int consumed = 0;
+                for (Message m : rows) {
+                    if (tokens >= budget) break;
+                    consumed++;
+                    cursorCreatedAt = m.getCreatedAt();
+                    cursorId = m.getId();
+                    if (!usable(m) || !ids.add(m.getId())) continue;
+                    Entry entry = new Entry(m.getId(), m.getCreatedAt(), m.getRole(), m.getContent(), TokenEstimator.estimateMessage(m.getContent()));
+                    entries.addFirst(entry);
+                    tokens += entry.tokens();
+                }
+                // 最后一页已全部检查过
+                if (consumed == rows.size() && rows.size() < PAGE_SIZE) hasOlder = false;
+            }
+        }
+    }
+}
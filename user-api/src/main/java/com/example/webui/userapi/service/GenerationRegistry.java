@@ -0,0 +1,207 @@
+package com.example.webui.userapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 正在进行的流式生成，按AI消息ID登记。
+ * 用户点击停止，或所有SSE连接断开且宽限期内没有客户端重新连接时取消：取消上游订阅、
+ * 通知上游停止（Bisheng stopWorkflow），并把已生成的部分内容以stopped/interrupted状态落盘。
+ * 每个生成只会结束一次；结束后在内存中再保留一段时间，供断线的客户端补收最后的事件。
+ */
+@Service
+public class GenerationRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(GenerationRegistry.class);
+
+    private final Map<String, Generation> inFlight = new ConcurrentHashMap<>();
+    // 已结束的生成（连同其事件缓冲区）保留到期后释放
+    private final Cache<String, Generation> recent;
+    private final long resumeGraceMs;
+
+    @Autowired
+    public GenerationRegistry(@Value("${chat.stream.replay-retention-seconds:60}") long retentionSeconds,
+                              @Value("${chat.stream.resume-grace-ms:30000}") long resumeGraceMs) {
+        this.recent = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofSeconds(retentionSeconds))
+                .build();
+        this.resumeGraceMs = resumeGraceMs;
+    }
+
+    GenerationRegistry() {
+        this(60, 30_000);
+    }
+
+    public final class Generation {
+        private final String userId;
+        private final String conversationId;
+        private final StreamingMessageWriter.PendingMessage pending;
+        // 调度名额和上游订阅，取消时一起释放
+        private final Disposable.Composite upstream = Disposables.composite();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile Runnable upstreamStop;
+        private volatile Runnable onStopped;
+        private volatile ChatStreamSink sink;
+
+        Generation(String userId, String conversationId, StreamingMessageWriter.PendingMessage pending) {
+            this.userId = userId;
+            this.conversationId = conversationId;
+            this.pending = pending;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getConversationId() {
+            return conversationId;
+        }
+
+        public StreamingMessageWriter.PendingMessage getPending() {
+            return pending;
+        }
+
+        public boolean isDone() {
+            return done.get();
+        }
+
+        public ChatStreamSink getSink() {
+            return sink;
+        }
+
+        /**
+         * 关联SSE输出：取消时推送最终结果并结束所有订阅端
+         */
+        public void setSink(ChatStreamSink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * 关联调度名额或上游订阅；已被取消时立即释放
+         */
+        public void attach(Disposable disposable) {
+            if (disposable == null) return;
+            // 容器已释放时add会直接释放disposable；取消正在进行时由这里或容器二者之一释放
+            if (upstream.add(disposable) && done.get() && upstream.remove(disposable)) disposable.dispose();
+        }
+
+        /**
+         * 设置通知上游停止的动作（例如拿到Bisheng session_id后调用stopWorkflow），只在取消时执行
+         */
+        public void onUpstreamStop(Runnable stop) {
+            this.upstreamStop = stop;
+        }
+
+        public boolean hasUpstreamStop() {
+            return upstreamStop != null;
+        }
+
+        /**
+         * 用户主动停止后的回调（推送最终消息并结束SSE）
+         */
+        public void onStopped(Runnable callback) {
+            this.onStopped = callback;
+        }
+    }
+
+    public Generation start(String userId, StreamingMessageWriter.PendingMessage pending) {
+        Generation g = new Generation(userId, pending.getMessage().getConversation().getId(), pending);
+        inFlight.put(pending.getMessage().getId(), g);
+        return g;
+    }
+
+    /**
+     * 生成正常结束（或已按错误处理），只移出登记
+     * @return 此前尚未结束时返回true
+     */
+    public boolean finish(Generation g) {
+        if (g == null || !g.done.compareAndSet(false, true)) return false;
+        inFlight.remove(g.pending.getMessage().getId(), g);
+        if (g.sink != null) recent.put(g.pending.getMessage().getId(), g);
+        return true;
+    }
+
+    /**
+     * 按AI消息ID查找进行中或刚结束的生成
+     */
+    public Generation lookup(String messageId) {
+        Generation g = inFlight.get(messageId);
+        return g != null ? g : recent.getIfPresent(messageId);
+    }
+
+    /**
+     * 所有SSE连接都已断开：宽限期后仍没有客户端重新连接则取消生成
+     */
+    public void abandon(Generation g) {
+        if (g.isDone()) return;
+        Schedulers.parallel().schedule(() -> {
+            ChatStreamSink sink = g.sink;
+            if (sink == null || !sink.hasSubscribers()) cancel(g, "interrupted");
+        }, resumeGraceMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消生成：已生成的内容以status落盘，取消上游订阅并通知上游停止
+     * @return 此前尚未结束时返回true
+     */
+    public boolean cancel(Generation g, String status) {
+        if (!finish(g)) return false;
+        g.pending.finish(status);
+        ChatStreamSink sink = g.sink;
+        if (sink != null) {
+            sink.done(g.pending);
+            sink.complete();
+        }
+        g.upstream.dispose();
+        Runnable stop = g.upstreamStop;
+        if (stop != null) {
+            try {
+                stop.run();
+            } catch (Exception e) {
+                log.warn("通知上游停止生成失败: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 用户停止某个对话中正在进行的生成
+     * @return 被停止的生成数量
+     */
+    public int stopConversation(String conversationId) {
+        int stopped = 0;
+        for (Generation g : inFlight.values()) {
+            if (conversationId.equals(g.conversationId) && cancel(g, "stopped")) {
+                stopped++;
+                Runnable callback = g.onStopped;
+                if (callback != null) {
+                    try {
+                        callback.run();
+                    } catch (Exception e) {
+                        log.warn("停止回调执行失败: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        return stopped;
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.webui.userapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 流式生成的准入控制：按上游地址（scheme://host:port）限制同时进行的生成数，
+ * 超出上限的请求排队，不占用线程。队列按用户轮转出队，同一用户的请求再多也只能轮到一次，
+ * 不会挤占其他用户；排队位置变化时通过回调推送位置和预计等待时间。
+ * 上限取ModelConfig/WorkflowConfig.maxConcurrency（同一地址以最近一次请求所用配置为准），未配置时用默认值。
+ *
+ * 指标（/actuator/prometheus）：chat_scheduler_queue_depth、chat_scheduler_running（gauge，按upstream），
+ * chat_scheduler_wait_seconds（排队等待时间），chat_scheduler_rejected_total（按upstream、reason）
+ */
+@Service
+public class GenerationScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(GenerationScheduler.class);
+
+    /**
+     * 排队位置回调：position从1开始，etaMs为预计等待毫秒数，还没有耗时样本时为-1
+     */
+    @FunctionalInterface
+    public interface QueueListener {
+        void queued(int position, long etaMs);
+
+        /**
+         * 轮到后无法启动（聊天执行器和boundedElastic都已占满），名额已归还
+         */
+        default void rejected(UpstreamLimiter.BusyException e) {
+        }
+    }
+
+    private final int defaultMaxConcurrent;
+    private final int maxQueue;
+    private final int maxQueuedPerUser;
+    private final TaskExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public GenerationScheduler(@Value("${chat.scheduler.default-max-concurrent:200}") int defaultMaxConcurrent,
+                               @Value("${chat.scheduler.max-queue:1000}") int maxQueue,
+                               @Value("${chat.scheduler.max-queued-per-user:3}") int maxQueuedPerUser,
+                               @Qualifier("chatExecutor") TaskExecutor executor,
+                               MeterRegistry meterRegistry) {
+        this.defaultMaxConcurrent = defaultMaxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxQueuedPerUser = maxQueuedPerUser;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    GenerationScheduler(int defaultMaxConcurrent, int maxQueue, int maxQueuedPerUser) {
+        this(defaultMaxConcurrent, maxQueue, maxQueuedPerUser, Runnable::run, new SimpleMeterRegistry());
+    }
+
+    /**
+     * 提交一次生成：有空闲名额时在当前线程立即执行onStart，否则排队，轮到时在聊天执行器上执行
+     * （执行器已满时在boundedElastic上执行，都无法执行时归还名额并通过listener.rejected通知）。
+     * onStart拿到的Ticket在生成结束时必须release（重复调用只生效一次）；排队中dispose会移出队列。
+     * @param maxConcurrent 该地址的并发上限，为空或不大于0时使用默认值
+     * @throws UpstreamLimiter.BusyException 队列已满或该用户排队的请求过多
+     */
+    public Ticket submit(String url, Integer maxConcurrent, String userId, Consumer<Ticket> onStart, QueueListener listener) {
+        String key = UpstreamLimiter.keyOf(url);
+        Lane lane = lanes.computeIfAbsent(key, Lane::new);
+        Ticket ticket = new Ticket(lane, userId == null ? "" : userId, onStart, listener);
+        boolean startNow;
+        synchronized (lane) {
+            lane.limit = maxConcurrent != null && maxConcurrent > 0 ? maxConcurrent : defaultMaxConcurrent;
+            startNow = lane.running < lane.limit && lane.queued == 0;
+            if (startNow) {
+                lane.running++;
+                ticket.state = Ticket.RUNNING;
+            } else {
+                ArrayDeque<Ticket> userQueue = lane.waiting.get(ticket.userId);
+                if (lane.queued >= maxQueue) {
+                    lane.rejected("queue_full").increment();
+                    throw new UpstreamLimiter.BusyException(key);
+                }
+                if (userQueue != null && userQueue.size() >= maxQueuedPerUser) {
+                    lane.rejected("user_queue_full").increment();
+                    throw new UpstreamLimiter.BusyException(key);
+                }
+                lane.waiting.computeIfAbsent(ticket.userId, k -> new ArrayDeque<>()).addLast(ticket);
+                lane.queued++;
+            }
+        }
+        if (startNow) {
+            lane.waitTimer.record(0, TimeUnit.NANOSECONDS);
+            ticket.startedAt = System.nanoTime();
+            onStart.accept(ticket);
+        } else {
+            lane.notifyPositions();
+        }
+        return ticket;
+    }
+
+    public int queued(String url) {
+        Lane lane = lanes.get(UpstreamLimiter.keyOf(url));
+        return lane == null ? 0 : lane.queued;
+    }
+
+    public int running(String url) {
+        Lane lane = lanes.get(UpstreamLimiter.keyOf(url));
+        return lane == null ? 0 : lane.running;
+    }
+
+    private final class Lane {
+        private final String key;
+        // 按用户分组的等待队列，LinkedHashMap的顺序即轮转顺序
+        private final LinkedHashMap<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<>();
+        private final Timer waitTimer;
+        private int limit = defaultMaxConcurrent;
+        private int running;
+        private int queued;
+        // 单次生成耗时的指数移动平均，用于估算等待时间
+        private volatile double avgHoldMs = -1;
+
+        Lane(String key) {
+            this.key = key;
+            Gauge.builder("chat.scheduler.queue.depth", this, l -> l.queued).tag("upstream", key)
+                    .description("排队等待的生成数").register(meterRegistry);
+            Gauge.builder("chat.scheduler.running", this, l -> l.running).tag("upstream", key)
+                    .description("正在进行的生成数").register(meterRegistry);
+            this.waitTimer = Timer.builder("chat.scheduler.wait").tag("upstream", key)
+                    .description("生成开始前的排队时间").register(meterRegistry);
+        }
+
+        Counter rejected(String reason) {
+            return Counter.builder("chat.scheduler.rejected").tag("upstream", key).tag("reason", reason)
+                    .description("因排队已满或无法启动被拒绝的生成数").register(meterRegistry);
+        }
+
+        // 名额释放：按用户轮转取出下一个等待的请求
+        void release(Ticket ticket) {
+            List<Ticket> toStart = new ArrayList<>();
+            synchronized (this) {
+                running--;
+                while (running < limit && queued > 0) {
+                    Ticket next = pollNext();
+                    running++;
+                    next.state = Ticket.RUNNING;
+                    toStart.add(next);
+                }
+            }
+            long held = System.nanoTime() - ticket.startedAt;
+            double heldMs = held / 1_000_000.0;
+            avgHoldMs = avgHoldMs < 0 ? heldMs : avgHoldMs * 0.8 + heldMs * 0.2;
+            for (Ticket next : toStart) {
+                long now = System.nanoTime();
+                waitTimer.record(now - next.enqueuedAt, TimeUnit.NANOSECONDS);
+                next.startedAt = now;
+                start(next);
+            }
+            if (!toStart.isEmpty()) notifyPositions();
+        }
+
+        // 释放名额的可能是上游回调的事件循环线程，onStart不能在当前线程执行
+        private void start(Ticket next) {
+            Runnable task = () -> next.onStart.accept(next);
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                log.warn("聊天执行器已满，改在boundedElastic上启动生成: upstream={}", key);
+            }
+            try {
+                Schedulers.boundedElastic().schedule(task);
+            } catch (RejectedExecutionException e) {
+                rejected("executor_full").increment();
+                next.release();
+                if (next.listener != null) next.listener.rejected(new UpstreamLimiter.BusyException(key));
+            }
+        }
+
+        private Ticket pollNext() {
+            Iterator<Map.Entry<String, ArrayDeque<Ticket>>> it = waiting.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Ticket>> first = it.next();
+            ArrayDeque<Ticket> queue = first.getValue();
+            Ticket next = queue.pollFirst();
+            it.remove();
+            // 该用户还有请求时排到队尾，等其他用户各轮到一次
+            if (!queue.isEmpty()) waiting.put(first.getKey(), queue);
+            queued--;
+            return next;
+        }
+
+        synchronized boolean remove(Ticket ticket) {
+            ArrayDeque<Ticket> queue = waiting.get(ticket.userId);
+            if (queue == null || !queue.remove(ticket)) return false;
+            if (queue.isEmpty()) waiting.remove(ticket.userId);
+            queued--;
+            return true;
+        }
+
+        // 按轮转顺序计算每个等待请求的位置并通知
+        void notifyPositions() {
+            List<Ticket> order = new ArrayList<>();
+            int limitNow;
+            synchronized (this) {
+                List<Iterator<Ticket>> iterators = new ArrayList<>();
+                for (ArrayDeque<Ticket> queue : waiting.values()) iterators.add(queue.iterator());
+                boolean more = true;
+                while (more) {
+                    more = false;
+                    for (Iterator<Ticket> it : iterators) {
+                        if (it.hasNext()) {
+                            order.add(it.next());
+                            more = true;
+                        }
+                    }
+                }
+                limitNow = Math.max(1, limit);
+            }
+            double avg = avgHoldMs;
+            for (int i = 0; i < order.size(); i++) {
+                Ticket ticket = order.get(i);
+                int position = i + 1;
+                if (ticket.listener == null || ticket.lastPosition == position) continue;
+                ticket.lastPosition = position;
+                // 每一轮释放limit个名额，第position个请求大约需要等待ceil(position/limit)轮
+                long etaMs = avg < 0 ? -1 : (long) (Math.ceil((double) position / limitNow) * avg);
+                try {
+                    ticket.listener.queued(position, etaMs);
+                } catch (Exception e) {
+                    log.warn("推送排队位置失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次生成占用的名额；排队中dispose移出队列，开始后release/dispose归还名额
+     */
+    public final class Ticket implements Disposable {
+        static final int WAITING = 0;
+        static final int RUNNING = 1;
+        static final int RELEASED = 2;
+
+        private final Lane lane;
+        private final String userId;
+        private final Consumer<Ticket> onStart;
+        private final QueueListener listener;
+        private final long enqueuedAt = System.nanoTime();
+        private volatile long startedAt;
+        private volatile int state = WAITING;
+        private volatile int lastPosition;
+
+        Ticket(Lane lane, String userId, Consumer<Ticket> onStart, QueueListener listener) {
+            this.lane = lane;
+            this.userId = userId;
+            this.onStart = onStart;
+            this.listener = listener;
+        }
+
+        public void release() {
+            synchronized (lane) {
+                if (state != RUNNING) return;
+                state = RELEASED;
+            }
+            lane.release(this);
+        }
+
+        @Override
+        public void dispose() {
+            boolean removed;
+            synchronized (lane) {
+                if (state == RUNNING) {
+                    removed = false;
+                } else {
+                    removed = state == WAITING && lane.remove(this);
+                    state = RELEASED;
+                }
+            }
+            if (removed) {
+                lane.notifyPositions();
+            } else {
+                release();
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return state == RELEASED;
+        }
+
+        public boolean isQueued() {
+            return state == WAITING;
+        }
+    }
+}
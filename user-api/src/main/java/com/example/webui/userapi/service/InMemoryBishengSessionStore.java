@@ -0,0 +1,48 @@
+package com.example.webui.userapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * 进程内会话存储：按最后访问时间过期（jdbc存储相同）、超过容量按LRU淘汰，重启或换实例后会话丢失。
+ * 命中/未命中/淘汰指标：cache_gets_total、cache_evictions_total（cache="bisheng.sessions"）
+ */
+@Service
+@ConditionalOnProperty(name = "bisheng.session-store.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryBishengSessionStore implements BishengSessionStore {
+
+    private final Cache<String, Session> cache;
+
+    public InMemoryBishengSessionStore(@Value("${bisheng.session-store.max-size:100000}") long maxSize,
+                                       @Value("${bisheng.session-store.ttl-minutes:1440}") long ttlMinutes,
+                                       MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "bisheng.sessions");
+    }
+
+    @Override
+    public Session get(String conversationId) {
+        return cache.getIfPresent(conversationId);
+    }
+
+    @Override
+    public void put(String conversationId, Session session) {
+        cache.put(conversationId, session);
+    }
+
+    @Override
+    public void remove(String conversationId) {
+        cache.invalidate(conversationId);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.webui.userapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于bisheng_sessions表的会话存储，多个user-api实例共享，重启不丢失。
+ * 前面有一个很小的近端缓存：写操作直接写库并更新本地缓存，近端缓存过期时间很短，
+ * 同一对话的下一轮请求落到其他实例时最多读到near-cache-ttl-seconds之前的值。
+ * 与进程内存储一样按最后访问时间过期：从库中读到时刷新updated_at（最多每分钟写一次）。
+ * 指标：近端缓存 cache_gets_total（cache="bisheng.sessions.near"），
+ * 数据库读取 bisheng_sessions_db_reads_total（result=hit/miss），过期清理 bisheng_sessions_db_evictions_total
+ */
+@Service
+@ConditionalOnProperty(name = "bisheng.session-store.type", havingValue = "jdbc")
+public class JdbcBishengSessionStore implements BishengSessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcBishengSessionStore.class);
+
+    // 读取时刷新updated_at的最小间隔，避免每次读都写库
+    private static final Duration TOUCH_INTERVAL = Duration.ofMinutes(1);
+
+    private final JdbcTemplate jdbc;
+    private final Duration ttl;
+    private final Cache<String, Session> nearCache;
+    private final Counter dbHits;
+    private final Counter dbMisses;
+    private final Counter dbEvictions;
+
+    public JdbcBishengSessionStore(JdbcTemplate jdbc, MeterRegistry meterRegistry,
+                                   @Value("${bisheng.session-store.ttl-minutes:1440}") long ttlMinutes,
+                                   @Value("${bisheng.session-store.near-cache-size:1000}") long nearCacheSize,
+                                   @Value("${bisheng.session-store.near-cache-ttl-seconds:5}") long nearCacheTtlSeconds) {
+        this.jdbc = jdbc;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(nearCacheSize)
+                .expireAfterWrite(Duration.ofSeconds(nearCacheTtlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, nearCache, "bisheng.sessions.near");
+        this.dbHits = Counter.builder("bisheng.sessions.db.reads").tag("result", "hit").register(meterRegistry);
+        this.dbMisses = Counter.builder("bisheng.sessions.db.reads").tag("result", "miss").register(meterRegistry);
+        this.dbEvictions = Counter.builder("bisheng.sessions.db.evictions").register(meterRegistry);
+    }
+
+    @Override
+    public Session get(String conversationId) {
+        Session cached = nearCache.getIfPresent(conversationId);
+        if (cached != null) return cached;
+        Instant now = Instant.now();
+        List<Instant> updatedAt = new ArrayList<>(1);
+        List<Session> rows = jdbc.query(
+                "SELECT session_id, message_id, node_id, updated_at FROM bisheng_sessions WHERE conversation_id = ? AND updated_at >= ?",
+                (rs, i) -> {
+                    updatedAt.add(rs.getTimestamp(4).toInstant());
+                    return new Session(rs.getString(1), rs.getString(2), rs.getString(3));
+                },
+                conversationId, Timestamp.from(now.minus(ttl)));
+        if (rows.isEmpty()) {
+            dbMisses.increment();
+            return null;
+        }
+        dbHits.increment();
+        if (updatedAt.get(0).isBefore(now.minus(TOUCH_INTERVAL))) {
+            jdbc.update("UPDATE bisheng_sessions SET updated_at = ? WHERE conversation_id = ? AND updated_at < ?",
+                    Timestamp.from(now), conversationId, Timestamp.from(now));
+        }
+        Session session = rows.get(0);
+        nearCache.put(conversationId, session);
+        return session;
+    }
+
+    @Override
+    public void put(String conversationId, Session session) {
+        Timestamp now = Timestamp.from(Instant.now());
+        // 先UPDATE，没有行再INSERT；并发插入同一对话时主键冲突，改为更新
+        int updated = jdbc.update("UPDATE bisheng_sessions SET session_id = ?, message_id = ?, node_id = ?, updated_at = ? WHERE conversation_id = ?",
+                session.sessionId(), session.messageId(), session.nodeId(), now, conversationId);
+        if (updated == 0) {
+            try {
+                jdbc.update("INSERT INTO bisheng_sessions (conversation_id, session_id, message_id, node_id, updated_at) VALUES (?, ?, ?, ?, ?)",
+                        conversationId, session.sessionId(), session.messageId(), session.nodeId(), now);
+            } catch (org.springframework.dao.DuplicateKeyException e) {
+                jdbc.update("UPDATE bisheng_sessions SET session_id = ?, message_id = ?, node_id = ?, updated_at = ? WHERE conversation_id = ?",
+                        session.sessionId(), session.messageId(), session.nodeId(), now, conversationId);
+            }
+        }
+        nearCache.put(conversationId, session);
+    }
+
+    /**
+     * 只在没有未过期的会话时写入：过期的行直接覆盖，没有行时插入；
+     * 其他实例同时插入时以先写入的为准，不覆盖其中可能已经完整的会话信息
+     */
+    @Override
+    public void putSessionIdIfAbsent(String conversationId, String sessionId) {
+        if (get(conversationId) != null) return;
+        Instant now = Instant.now();
+        int updated = jdbc.update("UPDATE bisheng_sessions SET session_id = ?, message_id = NULL, node_id = NULL, updated_at = ? WHERE conversation_id = ? AND updated_at < ?",
+                sessionId, Timestamp.from(now), conversationId, Timestamp.from(now.minus(ttl)));
+        if (updated == 0) {
+            try {
+                jdbc.update("INSERT INTO bisheng_sessions (conversation_id, session_id, message_id, node_id, updated_at) VALUES (?, ?, NULL, NULL, ?)",
+                        conversationId, sessionId, Timestamp.from(now));
+            } catch (org.springframework.dao.DuplicateKeyException e) {
+                nearCache.invalidate(conversationId);
+                return;
+            }
+        }
+        nearCache.put(conversationId, new Session(sessionId, null, null));
+    }
+
+    @Override
+    public void remove(String conversationId) {
+        jdbc.update("DELETE FROM bisheng_sessions WHERE conversation_id = ?", conversationId);
+        nearCache.invalidate(conversationId);
+    }
+
+    // 定期删除过期会话，避免表无限增长
+    @Scheduled(fixedDelayString = "${bisheng.session-store.cleanup-interval-ms:600000}", initialDelayString = "${bisheng.session-store.cleanup-interval-ms:600000}")
+    public void evictExpired() {
+        try {
+            int deleted = jdbc.update("DELETE FROM bisheng_sessions WHERE updated_at < ?", Timestamp.from(Instant.now().minus(ttl)));
+            dbEvictions.increment(deleted);
+        } catch (Exception e) {
+            log.warn("清理过期Bisheng会话失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 流式AI消息的写缓冲：生成过程中的内容先累积在内存中，
+ * 按时间/字数检查点写入messages表，结束、出错或断开时再做最终落盘。
+ */
+@Service
+public class StreamingMessageWriter implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingMessageWriter.class);
+
+    @Autowired private MessageRepository messageRepo;
+    @Autowired private ConversationRepository conversationRepo;
+    @Autowired(required = false) private UsageMeter usageMeter;
+    @Autowired(required = false) private ChatMetrics chatMetrics;
+
+    @Value("${chat.stream.flush-interval-ms:1000}")
+    private long flushIntervalMs = 1000;
+
+    @Value("${chat.stream.flush-chars:2000}")
+    private int flushChars = 2000;
+
+    // 超过该时长没有检查点的generating消息视为崩溃遗留，需大于SseEmitter超时时间
+    @Value("${chat.stream.recovery-stale-ms:2100000}")
+    private long recoveryStaleMs = 2_100_000;
+
+    private final Set<PendingMessage> open = ConcurrentHashMap.newKeySet();
+
+    StreamingMessageWriter() {}
+
+    StreamingMessageWriter(MessageRepository messageRepo, ConversationRepository conversationRepo, long flushIntervalMs, int flushChars) {
+        this.messageRepo = messageRepo;
+        this.conversationRepo = conversationRepo;
+        this.flushIntervalMs = flushIntervalMs;
+        this.flushChars = flushChars;
+    }
+
+    StreamingMessageWriter(MessageRepository messageRepo, ConversationRepository conversationRepo, long flushIntervalMs, int flushChars, ChatMetrics chatMetrics) {
+        this(messageRepo, conversationRepo, flushIntervalMs, flushChars);
+        this.chatMetrics = chatMetrics;
+    }
+
+    /**
+     * 为一条已保存（状态为generating）的AI消息打开写缓冲
+     */
+    public PendingMessage open(Message message) {
+        PendingMessage pending = new PendingMessage(message);
+        open.add(pending);
+        return pending;
+    }
+
+    // 按时间补做检查点：上游长时间不产出token时，已累积的内容也不会只停留在内存中
+    @Scheduled(fixedDelayString = "${chat.stream.flush-interval-ms:1000}")
+    public void flushIdle() {
+        long now = System.currentTimeMillis();
+        for (PendingMessage pending : open) {
+            pending.flushIfDue(now);
+        }
+    }
+
+    // 启动时以及之后定期回收崩溃遗留的generating消息，已写入的部分内容保留
+    @Override
+    public void run(ApplicationArguments args) {
+        recoverStale();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.stream.recovery-interval-ms:300000}", initialDelayString = "${chat.stream.recovery-interval-ms:300000}")
+    public void recoverStale() {
+        try {
+            Instant now = Instant.now();
+            messageRepo.markStaleGenerating("interrupted", now.minus(Duration.ofMillis(recoveryStaleMs)), now);
+        } catch (Exception e) {
+            log.warn("回收中断的生成消息失败: {}", e.getMessage());
+        }
+    }
+
+    int openCount() {
+        return open.size();
+    }
+
+    /**
+     * 增量读取结果：end为本次读取后的内容长度，replaces为内容被整体覆盖的次数
+     */
+    public record Tail(String text, boolean reset, int end, int replaces) {}
+
+    public class PendingMessage {
+        private final Message message;
+        private final StringBuilder content;
+        // 首token时间、token间隔、写库次数等指标，未启用指标时为null
+        private final ChatMetrics.Generation metrics;
+        private String snapshot;
+        private boolean dirty;
+        private boolean closed;
+        private boolean usageSet;
+        private int promptEstimate;
+        private int replaces;
+        private int unflushedChars;
+        private long lastFlushAt = System.currentTimeMillis();
+
+        PendingMessage(Message message) {
+            this.message = message;
+            this.content = new StringBuilder(message.getContent() != null ? message.getContent() : "");
+            this.snapshot = content.toString();
+            this.metrics = chatMetrics != null ? chatMetrics.start(ChatMetrics.STREAM) : null;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * 追加增量内容，达到字数或时间阈值时写一次检查点
+         */
+        public synchronized void append(String delta) {
+            if (closed || delta == null || delta.isEmpty()) return;
+            content.append(delta);
+            snapshot = null;
+            dirty = true;
+            unflushedChars += delta.length();
+            if (metrics != null) metrics.appended(message.getModelKey());
+            flushIfDue(System.currentTimeMillis());
+        }
+
+        /**
+         * 用完整内容覆盖（guide_word、stream_msg的end事件等）
+         */
+        public synchronized void replace(String fullContent) {
+            if (closed) return;
+            content.setLength(0);
+            content.append(fullContent != null ? fullContent : "");
+            snapshot = null;
+            replaces++;
+            dirty = true;
+            unflushedChars += content.length();
+            if (metrics != null) metrics.replaced(message.getModelKey());
+            flushIfDue(System.currentTimeMillis());
+        }
+
+        public synchronized String content() {
+            if (snapshot == null) snapshot = content.toString();
+            return snapshot;
+        }
+
+        /**
+         * 增量读取offset之后的新内容；seenReplaces与当前覆盖次数不一致时说明内容被整体替换过，返回完整内容
+         */
+        public synchronized Tail tail(int offset, int seenReplaces) {
+            if (seenReplaces != replaces || offset > content.length()) {
+                return new Tail(content(), true, content.length(), replaces);
+            }
+            return new Tail(content.substring(offset), false, content.length(), replaces);
+        }
+
+        public synchronized int length() {
+            return content.length();
+        }
+
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * 记录token用量，在finish时随最终内容一起写库
+         */
+        public synchronized void usage(int promptTokens, int completionTokens, int totalTokens) {
+            if (closed) return;
+            message.setPromptTokens(promptTokens);
+            message.setCompletionTokens(completionTokens);
+            message.setTotalTokens(totalTokens);
+            usageSet = true;
+        }
+
+        /**
+         * 记录本次调用的模型和估算的提示词token数；上游没有返回usage时，finish按本地估算记录用量
+         */
+        public synchronized void model(String modelKey, int promptEstimate) {
+            if (closed) return;
+            message.setModelKey(modelKey);
+            this.promptEstimate = promptEstimate;
+        }
+
+        /**
+         * 同步实体上的内容，供mapMsg等直接读取实体的地方使用，不写库
+         */
+        public synchronized Message view() {
+            message.setContent(content());
+            return message;
+        }
+
+        /**
+         * 最终落盘并关闭缓冲，重复调用只有第一次生效
+         */
+        public synchronized boolean finish(String status) {
+            if (closed) return false;
+            closed = true;
+            open.remove(this);
+            message.setStatus(status);
+            write();
+            if (metrics != null) metrics.dbWrite();
+            try {
+                // 对话列表的最后消息摘要随最终内容更新
+                conversationRepo.updateLastMessage(message.getConversation().getId(), message.getId(), Conversation.preview(message.getContent()), status);
+            } catch (Exception e) {
+                log.warn("更新对话摘要失败: {}", e.getMessage());
+            }
+            if (!usageSet && message.getModelKey() != null && content.length() > 0) {
+                int completion = TokenEstimator.estimate(message.getContent());
+                message.setPromptTokens(promptEstimate);
+                message.setCompletionTokens(completion);
+                message.setTotalTokens(promptEstimate + completion);
+                usageSet = true;
+            }
+            if (usageSet) {
+                if (metrics != null) metrics.dbWrite();
+                try {
+                    messageRepo.updateUsage(message.getId(), message.getPromptTokens(), message.getCompletionTokens(), message.getTotalTokens(), message.getModelKey());
+                } catch (Exception e) {
+                    log.warn("写入token用量失败: {}", e.getMessage());
+                }
+                if (usageMeter != null && message.getConversation().getUser() != null) {
+                    usageMeter.record(message.getConversation().getUser().getId(), message);
+                }
+            }
+            if (metrics != null) metrics.finished(message.getModelKey(), status, usageSet ? message.getCompletionTokens() : null);
+            return true;
+        }
+
+        synchronized void flushIfDue(long now) {
+            if (closed || !dirty) return;
+            if (unflushedChars >= flushChars || now - lastFlushAt >= flushIntervalMs) {
+                write();
+            }
+        }
+
+        private void write() {
+            message.setContent(content());
+            message.setUpdatedAt(Instant.now());
+            if (metrics != null) metrics.dbWrite();
+            try {
+                messageRepo.checkpoint(message.getId(), message.getContent(), message.getStatus(), message.getUpdatedAt());
+                dirty = false;
+                unflushedChars = 0;
+            } catch (Exception e) {
+                // 写库失败时保留dirty标记，下个检查点重试
+                log.warn("流式消息检查点写入失败: {}", e.getMessage());
+            }
+            lastFlushAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.webui.userapi.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地token数估算，不依赖模型的分词器：中日韩等非ASCII字符按每字1个token，
+ * 连续的英文字母/数字按每4个字符1个token，标点按每个1个token，空白不计。
+ * 对常见中文模型的分词结果略偏大，用于上下文预算时宁多勿少。
+ */
+public final class TokenEstimator {
+
+    // 每条消息的角色、分隔符等格式开销
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int tokens = 0;
+        int word = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch < 128 && Character.isLetterOrDigit(ch)) {
+                word++;
+                continue;
+            }
+            tokens += (word + 3) / 4;
+            word = 0;
+            if (Character.isWhitespace(ch)) continue;
+            // 代理对（emoji等）只在高位计数一次
+            if (Character.isLowSurrogate(ch)) continue;
+            tokens++;
+        }
+        return tokens + (word + 3) / 4;
+    }
+
+    /**
+     * 一条对话消息（含格式开销）的估算token数
+     */
+    public static int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD;
+    }
+
+    /**
+     * 一次请求的messages（role/content）的估算token数，用作上游没有返回usage时的提示词用量
+     */
+    public static int estimateMessages(List<Map<String, String>> messages) {
+        int tokens = 0;
+        for (Map<String, String> m : messages) tokens += estimateMessage(m.get("content"));
+        return tokens;
+    }
+}
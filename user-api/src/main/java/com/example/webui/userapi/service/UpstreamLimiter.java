@@ -0,0 +1,115 @@
+package com.example.webui.userapi.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按上游地址（scheme://host:port）限制同时进行的调用数。
+ * 某个Bisheng或模型服务卡住时，只会占满它自己的名额，新的请求直接被拒绝，
+ * 不会继续堆积线程、连接和内存。
+ */
+@Service
+public class UpstreamLimiter {
+
+    @Value("${chat.upstream.max-concurrent:200}")
+    private int maxConcurrent = 200;
+
+    @Value("${chat.upstream.acquire-timeout-ms:0}")
+    private long acquireTimeoutMs = 0;
+
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    UpstreamLimiter() {}
+
+    UpstreamLimiter(int maxConcurrent, long acquireTimeoutMs) {
+        this.maxConcurrent = maxConcurrent;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    /**
+     * 尝试占用一个名额，成功后必须调用返回的Permit.release()
+     * @return 名额已满时返回null
+     */
+    public Permit tryAcquire(String url) {
+        String key = keyOf(url);
+        Semaphore semaphore = permits.computeIfAbsent(key, k -> new Semaphore(maxConcurrent));
+        boolean acquired;
+        try {
+            acquired = acquireTimeoutMs > 0
+                    ? semaphore.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)
+                    : semaphore.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return acquired ? new Permit(semaphore) : null;
+    }
+
+    public int inFlight(String url) {
+        Semaphore semaphore = permits.get(keyOf(url));
+        return semaphore == null ? 0 : maxConcurrent - semaphore.availablePermits();
+    }
+
+    static String keyOf(String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getHost() != null) {
+                return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+            }
+        } catch (Exception e) {
+            // 非法地址按原样计数
+        }
+        return String.valueOf(url);
+    }
+
+    /**
+     * 占用名额并执行阻塞调用，名额已满时抛出BusyException
+     */
+    public <T> T call(String url, java.util.concurrent.Callable<T> action) throws Exception {
+        Permit permit = tryAcquire(url);
+        if (permit == null) {
+            throw new BusyException(keyOf(url));
+        }
+        try {
+            return action.call();
+        } finally {
+            permit.release();
+        }
+    }
+
+    public static class BusyException extends RuntimeException {
+        private final String upstream;
+
+        public BusyException(String upstream) {
+            super("上游服务繁忙，请稍后再试");
+            this.upstream = upstream;
+        }
+
+        public String getUpstream() {
+            return upstream;
+        }
+    }
+
+    public static class Permit {
+        private final Semaphore semaphore;
+        private boolean released;
+
+        Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        // 重复释放只生效一次（上游完成、出错、客户端断开可能先后触发）
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                semaphore.release();
+            }
+        }
+    }
+}
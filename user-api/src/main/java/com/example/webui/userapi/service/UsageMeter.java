@@ -0,0 +1,245 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.entity.User;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * token用量统计和额度检查。
+ *
+ * 每条AI消息结束时按（用户、模型、日期）累加到内存中的LongAdder，不访问数据库；
+ * 定时任务把上次刷新以来的增量批量累加到token_usage表和users.tokens_used。
+ * 额度检查在准入时进行：每个用户的当日/当月已用量从token_usage加载一次并缓存refresh-seconds，
+ * 之后加上本实例新记录的用量，同一用户的请求不再逐次查库。多实例部署时其他实例的用量在刷新后才可见。
+ */
+@Service
+public class UsageMeter {
+
+    private static final Logger log = LoggerFactory.getLogger(UsageMeter.class);
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final long defaultDailyQuota;
+    private final long defaultMonthlyQuota;
+    private final Clock clock;
+    // 未刷新到数据库的用量，刷新时只写上次刷新以来的增量，计数器本身不清零，避免并发累加时丢失
+    private final Map<Key, Counters> counters = new ConcurrentHashMap<>();
+    private final LoadingCache<String, Quota> quotas;
+
+    private record Key(String userId, String modelKey, LocalDate date) {}
+
+    private static final class Counters {
+        final LongAdder prompt = new LongAdder();
+        final LongAdder completion = new LongAdder();
+        final LongAdder requests = new LongAdder();
+        volatile long flushedPrompt;
+        volatile long flushedCompletion;
+        volatile long flushedRequests;
+    }
+
+    // 某个用户的当日/当月已用量：加载时数据库中的值 + 之后本实例记录的用量
+    private static final class Quota {
+        final LocalDate date;
+        final long dailyBase;
+        final long monthlyBase;
+        final LongAdder local = new LongAdder();
+
+        Quota(LocalDate date, long dailyBase, long monthlyBase) {
+            this.date = date;
+            this.dailyBase = dailyBase;
+            this.monthlyBase = monthlyBase;
+        }
+    }
+
+    public static class QuotaExceededException extends RuntimeException {
+        public QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+
+    @Autowired
+    public UsageMeter(JdbcTemplate jdbc, TransactionTemplate tx,
+                      @Value("${usage.quota.daily-tokens:0}") long defaultDailyQuota,
+                      @Value("${usage.quota.monthly-tokens:0}") long defaultMonthlyQuota,
+                      @Value("${usage.quota.refresh-seconds:60}") long refreshSeconds) {
+        this(jdbc, tx, defaultDailyQuota, defaultMonthlyQuota, refreshSeconds, Clock.systemDefaultZone());
+    }
+
+    UsageMeter(JdbcTemplate jdbc, TransactionTemplate tx, long defaultDailyQuota, long defaultMonthlyQuota, long refreshSeconds, Clock clock) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.defaultDailyQuota = defaultDailyQuota;
+        this.defaultMonthlyQuota = defaultMonthlyQuota;
+        this.clock = clock;
+        this.quotas = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(refreshSeconds))
+                .maximumSize(100_000)
+                .build(this::loadQuota);
+    }
+
+    /**
+     * 非流式调用：按响应中的usage设置消息的token用量，响应没有usage时按本地估算
+     * @param content AI回复内容（消息实体上可能还没有设置）
+     */
+    public static void applyUsage(Message message, String content, JsonNode usage, int promptEstimate) {
+        if (usage != null && usage.path("total_tokens").asInt() > 0) {
+            message.setPromptTokens(usage.path("prompt_tokens").asInt());
+            message.setCompletionTokens(usage.path("completion_tokens").asInt());
+            message.setTotalTokens(usage.path("total_tokens").asInt());
+        } else {
+            int completion = TokenEstimator.estimate(content);
+            message.setPromptTokens(promptEstimate);
+            message.setCompletionTokens(completion);
+            message.setTotalTokens(promptEstimate + completion);
+        }
+    }
+
+    /**
+     * 记录一条AI消息的token用量（按消息上的modelKey归类）
+     */
+    public void record(String userId, Message message) {
+        if (userId == null || message.getTotalTokens() <= 0) return;
+        LocalDate today = LocalDate.now(clock);
+        String modelKey = message.getModelKey() != null ? message.getModelKey() : "";
+        Counters c = counters.computeIfAbsent(new Key(userId, modelKey, today), k -> new Counters());
+        c.prompt.add(message.getPromptTokens());
+        c.completion.add(message.getCompletionTokens());
+        c.requests.increment();
+        Quota quota = quotas.getIfPresent(userId);
+        if (quota != null && quota.date.equals(today)) quota.local.add(message.getTotalTokens());
+    }
+
+    /**
+     * 准入检查：当日或当月用量已达到额度时抛出异常。用户未单独设置额度时使用全局配置，0表示不限制
+     */
+    public void checkQuota(User user) {
+        long daily = user.getDailyTokenQuota() != null ? user.getDailyTokenQuota() : defaultDailyQuota;
+        long monthly = user.getMonthlyTokenQuota() != null ? user.getMonthlyTokenQuota() : defaultMonthlyQuota;
+        if (daily <= 0 && monthly <= 0) return;
+        Quota quota = quota(user.getId());
+        long local = quota.local.sum();
+        if (daily > 0 && quota.dailyBase + local >= daily) {
+            throw new QuotaExceededException("今日token额度已用完，请明天再试");
+        }
+        if (monthly > 0 && quota.monthlyBase + local >= monthly) {
+            throw new QuotaExceededException("本月token额度已用完");
+        }
+    }
+
+    private Quota quota(String userId) {
+        Quota quota = quotas.get(userId);
+        if (!quota.date.equals(LocalDate.now(clock))) {
+            // 跨天后重新加载
+            quotas.invalidate(userId);
+            quota = quotas.get(userId);
+        }
+        return quota;
+    }
+
+    private Quota loadQuota(String userId) {
+        LocalDate today = LocalDate.now(clock);
+        LocalDate monthStart = today.withDayOfMonth(1);
+        Long daily = jdbc.queryForObject(
+                "SELECT COALESCE(SUM(prompt_tokens + completion_tokens), 0) FROM token_usage WHERE user_id = ? AND usage_date = ?",
+                Long.class, userId, Date.valueOf(today));
+        Long monthly = jdbc.queryForObject(
+                "SELECT COALESCE(SUM(prompt_tokens + completion_tokens), 0) FROM token_usage WHERE user_id = ? AND usage_date >= ? AND usage_date <= ?",
+                Long.class, userId, Date.valueOf(monthStart), Date.valueOf(today));
+        Quota quota = new Quota(today, daily != null ? daily : 0, monthly != null ? monthly : 0);
+        // 本实例还没刷新到数据库的用量
+        counters.forEach((key, c) -> {
+            if (key.userId().equals(userId) && key.date().equals(today)) {
+                quota.local.add(c.prompt.sum() - c.flushedPrompt + c.completion.sum() - c.flushedCompletion);
+            }
+        });
+        return quota;
+    }
+
+    @Scheduled(fixedDelayString = "${usage.flush-interval-ms:5000}", initialDelayString = "${usage.flush-interval-ms:5000}")
+    public synchronized void flush() {
+        List<Object[]> rows = new ArrayList<>();
+        List<Counters> flushed = new ArrayList<>();
+        List<long[]> sums = new ArrayList<>();
+        Map<String, Long> perUser = new HashMap<>();
+        LocalDate today = LocalDate.now(clock);
+        counters.forEach((key, c) -> {
+            long prompt = c.prompt.sum();
+            long completion = c.completion.sum();
+            long requests = c.requests.sum();
+            long dp = prompt - c.flushedPrompt, dc = completion - c.flushedCompletion, dr = requests - c.flushedRequests;
+            if (dp == 0 && dc == 0 && dr == 0) {
+                // 前一天的计数器已全部刷新，不会再有新的累加
+                if (key.date().isBefore(today)) counters.remove(key, c);
+                return;
+            }
+            rows.add(new Object[]{dp, dc, dr, key.userId(), key.modelKey(), Date.valueOf(key.date())});
+            flushed.add(c);
+            sums.add(new long[]{prompt, completion, requests});
+            perUser.merge(key.userId(), dp + dc, Long::sum);
+        });
+        if (rows.isEmpty()) return;
+        try {
+            // 同一事务内写两张表，失败时整体回滚，下次刷新不会重复累加
+            tx.executeWithoutResult(status -> write(rows, perUser));
+        } catch (Exception e) {
+            // 增量留在内存中，下次刷新重试
+            log.warn("刷新token用量失败: {}", e.getMessage());
+            return;
+        }
+        for (int i = 0; i < flushed.size(); i++) {
+            Counters c = flushed.get(i);
+            long[] s = sums.get(i);
+            c.flushedPrompt = s[0];
+            c.flushedCompletion = s[1];
+            c.flushedRequests = s[2];
+        }
+    }
+
+    private void write(List<Object[]> rows, Map<String, Long> perUser) {
+        // 先批量UPDATE，没有对应行的再INSERT；并发插入同一行时主键冲突，改为更新
+        int[] updated = jdbc.batchUpdate(
+                "UPDATE token_usage SET prompt_tokens = prompt_tokens + ?, completion_tokens = completion_tokens + ?, requests = requests + ? " +
+                        "WHERE user_id = ? AND model_key = ? AND usage_date = ?", rows);
+        for (int i = 0; i < rows.size(); i++) {
+            if (updated[i] != 0) continue; // 驱动返回SUCCESS_NO_INFO(-2)时视为已更新
+            Object[] r = rows.get(i);
+            try {
+                jdbc.update("INSERT INTO token_usage (user_id, model_key, usage_date, prompt_tokens, completion_tokens, requests) VALUES (?, ?, ?, ?, ?, ?)",
+                        r[3], r[4], r[5], r[0], r[1], r[2]);
+            } catch (org.springframework.dao.DuplicateKeyException e) {
+                jdbc.update("UPDATE token_usage SET prompt_tokens = prompt_tokens + ?, completion_tokens = completion_tokens + ?, requests = requests + ? " +
+                        "WHERE user_id = ? AND model_key = ? AND usage_date = ?", r);
+            }
+        }
+        List<Object[]> users = new ArrayList<>();
+        perUser.forEach((userId, tokens) -> users.add(new Object[]{tokens, userId}));
+        jdbc.batchUpdate("UPDATE users SET tokens_used = COALESCE(tokens_used, 0) + ? WHERE id = ?", users);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.webui.userapi.bench;
+
+import com.example.webui.common.client.BishengEvent;
+import com.example.webui.common.client.BishengEventParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bisheng SSE事件解析微基准：
+ * perEventMapper —— 原实现，每个事件new ObjectMapper()再readTree；
+ * sharedMapperTree —— 共享ObjectMapper，仍构建JsonNode树；
+ * streamingParser —— 共享JsonFactory + JsonParser直接读出BishengEvent。
+ * 关注GCProfiler输出的 gc.alloc.rate.norm（每个事件分配的字节数）。
+ *
+ * 运行：mvn -q -pl user-api -am test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ *      java -cp "user-api/target/test-classes:user-api/target/classes:$(cat /tmp/cp.txt)" \
+ *           com.example.webui.userapi.bench.BishengEventParseBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BishengEventParseBenchmark {
+
+    private static final Map<String, String> EVENTS = Map.of(
+            "stream_msg", "{\"session_id\":\"a1b2c3d4e5f6\",\"data\":{\"event\":\"stream_msg\",\"status\":\"stream\",\"node_id\":\"output_7f3a\",\"message_id\":\"9812\",\"output_schema\":{\"message\":\"好的\",\"output_key\":\"output\",\"files\":[]}}}",
+            "guide_word", "{\"session_id\":\"a1b2c3d4e5f6\",\"data\":{\"event\":\"guide_word\",\"status\":\"end\",\"node_id\":\"start_3c21\",\"output_schema\":{\"message\":\"您好，我是智能助手，请问有什么可以帮您？\"}}}",
+            "input", "{\"session_id\":\"a1b2c3d4e5f6\",\"data\":{\"event\":\"input\",\"status\":\"end\",\"node_id\":\"input_8d0e\",\"message_id\":\"9813\",\"input_schema\":{\"input_type\":\"dialog_input\",\"value\":[{\"key\":\"user_input\",\"type\":\"text\"}]}}}",
+            "close", "{\"session_id\":\"a1b2c3d4e5f6\",\"data\":{\"event\":\"close\",\"status\":\"end\"}}",
+            "error", "{\"session_id\":\"a1b2c3d4e5f6\",\"data\":{\"event\":\"error\",\"status\":\"end\",\"output_schema\":{\"message\":\"节点执行超时\"}}}");
+
+    @Param({"stream_msg", "guide_word", "input", "close", "error"})
+    public String event;
+
+    private String json;
+    private ObjectMapper sharedMapper;
+    private BishengEventParser parser;
+
+    @Setup
+    public void setUp() throws Exception {
+        json = EVENTS.get(event);
+        sharedMapper = new ObjectMapper();
+        parser = new BishengEventParser(sharedMapper);
+        // 两种解析方式的结果必须一致
+        String[] expected = treeFields(sharedMapper.readTree(json));
+        BishengEvent parsed = parser.parse(json);
+        String[] actual = {parsed.getSessionId(), parsed.getEvent(), parsed.getStatus(), parsed.getMessageId(), parsed.getNodeId(), parsed.getMessage()};
+        if (!java.util.Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("解析结果不一致: " + java.util.Arrays.toString(expected) + " vs " + java.util.Arrays.toString(actual));
+        }
+    }
+
+    @Benchmark
+    public String[] perEventMapper() throws Exception {
+        return treeFields(new ObjectMapper().readTree(json));
+    }
+
+    @Benchmark
+    public String[] sharedMapperTree() throws Exception {
+        return treeFields(sharedMapper.readTree(json));
+    }
+
+    @Benchmark
+    public BishengEvent streamingParser() throws Exception {
+        return parser.parse(json);
+    }
+
+    // 原ChatController中基于JsonNode的字段提取
+    private static String[] treeFields(JsonNode eventNode) {
+        JsonNode dataNode = eventNode.path("data");
+        if (dataNode.isMissingNode()) {
+            dataNode = eventNode;
+        }
+        JsonNode messageNode = dataNode.path("output_schema").path("message");
+        String message = "";
+        if (messageNode.isTextual()) {
+            message = messageNode.asText();
+        } else if (messageNode.isArray() && messageNode.size() > 0) {
+            message = messageNode.get(0).asText();
+        }
+        return new String[]{eventNode.path("session_id").asText(), dataNode.path("event").asText(), dataNode.path("status").asText(),
+                dataNode.path("message_id").asText(), dataNode.path("node_id").asText(), message};
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(BishengEventParseBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
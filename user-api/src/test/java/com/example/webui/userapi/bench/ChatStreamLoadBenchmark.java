@@ -0,0 +1,175 @@
+package com.example.webui.userapi.bench;
+
+import com.example.webui.userapi.config.ChatExecutorConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 聊天执行器压测：本地mock上游按固定间隔输出SSE事件，分别用
+ * cached（原来的newCachedThreadPool）、bounded（平台线程池默认参数）、virtual（Java 21+）
+ * 三种模式以1k/5k并发流阻塞读取，对比耗时、首包延迟和峰值线程数。
+ *
+ * 运行：
+ *   mvn -q -pl user-api -am test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ *   java -cp "user-api/target/test-classes:user-api/target/classes:$(cat /tmp/cp.txt)" \
+ *        com.example.webui.userapi.bench.ChatStreamLoadBenchmark [并发数...]
+ * 可用 -Dbench.events=20 -Dbench.intervalMs=50 调整每个流的事件数和间隔；5k并发需要 ulimit -n 大于 12000。
+ */
+public class ChatStreamLoadBenchmark {
+
+    private static final int EVENTS = Integer.getInteger("bench.events", 20);
+    private static final int INTERVAL_MS = Integer.getInteger("bench.intervalMs", 50);
+
+    public static void main(String[] args) throws Exception {
+        int[] concurrencies = args.length > 0
+                ? java.util.Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1000, 5000};
+
+        ExecutorService serverExecutor = ChatExecutorConfig.virtualThreadsSupported()
+                ? (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+                : Executors.newCachedThreadPool();
+        HttpServer upstream = startMockUpstream(serverExecutor);
+        String url = "http://127.0.0.1:" + upstream.getAddress().getPort() + "/api/v2/workflow/invoke";
+        System.out.printf("mock上游: %s, 每个流%d个事件, 间隔%dms, Java %d%n", url, EVENTS, INTERVAL_MS, Runtime.version().feature());
+        System.out.printf("%-8s %6s %10s %10s %10s %10s %8s%n", "mode", "conc", "wall(ms)", "ttfb p50", "ttfb p99", "peakThr", "reject");
+
+        try {
+            for (int concurrency : concurrencies) {
+                run("cached", concurrency, url);
+                run("bounded", concurrency, url);
+                if (ChatExecutorConfig.virtualThreadsSupported()) {
+                    run("virtual", concurrency, url);
+                } else {
+                    System.out.printf("%-8s %6d  跳过：需要Java 21+%n", "virtual", concurrency);
+                }
+            }
+        } finally {
+            upstream.stop(0);
+            serverExecutor.shutdownNow();
+        }
+    }
+
+    private static void run(String mode, int concurrency, String url) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+
+        ExecutorService cached = null;
+        AsyncTaskExecutor executor;
+        switch (mode) {
+            case "cached":
+                cached = Executors.newCachedThreadPool();
+                executor = new org.springframework.core.task.support.TaskExecutorAdapter(cached);
+                break;
+            case "bounded":
+                // 队列容量放开到并发数，只看线程上限对耗时的影响
+                executor = ChatExecutorConfig.create(false, 200, concurrency);
+                break;
+            default:
+                executor = ChatExecutorConfig.create(true, 0, 0);
+        }
+
+        List<Long> ttfb = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            long submitted = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    try {
+                        ttfb.add(readStream(url, submitted));
+                    } catch (Exception e) {
+                        rejected.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                rejected.incrementAndGet();
+                done.countDown();
+            }
+        }
+        done.await(10, TimeUnit.MINUTES);
+        long wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<Long> sorted = new ArrayList<>(ttfb);
+        Collections.sort(sorted);
+        System.out.printf("%-8s %6d %10d %10d %10d %10d %8d%n", mode, concurrency, wallMs,
+                percentile(sorted, 0.5), percentile(sorted, 0.99), threads.getPeakThreadCount(), rejected.get());
+
+        if (cached != null) cached.shutdownNow();
+        if (executor instanceof AutoCloseable) ((AutoCloseable) executor).close();
+        if (executor instanceof org.springframework.beans.factory.DisposableBean) ((org.springframework.beans.factory.DisposableBean) executor).destroy();
+    }
+
+    // 与ChatController原来的阻塞读取方式一致：HttpURLConnection + readLine
+    private static long readStream(String url, long submittedAt) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write("{\"workflow_id\":\"bench\",\"stream\":true}".getBytes(StandardCharsets.UTF_8));
+        }
+        long firstByte = -1;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (firstByte < 0 && line.startsWith("data: ")) {
+                    firstByte = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return firstByte;
+    }
+
+    private static HttpServer startMockUpstream(ExecutorService executor) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16384);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int i = 0; i < EVENTS; i++) {
+                    String status = i == EVENTS - 1 ? "end" : "stream";
+                    String event = "data: {\"session_id\":\"s\",\"data\":{\"event\":\"stream_msg\",\"status\":\"" + status
+                            + "\",\"output_schema\":{\"message\":\"token" + i + "\"}}}\n\n";
+                    os.write(event.getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                    Thread.sleep(INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) return -1;
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1));
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.webui.userapi.bench;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import com.example.webui.common.log.SampledLogger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式生成热路径上每个上游事件一条日志时的吞吐量（8个线程同时处理事件），日志写入临时文件：
+ * off —— 不输出（DEBUG关闭，只有级别判断）；
+ * println —— 原实现，System.out风格的同步PrintStream（autoflush），字符串拼接后println；
+ * sync —— SLF4J + logback同步FileAppender；
+ * async —— SLF4J + AsyncAppender（与logback-spring.xml相同的队列设置，队列满时丢弃DEBUG不阻塞）；
+ * sampled —— async之上用SampledLogger限流为每秒20条（ChatController的tokenLog）。
+ *
+ * 运行：mvn -q -pl user-api -am test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ *      java -cp "user-api/target/test-classes:user-api/target/classes:$(cat /tmp/cp.txt)" \
+ *           com.example.webui.userapi.bench.HotPathLoggingBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathLoggingBenchmark {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p [%15.15t] [%X{requestId:-},%X{userId:-}] %-40.40logger{39} : %m%n";
+
+    @Param({"off", "println", "sync", "async", "sampled"})
+    public String mode;
+
+    private Path file;
+    private PrintStream out;
+    private Logger log;
+    private SampledLogger sampled;
+    private LoggerContext context;
+
+    @State(Scope.Thread)
+    public static class Event {
+        final String messageId = "0190a1b2-c3d4-7e5f-8a9b-" + Long.toHexString(System.nanoTime());
+        int seq;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            MDC.put("requestId", Long.toHexString(System.nanoTime()));
+            MDC.put("userId", "bench-user");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = Files.createTempFile("hot-path-logging", ".log");
+        if ("println".equals(mode)) {
+            out = new PrintStream(new FileOutputStream(file.toFile()), true, StandardCharsets.UTF_8);
+            return;
+        }
+        context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.setCharset(StandardCharsets.UTF_8);
+        encoder.start();
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(context);
+        fileAppender.setFile(file.toString());
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+        Appender<ILoggingEvent> appender = fileAppender;
+        if ("async".equals(mode) || "sampled".equals(mode)) {
+            AsyncAppender async = new AsyncAppender();
+            async.setContext(context);
+            async.setQueueSize(8192);
+            async.setNeverBlock(true);
+            async.addAppender(fileAppender);
+            async.start();
+            appender = async;
+        }
+        ch.qos.logback.classic.Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.addAppender(appender);
+        root.setLevel("off".equals(mode) ? ch.qos.logback.classic.Level.INFO : ch.qos.logback.classic.Level.DEBUG);
+        log = LoggerFactory.getLogger("com.example.webui.userapi.controller.ChatController");
+        sampled = new SampledLogger(log, 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (out != null) out.close();
+        if (context != null) context.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int event(Event e) {
+        int seq = e.seq++;
+        switch (mode) {
+            case "println" -> out.println("处理bisheng事件: event=stream_msg, status=stream, session_id=a1b2c3d4e5f6, messageId=" + e.messageId + ", seq=" + seq);
+            case "sampled" -> sampled.debug("处理bisheng事件: messageId={}, event={}, status={}, session_id={}, seq={}", e.messageId, "stream_msg", "stream", "a1b2c3d4e5f6", seq);
+            default -> log.debug("处理bisheng事件: messageId={}, event={}, status={}, session_id={}, seq={}", e.messageId, "stream_msg", "stream", "a1b2c3d4e5f6", seq);
+        }
+        return seq;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(HotPathLoggingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.webui.userapi.bench;
+
+import com.example.webui.common.id.Uuid7;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * messages表追加写入的吞吐量：VARCHAR(36)主键分别使用随机UUID（原实现）和UUIDv7（Uuid7），
+ * 表中预先写入preload行后，每次调用批量插入BATCH行并提交，结果为每秒插入行数。
+ * 存储使用H2文件库（MySQL兼容模式，B树聚簇主键 + (conversation_id, created_at, id)二级索引），
+ * 和InnoDB的页结构不同，数值只用于比较两种ID的相对差异，表越大随机主键的劣势越明显。
+ *
+ * 运行：mvn -q -pl user-api -am test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ *      java -cp "user-api/target/test-classes:user-api/target/classes:$(cat /tmp/cp.txt)" \
+ *           com.example.webui.userapi.bench.IdInsertBenchmark
+ * 千万级数据：在JMH参数后加 -p preload=10000000（预写入需要数分钟和数GB磁盘空间）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class IdInsertBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final int CONVERSATIONS = 10_000;
+
+    @Param({"random", "uuid7"})
+    public String idType;
+
+    @Param({"1000000"})
+    public int preload;
+
+    private Path dir;
+    private Connection connection;
+    private PreparedStatement insert;
+    private Supplier<String> ids;
+    private long seq;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ids = "uuid7".equals(idType) ? Uuid7::next : () -> UUID.randomUUID().toString();
+        dir = Files.createTempDirectory("id-insert-bench");
+        connection = DriverManager.getConnection("jdbc:h2:file:" + dir.resolve("bench") + ";MODE=MySQL", "sa", "");
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE messages (id VARCHAR(36) PRIMARY KEY, conversation_id VARCHAR(36) NOT NULL, " +
+                    "role VARCHAR(16) NOT NULL, content VARCHAR(255) NOT NULL, created_at TIMESTAMP NOT NULL)");
+            st.execute("CREATE INDEX idx_messages_conv_created_id ON messages (conversation_id, created_at, id)");
+        }
+        connection.setAutoCommit(false);
+        insert = connection.prepareStatement("INSERT INTO messages (id, conversation_id, role, content, created_at) VALUES (?, ?, ?, ?, ?)");
+        for (int i = 0; i < preload; i += BATCH) {
+            insertBatch();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        insert.close();
+        connection.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert() throws Exception {
+        insertBatch();
+    }
+
+    private void insertBatch() throws Exception {
+        Timestamp now = Timestamp.from(Instant.now());
+        for (int i = 0; i < BATCH; i++) {
+            long n = seq++;
+            insert.setString(1, ids.get());
+            insert.setString(2, "conv-" + (n % CONVERSATIONS));
+            insert.setString(3, (n & 1) == 0 ? "user" : "assistant");
+            insert.setString(4, "benchmark message content #" + n);
+            insert.setTimestamp(5, now);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        connection.commit();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(IdInsertBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.webui.userapi.bench;
+
+import com.example.webui.common.security.JwtVerifier;
+import com.example.webui.userapi.config.SecurityConfig;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtFilter微基准，每次调用都是带Bearer token的完整过滤：
+ * perRequestParser —— 原实现，每个请求Jwts.parserBuilder()...build()后校验签名；
+ * sharedParser —— 复用同一个JwtParser，但不缓存校验结果（缓存容量为0）；
+ * cachedVerifier —— 当前实现，同一token命中缓存后不再做签名校验。
+ *
+ * 运行：mvn -q -pl user-api -am test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ *      java -cp "user-api/target/test-classes:user-api/target/classes:$(cat /tmp/cp.txt)" \
+ *           com.example.webui.userapi.bench.JwtFilterBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    private static final String SECRET = "benchmark-secret-key-at-least-32-bytes-long";
+
+    private String token;
+    private Key key;
+    private SecurityConfig.JwtFilter sharedParserFilter;
+    private SecurityConfig.JwtFilter cachedFilter;
+
+    @Setup
+    public void setUp() {
+        key = Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8));
+        token = Jwts.builder()
+                .claim("userId", "5f0c7a6e-2f7b-4d0e-9a51-3d2b8e1c4a77")
+                .claim("username", "bench_user")
+                .claim("role", "USER")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + 3_600_000))
+                .signWith(key)
+                .compact();
+        sharedParserFilter = new SecurityConfig.JwtFilter(new JwtVerifier(SECRET, 0, Duration.ofMinutes(10)));
+        cachedFilter = new SecurityConfig.JwtFilter(new JwtVerifier(SECRET, 10_000, Duration.ofMinutes(10)));
+    }
+
+    @Benchmark
+    public Object perRequestParser() throws Exception {
+        MockHttpServletRequest request = request();
+        // 原实现的解析路径（不含其逐请求的INFO日志）
+        String header = request.getHeader("Authorization");
+        Claims claims = Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(header.substring(7)).getBody();
+        Object result = claims.get("userId", String.class) + claims.get("username", String.class) + claims.get("role", String.class);
+        new MockFilterChain().doFilter(request, new MockHttpServletResponse());
+        return result;
+    }
+
+    @Benchmark
+    public Object sharedParser() throws Exception {
+        return filter(sharedParserFilter);
+    }
+
+    @Benchmark
+    public Object cachedVerifier() throws Exception {
+        return filter(cachedFilter);
+    }
+
+    private Object filter(SecurityConfig.JwtFilter filter) throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), new MockFilterChain());
+        Object auth = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        if (auth == null) throw new IllegalStateException("token未通过校验");
+        return auth;
+    }
+
+    private MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/conversations");
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(JwtFilterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -32,6 +32,9 @@ public class UserControllerTest {
     @Mock
     private com.example.webui.common.repo.AuditLogRepository auditRepo;
 
+    @Mock
+    private com.example.webui.common.stats.StatsCounters stats;
+
     @InjectMocks
     private UserController userController;
 
@@ -0,0 +1,102 @@
+package com.example.webui.userapi.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnalyticsRollupJobTest {
+
+    private final Clock clock = Clock.fixed(Instant.parse("2026-03-15T10:30:00Z"), ZoneOffset.UTC);
+
+    private JdbcTemplate jdbc;
+    private AnalyticsRollupJob job;
+
+    @BeforeEach
+    public void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:rollup;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE conversations (id VARCHAR(36) PRIMARY KEY, user_id VARCHAR(36))");
+        jdbc.execute("CREATE TABLE messages (id VARCHAR(36) PRIMARY KEY, conversation_id VARCHAR(36), role VARCHAR(16), status VARCHAR(16), " +
+                "model_key VARCHAR(64), prompt_tokens INT, completion_tokens INT, created_at TIMESTAMP)");
+        jdbc.execute("CREATE TABLE user_action_logs (id VARCHAR(36) PRIMARY KEY, action VARCHAR(32), created_at TIMESTAMP)");
+        jdbc.execute("CREATE TABLE feedbacks (id VARCHAR(36) PRIMARY KEY, type VARCHAR(32), created_at TIMESTAMP)");
+        jdbc.execute("CREATE TABLE analytics_rollups (granularity VARCHAR(8), bucket_start TIMESTAMP, metric VARCHAR(32), " +
+                "dimension VARCHAR(128), metric_value BIGINT, PRIMARY KEY (granularity, bucket_start, metric, dimension))");
+        job = new AnalyticsRollupJob(jdbc, new TransactionTemplate(new DataSourceTransactionManager(ds)), 2, 1, 48, clock);
+
+        jdbc.update("INSERT INTO conversations VALUES ('c1', 'u1'), ('c2', 'u2')");
+        message("m1", "c1", "user", "sent", null, 0, 0, "2026-03-15T08:10:00Z");
+        message("m2", "c1", "assistant", "sent", "gpt", 100, 20, "2026-03-15T08:10:05Z");
+        message("m3", "c1", "user", "sent", null, 0, 0, "2026-03-15T09:00:00Z");
+        message("m4", "c2", "user", "sent", null, 0, 0, "2026-03-15T09:30:00Z");
+        message("m5", "c2", "assistant", "generating", "gpt", 0, 0, "2026-03-15T10:05:00Z");
+        jdbc.update("INSERT INTO user_action_logs VALUES ('a1', 'like', ?), ('a2', 'dislike', ?)",
+                ts("2026-03-15T08:20:00Z"), ts("2026-03-15T09:20:00Z"));
+        jdbc.update("INSERT INTO feedbacks VALUES ('f1', 'complaint', ?)", ts("2026-03-14T23:00:00Z"));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    private void message(String id, String conv, String role, String status, String model, int prompt, int completion, String at) {
+        jdbc.update("INSERT INTO messages VALUES (?, ?, ?, ?, ?, ?, ?, ?)", id, conv, role, status, model, prompt, completion, ts(at));
+    }
+
+    private static Timestamp ts(String at) {
+        return Timestamp.from(Instant.parse(at));
+    }
+
+    private long value(String granularity, String bucket, String metric, String dimension) {
+        Long v = jdbc.query("SELECT metric_value FROM analytics_rollups WHERE granularity = ? AND bucket_start = ? AND metric = ? AND dimension = ?",
+                rs -> rs.next() ? rs.getLong(1) : null, granularity, ts(bucket), metric, dimension);
+        return v == null ? -1 : v;
+    }
+
+    @Test
+    public void testHourlyAndDailyRollups() {
+        // 从backfill-days天前的零点到当前小时（含）
+        assertEquals(35, job.rollup());
+
+        assertEquals(1, value("HOUR", "2026-03-15T08:00:00Z", "messages", "user/sent"));
+        assertEquals(1, value("HOUR", "2026-03-15T08:00:00Z", "messages", "assistant/sent"));
+        assertEquals(100, value("HOUR", "2026-03-15T08:00:00Z", "prompt_tokens", "gpt"));
+        assertEquals(20, value("HOUR", "2026-03-15T08:00:00Z", "completion_tokens", "gpt"));
+        assertEquals(1, value("HOUR", "2026-03-15T08:00:00Z", "actions", "like"));
+        assertEquals(2, value("HOUR", "2026-03-15T09:00:00Z", "active_users", ""));
+        // 没有数据的小时也记录0个活跃用户
+        assertEquals(0, value("HOUR", "2026-03-15T03:00:00Z", "active_users", ""));
+
+        assertEquals(3, value("DAY", "2026-03-15T00:00:00Z", "messages", "user/sent"));
+        assertEquals(2, value("DAY", "2026-03-15T00:00:00Z", "model_requests", "gpt"));
+        assertEquals(1, value("DAY", "2026-03-14T00:00:00Z", "feedbacks", "complaint"));
+        // u1在8点和9点都活跃，按天去重为2而不是各小时之和3
+        assertEquals(2, value("DAY", "2026-03-15T00:00:00Z", "active_users", ""));
+    }
+
+    @Test
+    public void testRerunRecomputesRecentHoursOnly() {
+        job.rollup();
+        // 生成结束后才写入的状态和用量，在回溯范围内会被重新汇总
+        jdbc.update("UPDATE messages SET status = 'sent', prompt_tokens = 50, completion_tokens = 10 WHERE id = 'm5'");
+
+        // 最近已汇总的小时是10点，回溯2小时：8、9、10点
+        assertEquals(3, job.rollup());
+        assertEquals(-1, value("HOUR", "2026-03-15T10:00:00Z", "messages", "assistant/generating"));
+        assertEquals(1, value("HOUR", "2026-03-15T10:00:00Z", "messages", "assistant/sent"));
+        assertEquals(150, value("DAY", "2026-03-15T00:00:00Z", "prompt_tokens", "gpt"));
+        assertEquals(1, value("DAY", "2026-03-15T00:00:00Z", "actions", "dislike"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.MessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("null")
+public class ChatMetricsTest {
+
+    @Mock
+    private MessageRepository messageRepo;
+
+    @Mock
+    private ConversationRepository conversationRepo;
+
+    private SimpleMeterRegistry registry;
+    private ChatMetrics metrics;
+    private StreamingMessageWriter writer;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new ChatMetrics(registry);
+        // 时间阈值设得足够大，只由字数阈值触发检查点
+        writer = new StreamingMessageWriter(messageRepo, conversationRepo, 60_000, 100, metrics);
+    }
+
+    private StreamingMessageWriter.PendingMessage open(String modelKey) {
+        Conversation conversation = new Conversation();
+        conversation.setId("conv-1");
+        Message message = new Message();
+        message.setId("msg-1");
+        message.setConversation(conversation);
+        message.setRole("assistant");
+        message.setContent("");
+        message.setStatus("generating");
+        StreamingMessageWriter.PendingMessage pending = writer.open(message);
+        pending.model(modelKey, 10);
+        return pending;
+    }
+
+    @Test
+    public void testStreamedGeneration() {
+        StreamingMessageWriter.PendingMessage pending = open("gpt");
+        for (int i = 0; i < 250; i++) {
+            pending.append("字");
+        }
+        pending.usage(10, 250, 260);
+        pending.finish("sent");
+
+        assertEquals(1, registry.get("chat.generation.ttft").tags("endpoint", ChatMetrics.STREAM, "model", "gpt").timer().count());
+        assertEquals(249, registry.get("chat.generation.inter.token").tag("model", "gpt").timer().count());
+        assertEquals(1, registry.get("chat.generation.tokens.per.second").tag("model", "gpt").summary().count());
+        // 2次检查点 + 最终内容 + 对话摘要 + token用量
+        assertEquals(5, registry.get("chat.generation.db.writes").tag("model", "gpt").summary().totalAmount());
+        assertEquals(1, registry.get("chat.generations").tags("model", "gpt", "status", "sent").counter().count());
+    }
+
+    @Test
+    public void testErrorReplaceIsNotFirstToken() {
+        StreamingMessageWriter.PendingMessage pending = open("gpt");
+        pending.replace("生成失败：连接被拒绝");
+        pending.finish("error");
+
+        assertEquals(0, registry.get("chat.generation.ttft").tag("model", "gpt").timer().count());
+        assertEquals(0, registry.get("chat.generation.tokens.per.second").tag("model", "gpt").summary().count());
+        assertEquals(1, registry.get("chat.generations").tags("model", "gpt", "status", "error").counter().count());
+    }
+
+    @Test
+    public void testNonStreamedReplyRecordsFirstTokenAtFinish() {
+        StreamingMessageWriter.PendingMessage pending = open("qwen");
+        pending.replace("完整回复");
+        pending.finish("sent");
+
+        assertEquals(1, registry.get("chat.generation.ttft").tag("model", "qwen").timer().count());
+        // 一次性返回的内容没有输出速度
+        assertEquals(0, registry.get("chat.generation.tokens.per.second").tag("model", "qwen").summary().count());
+    }
+
+    @Test
+    public void testUpstreamOutcomes() {
+        metrics.upstream(Flux.just("a", "b"), ChatMetrics.STREAM, "gpt").blockLast();
+        assertEquals(1, registry.get("chat.upstream.response").tag("model", "gpt").timer().count());
+        assertEquals(1, registry.get("chat.upstream.duration").tags("model", "gpt", "outcome", "complete").timer().count());
+
+        Flux<String> timeout = Flux.<String>never().timeout(Duration.ofMillis(10));
+        assertThrows(RuntimeException.class, () -> metrics.upstream(timeout, ChatMetrics.STREAM, "gpt").blockLast());
+        assertEquals(1, registry.get("chat.upstream.duration").tags("model", "gpt", "outcome", "timeout").timer().count());
+
+        metrics.upstream(Flux.never(), ChatMetrics.STREAM, "wf-1").subscribe().dispose();
+        assertEquals(1, registry.get("chat.upstream.duration").tags("model", "wf-1", "outcome", "cancelled").timer().count());
+        assertTrue(ChatMetrics.isTimeout(new RuntimeException(new TimeoutException())));
+    }
+
+    @Test
+    public void testActiveStreams() {
+        metrics.streamOpened(ChatMetrics.STREAM);
+        metrics.streamOpened(ChatMetrics.STREAM);
+        metrics.streamClosed(ChatMetrics.STREAM, "timeout");
+        metrics.bytesCounter(ChatMetrics.STREAM).increment(100);
+        metrics.bytesCounter(ChatMetrics.STREAM).increment(28);
+
+        assertEquals(1, registry.get("chat.stream.active").tag("endpoint", ChatMetrics.STREAM).gauge().value());
+        assertEquals(1, registry.get("chat.stream.closed").tag("reason", "timeout").counter().count());
+        assertEquals(128, registry.get("chat.stream.bytes").counter().count());
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings({"null", "unchecked"})
+public class ChatStreamSinkTest {
+
+    @Mock
+    private MessageRepository messageRepo;
+
+    @Mock
+    private ConversationRepository conversationRepo;
+
+    private StreamingMessageWriter writer;
+    private RecordingEmitter emitter;
+
+    @BeforeEach
+    public void setUp() {
+        writer = new StreamingMessageWriter(messageRepo, conversationRepo, 60_000, 10_000);
+        emitter = new RecordingEmitter();
+    }
+
+    private Message message(String id, String role) {
+        Conversation conversation = new Conversation();
+        conversation.setId("conv-1");
+        Message message = new Message();
+        message.setId(id);
+        message.setConversation(conversation);
+        message.setRole(role);
+        message.setContent("");
+        message.setStatus("generating");
+        return message;
+    }
+
+    private static Map<String, Object> snapshot(Message m) {
+        return Map.of("id", m.getId(), "content", m.getContent(), "status", m.getStatus());
+    }
+
+    @Test
+    public void testV2_SendsOnlyNewTextWithSequenceNumbers() throws Exception {
+        Message aiMsg = message("ai-1", "assistant");
+        StreamingMessageWriter.PendingMessage pending = writer.open(aiMsg);
+        ChatStreamSink sink = ChatStreamSink.create("v2", emitter, ChatStreamSinkTest::snapshot, 16);
+
+        sink.start(message("user-1", "user"), pending);
+        pending.append("你好");
+        sink.update(pending);
+        pending.append("，世界");
+        sink.update(pending);
+        sink.update(pending); // 没有新内容，不发送
+        pending.replace("完整内容");
+        sink.update(pending);
+        pending.usage(3, 4, 7);
+        pending.finish("sent");
+        sink.done(pending);
+        sink.done(pending);
+
+        assertEquals(List.of("start", "delta", "delta", "delta", "done"), emitter.names);
+        assertEquals("ai-1", emitter.data.get(0).get("messageId"));
+        assertEquals("你好", emitter.data.get(1).get("text"));
+        assertEquals(1L, emitter.data.get(1).get("seq"));
+        assertEquals("，世界", emitter.data.get(2).get("text"));
+        assertEquals(2L, emitter.data.get(2).get("seq"));
+        assertNull(emitter.data.get(2).get("reset"));
+        assertEquals("完整内容", emitter.data.get(3).get("text"));
+        assertEquals(true, emitter.data.get(3).get("reset"));
+
+        Map<String, Object> done = emitter.data.get(4);
+        assertEquals(4L, done.get("seq"));
+        assertEquals("完整内容", done.get("content"));
+        assertEquals("sent", done.get("status"));
+        assertEquals(7, ((Map<String, Object>) done.get("usage")).get("totalTokens"));
+    }
+
+    @Test
+    public void testV1_SendsFullSnapshots() throws Exception {
+        Message aiMsg = message("ai-2", "assistant");
+        StreamingMessageWriter.PendingMessage pending = writer.open(aiMsg);
+        ChatStreamSink sink = ChatStreamSink.create("v1", emitter, ChatStreamSinkTest::snapshot, 16);
+
+        sink.start(message("user-2", "user"), pending);
+        pending.append("你好");
+        sink.update(pending);
+        pending.append("，世界");
+        sink.update(pending);
+        pending.finish("sent");
+        sink.done(pending);
+        sink.done(pending);
+
+        assertEquals(List.of("message", "message", "message", "message"), emitter.names);
+        assertEquals("user-2", emitter.data.get(0).get("id"));
+        assertEquals("你好，世界", emitter.data.get(2).get("content"));
+        assertEquals("sent", emitter.data.get(3).get("status"));
+    }
+
+    @Test
+    public void testDefaultsToV1ForClientsWithoutProtocol() throws Exception {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message("ai-5", "assistant"));
+        ChatStreamSink sink = ChatStreamSink.create(null, emitter, ChatStreamSinkTest::snapshot, 16);
+
+        sink.start(message("user-5", "user"), pending);
+        pending.append("你好");
+        sink.update(pending);
+
+        assertEquals(List.of("message", "message"), emitter.names);
+        assertEquals("你好", emitter.data.get(1).get("content"));
+    }
+
+    @Test
+    public void testAttach_ReplaysEventsAfterLastEventId() throws Exception {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message("ai-3", "assistant"));
+        ChatStreamSink sink = ChatStreamSink.create("v2", emitter, ChatStreamSinkTest::snapshot, 16);
+        sink.start(message("user-3", "user"), pending);
+        for (String text : List.of("一", "二", "三")) {
+            pending.append(text);
+            sink.update(pending);
+        }
+
+        RecordingEmitter resumed = new RecordingEmitter();
+        sink.attach(resumed, 1);
+        pending.append("四");
+        sink.update(pending);
+
+        assertEquals(List.of("2", "3", "4"), resumed.ids);
+        assertEquals("二", resumed.data.get(0).get("text"));
+        assertEquals("四", resumed.data.get(2).get("text"));
+        // 原连接同样收到后续事件
+        assertEquals("4", emitter.ids.get(emitter.ids.size() - 1));
+    }
+
+    @Test
+    public void testAttach_SendsResetWhenMissedEventsWereEvicted() throws Exception {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message("ai-4", "assistant"));
+        ChatStreamSink sink = ChatStreamSink.create("v2", emitter, ChatStreamSinkTest::snapshot, 2);
+        sink.start(message("user-4", "user"), pending);
+        for (String text : List.of("一", "二", "三", "四")) {
+            pending.append(text);
+            sink.update(pending);
+        }
+
+        RecordingEmitter resumed = new RecordingEmitter();
+        sink.attach(resumed, 1);
+
+        assertEquals(List.of("delta"), resumed.names);
+        assertEquals("4", resumed.ids.get(0));
+        assertEquals("一二三四", resumed.data.get(0).get("text"));
+        assertEquals(true, resumed.data.get(0).get("reset"));
+    }
+
+    @Test
+    public void testAttach_AfterDoneSendsOnlyDoneAndCompletes() throws Exception {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message("ai-5", "assistant"));
+        ChatStreamSink sink = ChatStreamSink.create("v2", emitter, ChatStreamSinkTest::snapshot, 16);
+        sink.start(message("user-5", "user"), pending);
+        pending.append("一");
+        sink.update(pending);
+        pending.append("二");
+        sink.update(pending);
+        pending.finish("sent");
+        sink.done(pending);
+        sink.complete();
+
+        RecordingEmitter resumed = new RecordingEmitter();
+        sink.attach(resumed, 1);
+
+        assertEquals(List.of("done"), resumed.names);
+        assertEquals("一二", resumed.data.get(0).get("content"));
+        assertTrue(resumed.completed);
+    }
+
+    // 记录发送的事件ID、事件名和数据，不写响应
+    private static class RecordingEmitter extends SseEmitter {
+        final List<String> ids = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<Map<String, Object>> data = new ArrayList<>();
+        boolean completed;
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof String s && s.contains("event:")) {
+                    for (String line : s.split("\n")) {
+                        if (line.startsWith("id:")) ids.add(line.substring(3));
+                        if (line.startsWith("event:")) names.add(line.substring(6));
+                    }
+                } else if (part.getData() instanceof Map<?, ?> m) {
+                    data.add((Map<String, Object>) m);
+                }
+            }
+        }
+    }
+}
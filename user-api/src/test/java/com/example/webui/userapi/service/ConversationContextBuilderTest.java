@@ -0,0 +1,126 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.entity.ModelConfig;
+import com.example.webui.common.repo.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ConversationContextBuilderTest {
+
+    @Mock
+    private MessageRepository messageRepo;
+
+    private ConversationContextBuilder builder;
+    private Conversation conversation;
+    private final List<Message> history = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        builder = new ConversationContextBuilder(messageRepo, 8192, 30, 100);
+        conversation = new Conversation();
+        conversation.setId("conv-1");
+    }
+
+    private Message message(int i, String role, String content, String status) {
+        Message m = new Message();
+        m.setId(String.format("m-%03d", i));
+        m.setConversation(conversation);
+        m.setRole(role);
+        m.setContent(content);
+        m.setStatus(status);
+        m.setCreatedAt(Instant.ofEpochSecond(1_000 + i));
+        return m;
+    }
+
+    // 上下文窗口刚好容纳系统提示词、回复预留和budget个token的历史
+    private ModelConfig modelWithBudget(int budget) {
+        ModelConfig mc = new ModelConfig();
+        mc.setContextWindow(budget + ConversationContextBuilder.REPLY_TOKENS
+                + TokenEstimator.estimateMessage(ConversationContextBuilder.SYSTEM_PROMPT));
+        return mc;
+    }
+
+    private void stubLatest() {
+        when(messageRepo.findLatest(eq("conv-1"), any(Pageable.class)))
+                .thenAnswer(inv -> {
+                    List<Message> latest = new ArrayList<>(history);
+                    Collections.reverse(latest);
+                    return latest.stream().limit(((Pageable) inv.getArgument(1)).getPageSize()).toList();
+                });
+    }
+
+    @Test
+    public void testEstimate() {
+        assertEquals(0, TokenEstimator.estimate(""));
+        assertEquals(4, TokenEstimator.estimate("你好世界"));
+        // "hello"=2, "world"=2, "!"=1
+        assertEquals(5, TokenEstimator.estimate("hello world!"));
+        assertEquals(2, TokenEstimator.estimate("用Java"));
+    }
+
+    @Test
+    public void testKeepsMostRecentMessagesWithinBudget() {
+        // 每条消息 4个汉字 + 4格式开销 = 8 token
+        for (int i = 0; i < 10; i++) {
+            history.add(message(i, i % 2 == 0 ? "user" : "assistant", "第" + i + "条消", "sent"));
+        }
+        history.add(message(10, "assistant", "", "generating"));
+        history.add(message(11, "assistant", "出错了啊", "error"));
+        stubLatest();
+
+        List<Map<String, String>> messages = builder.messages("conv-1", modelWithBudget(24));
+
+        assertEquals(4, messages.size());
+        assertEquals("system", messages.get(0).get("role"));
+        assertEquals(List.of("第7条消", "第8条消", "第9条消"),
+                messages.subList(1, 4).stream().map(m -> m.get("content")).toList());
+    }
+
+    @Test
+    public void testAppendUpdatesWindowWithoutQueryingHistory() {
+        for (int i = 0; i < 4; i++) {
+            history.add(message(i, i % 2 == 0 ? "user" : "assistant", "第" + i + "条消", "sent"));
+        }
+        stubLatest();
+        ModelConfig model = modelWithBudget(16);
+        builder.messages("conv-1", model);
+
+        builder.append(message(4, "user", "第4条消", "sent"));
+        builder.append(message(5, "assistant", "", "generating"));
+        List<Map<String, String>> messages = builder.messages("conv-1", model);
+
+        assertEquals(List.of("第3条消", "第4条消"),
+                messages.subList(1, messages.size()).stream().map(m -> m.get("content")).toList());
+        verify(messageRepo, times(1)).findLatest(eq("conv-1"), any(Pageable.class));
+        verifyNoMoreInteractions(messageRepo);
+    }
+
+    @Test
+    public void testAlwaysIncludesLatestMessageEvenIfOverBudget() {
+        history.add(message(0, "user", "很长的一条消息".repeat(10), "sent"));
+        stubLatest();
+
+        List<Map<String, String>> messages = builder.messages("conv-1", modelWithBudget(8));
+
+        assertEquals(2, messages.size());
+        assertEquals("user", messages.get(1).get("role"));
+    }
+}
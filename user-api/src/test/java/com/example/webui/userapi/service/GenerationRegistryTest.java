@@ -0,0 +1,100 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.Disposable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("null")
+public class GenerationRegistryTest {
+
+    @Mock
+    private MessageRepository messageRepo;
+
+    @Mock
+    private ConversationRepository conversationRepo;
+
+    @Mock
+    private Disposable upstream;
+
+    private StreamingMessageWriter writer;
+    private GenerationRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        writer = new StreamingMessageWriter(messageRepo, conversationRepo, 60_000, 10_000);
+        registry = new GenerationRegistry();
+    }
+
+    private StreamingMessageWriter.PendingMessage open(String messageId) {
+        Conversation conversation = new Conversation();
+        conversation.setId("conv-1");
+        Message message = new Message();
+        message.setId(messageId);
+        message.setConversation(conversation);
+        message.setRole("assistant");
+        message.setContent("");
+        message.setStatus("generating");
+        return writer.open(message);
+    }
+
+    @Test
+    public void testStopConversation_CancelsUpstreamAndKeepsPartialContent() {
+        StreamingMessageWriter.PendingMessage pending = open("msg-1");
+        GenerationRegistry.Generation generation = registry.start("user-1", pending);
+        generation.attach(upstream);
+        AtomicInteger upstreamStops = new AtomicInteger();
+        AtomicInteger callbacks = new AtomicInteger();
+        generation.onUpstreamStop(upstreamStops::incrementAndGet);
+        generation.onStopped(callbacks::incrementAndGet);
+        pending.append("部分回答");
+
+        assertEquals(1, registry.stopConversation("conv-1"));
+        // 重复停止、之后SSE连接结束触发的取消都不再生效
+        assertEquals(0, registry.stopConversation("conv-1"));
+        assertFalse(registry.cancel(generation, "interrupted"));
+
+        verify(upstream).dispose();
+        verify(messageRepo).checkpoint(eq("msg-1"), eq("部分回答"), eq("stopped"), any());
+        assertEquals(1, upstreamStops.get());
+        assertEquals(1, callbacks.get());
+        assertEquals(0, registry.inFlightCount());
+    }
+
+    @Test
+    public void testFinish_PreventsLaterCancel() {
+        StreamingMessageWriter.PendingMessage pending = open("msg-2");
+        GenerationRegistry.Generation generation = registry.start("user-1", pending);
+        generation.attach(upstream);
+        pending.finish("sent");
+
+        assertTrue(registry.finish(generation));
+        assertFalse(registry.cancel(generation, "interrupted"));
+
+        verify(upstream, never()).dispose();
+        verify(messageRepo, never()).checkpoint(anyString(), anyString(), eq("interrupted"), any());
+    }
+
+    @Test
+    public void testAttachAfterCancel_DisposesImmediately() {
+        GenerationRegistry.Generation generation = registry.start("user-1", open("msg-3"));
+        registry.cancel(generation, "interrupted");
+
+        generation.attach(upstream);
+
+        verify(upstream).dispose();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.webui.userapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GenerationSchedulerTest {
+
+    private static final String URL = "http://bisheng.local:7860/api/v2/workflow/invoke";
+
+    private final List<String> started = new ArrayList<>();
+    private final Map<String, GenerationScheduler.Ticket> running = new HashMap<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    private GenerationScheduler.Ticket submit(GenerationScheduler scheduler, String user, String name) {
+        return scheduler.submit(URL, null, user, ticket -> {
+            started.add(name);
+            running.put(name, ticket);
+        }, (position, etaMs) -> positions.put(name, position));
+    }
+
+    @Test
+    public void testRoundRobinBetweenUsers() {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 100, 3);
+
+        submit(scheduler, "alice", "a1");
+        submit(scheduler, "alice", "a2");
+        submit(scheduler, "alice", "a3");
+        submit(scheduler, "bob", "b1");
+
+        assertEquals(List.of("a1"), started);
+        assertEquals(3, scheduler.queued(URL));
+        // 轮转顺序：a2、b1、a3
+        assertEquals(1, positions.get("a2"));
+        assertEquals(2, positions.get("b1"));
+        assertEquals(3, positions.get("a3"));
+
+        running.get("a1").release();
+        running.get("a2").release();
+        running.get("b1").release();
+
+        assertEquals(List.of("a1", "a2", "b1", "a3"), started);
+        assertEquals(1, scheduler.running(URL));
+        assertEquals(0, scheduler.queued(URL));
+    }
+
+    @Test
+    public void testRejectsWhenQueueOrUserQueueIsFull() {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 2, 1);
+
+        submit(scheduler, "alice", "a1");
+        submit(scheduler, "alice", "a2");
+        assertThrows(UpstreamLimiter.BusyException.class, () -> submit(scheduler, "alice", "a3"));
+        submit(scheduler, "bob", "b1");
+        assertThrows(UpstreamLimiter.BusyException.class, () -> submit(scheduler, "carol", "c1"));
+
+        assertEquals(2, scheduler.queued(URL));
+    }
+
+    @Test
+    public void testDisposeWhileQueuedLeavesQueue() {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 100, 3);
+
+        submit(scheduler, "alice", "a1");
+        GenerationScheduler.Ticket b1 = submit(scheduler, "bob", "b1");
+        submit(scheduler, "carol", "c1");
+        assertEquals(2, positions.get("c1"));
+
+        b1.dispose();
+        assertEquals(1, positions.get("c1"));
+
+        running.get("a1").dispose();
+        assertEquals(List.of("a1", "c1"), started);
+        // 重复释放不会多归还名额
+        running.get("a1").release();
+        assertEquals(1, scheduler.running(URL));
+    }
+
+    @Test
+    public void testExecutorRejectionDoesNotStartOnReleasingThread() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 100, 3, task -> {
+            throw new TaskRejectedException("full");
+        }, new SimpleMeterRegistry());
+        GenerationScheduler.Ticket a1 = scheduler.submit(URL, null, "alice", ticket -> { }, null);
+        AtomicReference<Thread> startedOn = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.submit(URL, null, "bob", ticket -> {
+            startedOn.set(Thread.currentThread());
+            latch.countDown();
+        }, null);
+
+        a1.release();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), startedOn.get());
+        assertTrue(startedOn.get().getName().startsWith("boundedElastic"));
+        assertEquals(1, scheduler.running(URL));
+        assertEquals(0, scheduler.queued(URL));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.webui.userapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JdbcBishengSessionStoreTest {
+
+    private static final String UPDATE_SESSION = "UPDATE bisheng_sessions SET session_id";
+
+    private JdbcTemplate jdbc;
+    private JdbcBishengSessionStore store;
+    // 设置后，下一次UPDATE返回0行之后模拟另一个实例抢先插入了同一对话
+    private BishengSessionStore.Session concurrentInsert;
+
+    @BeforeEach
+    public void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:bisheng_sessions;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(ds) {
+            @Override
+            public int update(String sql, Object... args) {
+                int updated = super.update(sql, args);
+                if (updated == 0 && concurrentInsert != null && sql.startsWith(UPDATE_SESSION)) {
+                    BishengSessionStore.Session s = concurrentInsert;
+                    concurrentInsert = null;
+                    super.update("INSERT INTO bisheng_sessions VALUES (?, ?, ?, ?, ?)",
+                            "c1", s.sessionId(), s.messageId(), s.nodeId(), Timestamp.from(Instant.now()));
+                }
+                return updated;
+            }
+        };
+        jdbc.execute("CREATE TABLE bisheng_sessions (conversation_id VARCHAR(36) PRIMARY KEY, session_id VARCHAR(64), " +
+                "message_id VARCHAR(64), node_id VARCHAR(64), updated_at TIMESTAMP)");
+        // 近端缓存立即过期，每次读取都落到数据库
+        store = new JdbcBishengSessionStore(jdbc, new SimpleMeterRegistry(), 10, 100, 0);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void testPutInsertsThenUpdates() {
+        store.put("c1", new BishengSessionStore.Session("s1", null, null));
+        store.put("c1", new BishengSessionStore.Session("s1", "m1", "n1"));
+
+        assertEquals(new BishengSessionStore.Session("s1", "m1", "n1"), store.get("c1"));
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testPutFallsBackToUpdateOnDuplicateKey() {
+        concurrentInsert = new BishengSessionStore.Session("other", null, null);
+
+        store.put("c1", new BishengSessionStore.Session("s1", "m1", "n1"));
+
+        assertEquals(new BishengSessionStore.Session("s1", "m1", "n1"), store.get("c1"));
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testPutSessionIdIfAbsentKeepsConcurrentlyInsertedSession() {
+        // 过期行被覆盖的UPDATE没有命中，插入时另一个实例已写入完整会话
+        concurrentInsert = new BishengSessionStore.Session("other", "m1", "n1");
+
+        store.putSessionIdIfAbsent("c1", "s1");
+
+        assertEquals(new BishengSessionStore.Session("other", "m1", "n1"), store.get("c1"));
+    }
+
+    @Test
+    public void testPutSessionIdIfAbsentDoesNotOverwriteLiveSession() {
+        store.put("c1", new BishengSessionStore.Session("s1", "m1", "n1"));
+
+        store.putSessionIdIfAbsent("c1", "s2");
+
+        assertEquals(new BishengSessionStore.Session("s1", "m1", "n1"), store.get("c1"));
+    }
+
+    @Test
+    public void testPutSessionIdIfAbsentReplacesExpiredSession() {
+        insert("c1", "old", Instant.now().minus(Duration.ofMinutes(11)));
+
+        store.putSessionIdIfAbsent("c1", "s2");
+
+        assertEquals(new BishengSessionStore.Session("s2", null, null), store.get("c1"));
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testGetRefreshesTtlOnAccess() {
+        insert("c1", "s1", Instant.now().minus(Duration.ofMinutes(9)));
+        insert("c2", "s2", Instant.now().minus(Duration.ofMinutes(11)));
+
+        assertNotNull(store.get("c1"));
+        assertNull(store.get("c2"));
+
+        // 读取后从当前时间重新计算过期
+        Instant touched = jdbc.queryForObject("SELECT updated_at FROM bisheng_sessions WHERE conversation_id = 'c1'", Timestamp.class).toInstant();
+        assertTrue(touched.isAfter(Instant.now().minus(Duration.ofMinutes(1))));
+    }
+
+    private void insert(String conversationId, String sessionId, Instant updatedAt) {
+        jdbc.update("INSERT INTO bisheng_sessions VALUES (?, ?, NULL, NULL, ?)", conversationId, sessionId, Timestamp.from(updatedAt));
+    }
+
+    private int count() {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM bisheng_sessions", Integer.class);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Conversation;
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.repo.ConversationRepository;
+import com.example.webui.common.repo.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("null")
+public class StreamingMessageWriterTest {
+
+    @Mock
+    private MessageRepository messageRepo;
+
+    @Mock
+    private ConversationRepository conversationRepo;
+
+    private StreamingMessageWriter writer;
+    private Message message;
+
+    @BeforeEach
+    public void setUp() {
+        // 时间阈值设得足够大，只由字数阈值触发检查点
+        writer = new StreamingMessageWriter(messageRepo, conversationRepo, 60_000, 100);
+        Conversation conversation = new Conversation();
+        conversation.setId("conv-1");
+        message = new Message();
+        message.setId("msg-1");
+        message.setConversation(conversation);
+        message.setRole("assistant");
+        message.setContent("");
+        message.setStatus("generating");
+    }
+
+    @Test
+    public void testAppend_CheckpointsBySize() {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message);
+
+        // 500个单字token，每100字一次检查点
+        for (int i = 0; i < 500; i++) {
+            pending.append("字");
+        }
+
+        verify(messageRepo, times(5)).checkpoint(eq("msg-1"), anyString(), eq("generating"), any());
+        assertEquals(500, pending.length());
+    }
+
+    @Test
+    public void testFinish_WritesFinalContentOnce() {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message);
+        pending.append("你好");
+        pending.append("，世界");
+
+        assertTrue(pending.finish("sent"));
+        assertFalse(pending.finish("interrupted"));
+        pending.append("忽略");
+
+        verify(messageRepo, times(1)).checkpoint("msg-1", "你好，世界", "sent", message.getUpdatedAt());
+        verify(conversationRepo, times(1)).updateLastMessage("conv-1", "msg-1", "你好，世界", "sent");
+        assertEquals("sent", message.getStatus());
+        assertEquals("你好，世界", message.getContent());
+        assertEquals(0, writer.openCount());
+    }
+
+    @Test
+    public void testReplace_OverridesAccumulatedContent() {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message);
+        pending.append("部分");
+        pending.replace("完整内容");
+
+        assertEquals("完整内容", pending.content());
+        assertEquals("完整内容", pending.view().getContent());
+        verify(messageRepo, never()).checkpoint(anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testUsage_WrittenOnFinish() {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message);
+        pending.append("回答");
+        pending.usage(12, 3, 15);
+
+        verify(messageRepo, never()).updateUsage(anyString(), anyInt(), anyInt(), anyInt(), any());
+        pending.finish("sent");
+
+        verify(messageRepo).updateUsage("msg-1", 12, 3, 15, null);
+        assertEquals(15, message.getTotalTokens());
+    }
+
+    @Test
+    public void testUsage_EstimatedWhenUpstreamReturnsNone() {
+        StreamingMessageWriter.PendingMessage pending = writer.open(message);
+        pending.model("model-1", 20);
+        pending.append("你好世界");
+        pending.finish("sent");
+
+        verify(messageRepo).updateUsage("msg-1", 20, 4, 24, "model-1");
+        assertEquals("model-1", message.getModelKey());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.webui.userapi.service;
+
+import com.example.webui.common.entity.Message;
+import com.example.webui.common.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("unchecked")
+public class UsageMeterTest {
+
+    @Mock
+    private JdbcTemplate jdbc;
+
+    @Mock
+    private PlatformTransactionManager txManager;
+
+    private final Clock clock = Clock.fixed(Instant.parse("2026-03-15T08:00:00Z"), ZoneOffset.UTC);
+
+    private UsageMeter meter;
+
+    @BeforeEach
+    public void setUp() {
+        meter = new UsageMeter(jdbc, new TransactionTemplate(txManager), 100, 0, 60, clock);
+    }
+
+    private static Message usage(String modelKey, int prompt, int completion) {
+        Message m = new Message();
+        m.setModelKey(modelKey);
+        m.setPromptTokens(prompt);
+        m.setCompletionTokens(completion);
+        m.setTotalTokens(prompt + completion);
+        return m;
+    }
+
+    private static User user(String id) {
+        User u = new User();
+        u.setId(id);
+        return u;
+    }
+
+    @Test
+    public void testFlushWritesOnlyNewUsageInBatches() {
+        when(jdbc.batchUpdate(anyString(), anyList())).thenAnswer(inv -> new int[((List<?>) inv.getArgument(1)).size()]);
+
+        meter.record("u1", usage("m1", 10, 5));
+        meter.record("u1", usage("m1", 20, 5));
+        meter.record("u2", usage("m1", 1, 1));
+        meter.flush();
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbc).batchUpdate(startsWith("UPDATE token_usage"), rows.capture());
+        Object[] u1 = rows.getValue().stream().filter(r -> r[3].equals("u1")).findFirst().orElseThrow();
+        assertEquals(30L, u1[0]);
+        assertEquals(10L, u1[1]);
+        assertEquals(2L, u1[2]);
+        // batchUpdate返回0：没有对应行，逐行INSERT
+        verify(jdbc, times(2)).update(startsWith("INSERT INTO token_usage"), any(Object[].class));
+        verify(jdbc).batchUpdate(startsWith("UPDATE users"), anyList());
+
+        // 没有新用量时不写库
+        meter.flush();
+        verifyNoMoreInteractions(jdbc);
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() {
+        when(jdbc.batchUpdate(anyString(), anyList()))
+                .thenThrow(new RuntimeException("db down"))
+                .thenAnswer(inv -> new int[]{1});
+
+        meter.record("u1", usage("m1", 10, 5));
+        meter.flush();
+        meter.flush();
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbc, times(2)).batchUpdate(startsWith("UPDATE token_usage"), rows.capture());
+        assertEquals(10L, rows.getAllValues().get(1).get(0)[0]);
+    }
+
+    @Test
+    public void testQuotaCountsLoadedAndLocalUsage() {
+        when(jdbc.queryForObject(contains("usage_date = ?"), eq(Long.class), any(), any())).thenReturn(80L);
+        when(jdbc.queryForObject(contains("usage_date >= ?"), eq(Long.class), any(), any(), any())).thenReturn(80L);
+
+        meter.checkQuota(user("u1"));
+        meter.record("u1", usage("m1", 15, 5));
+        assertThrows(UsageMeter.QuotaExceededException.class, () -> meter.checkQuota(user("u1")));
+
+        // 用户单独设置的额度优先
+        User unlimited = user("u1");
+        unlimited.setDailyTokenQuota(0L);
+        meter.checkQuota(unlimited);
+        verify(jdbc, times(1)).queryForObject(contains("usage_date = ?"), eq(Long.class), any(), any());
+    }
+}
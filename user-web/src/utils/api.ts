@@ -283,6 +283,35 @@ export const sseRequest = (config: RequestConfig, onMessage: (data: any) => void
   return abortController
 }
 
+// 聊天流式请求 - 使用v2增量协议（start/delta/done），在这里还原成完整消息快照再交给页面处理
+export const chatStreamRequest = (config: RequestConfig, onMessage: (data: any) => void, onError?: (error: any) => void): AbortController => {
+  let current: any = null
+
+  return sseRequest({ ...config, data: { ...config.data, protocol: 'v2' } }, (data) => {
+    if (data.type === 'start') {
+      // start事件带用户消息和AI消息（内容为空）
+      current = { ...data.message }
+      if (data.userMessage) onMessage(data.userMessage)
+    } else if (data.type === 'delta' && current) {
+      current.content = data.reset ? data.text : (current.content || '') + data.text
+      onMessage({ ...current })
+    } else if (data.type === 'queue' && current) {
+      // 排队中：只在还没有内容时显示排队位置，不写入累计内容
+      if (!current.content) {
+        const eta = data.etaMs > 0 ? `，预计等待${Math.ceil(data.etaMs / 1000)}秒` : ''
+        onMessage({ ...current, content: `排队中，前面还有${data.position - 1}个请求${eta}` })
+      }
+    } else if (data.type === 'done' && current) {
+      current.content = data.content
+      current.status = data.status
+      onMessage({ ...current })
+    } else {
+      // 错误事件等其他数据原样传递
+      onMessage(data)
+    }
+  }, onError)
+}
+
 // GET请求
 export const get = <T = any>(url: string, params?: Record<string, any>): Promise<T> => {
   // 处理查询参数
@@ -344,5 +373,6 @@ export default {
   put,
   delete: del,
   sse: sseRequest,
+  chatStream: chatStreamRequest,
   bisheng
 }
\ No newline at end of file